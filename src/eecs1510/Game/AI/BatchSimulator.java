@@ -0,0 +1,148 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.Game;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Randomizer;
+import eecs1510.Game.Stats.GameStatistics;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays a large number of complete games with a policy and reports the
+ * distributions of their outcomes.
+ *
+ * Every thread records into its own <code>GameStatistics</code>, which are
+ * merged at the end, so memory use is the same for a thousand games as for a
+ * billion. Seeds are drawn from a generator with a fixed seed, so runs are
+ * repeatable.
+ */
+public class BatchSimulator
+{
+
+    private long games = 10_000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int size = 4;
+    private String policySpec = MovePolicies.HEURISTIC;
+    private String engine = BoardEngines.REFERENCE;
+    private long seed = 2048;
+
+    private MovePolicy policy;
+    private final AtomicLong nextGame = new AtomicLong();
+
+    public static void main(String[] args)
+    {
+        BatchSimulator b = new BatchSimulator();
+
+        new OptionsParser().add("games", "The number of games to play (Default: 10000)", (s) -> {
+            b.games = Long.parseLong(s);
+        }).add("t", "threads", "The number of threads (Default: one per core)", (s) -> {
+            b.threads = Integer.parseInt(s);
+        }).add("size", "The size of the board (Default: 4)", (s) -> {
+            b.size = Integer.parseInt(s);
+        }).add("policy", "'heuristic' or a file written by TDTrainer or SmallBoardSolver (Default: heuristic)", (s) -> {
+            b.policySpec = s;
+        }).add("engine", "The board engine to play with: " + String.join(", ", BoardEngines.NAMES) + " (Default: " + BoardEngines.REFERENCE + ")", (s) -> {
+            b.engine = s;
+        }).add("seed", "Seeds the choice of game seeds, for repeatable runs (Default: 2048)", (s) -> {
+            b.seed = Long.parseLong(s);
+        }).parse(args);
+
+        try
+        {
+            b.run().print(System.out);
+        } catch(IOException | InterruptedException | IllegalArgumentException e) {
+            System.err.println("Simulation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Plays all games
+     *
+     * @return the merged statistics of all threads
+     */
+    public GameStatistics run() throws IOException, InterruptedException
+    {
+        policy = MovePolicies.create(policySpec, size);
+        if (!policy.supports(size))
+        {
+            throw new IllegalArgumentException("The policy can't play on a board of size " + size);
+        }
+
+        long start = System.nanoTime();
+        GameStatistics[] perThread = new GameStatistics[threads];
+        Thread[] running = new Thread[threads];
+        Exception[] failures = new Exception[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            GameStatistics stats = perThread[i] = new GameStatistics();
+            int id = i;
+            running[i] = new Thread(() -> {
+                try
+                {
+                    simulate(stats);
+                } catch(Randomizer.InvalidSeedException | RuntimeException e) {
+                    failures[id] = e;
+                }
+            }, "simulator-" + i);
+            running[i].start();
+        }
+
+        GameStatistics total = new GameStatistics();
+        for (int i = 0; i < threads; i++)
+        {
+            running[i].join();
+            if (failures[i] != null)
+            {
+                throw new IllegalStateException("A simulation thread failed", failures[i]);
+            }
+            total.merge(perThread[i]);
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Played %d games in %.1f s (%.0f games/s, %.0f moves/s)%n", total.getGames(), elapsed,
+                total.getGames() / elapsed, total.getMoveNanos().getCount() / elapsed);
+        return total;
+    }
+
+    /**
+     * Plays games until all have been claimed
+     */
+    private void simulate(GameStatistics stats) throws Randomizer.InvalidSeedException
+    {
+        long game;
+        while ((game = nextGame.getAndIncrement()) < games)
+        {
+            SplittableRandom seeds = new SplittableRandom(seed + game * 0x9E3779B97F4A7C15L);
+            Game g = new Game(size, SeedScanner.seedAt(seeds.nextLong(SeedScanner.SEED_COUNT)), engine);
+
+            while (!g.isLost())
+            {
+                long begin = System.nanoTime();
+                Direction d = policy.nextMove(g.getBoard());
+                if (d == null || g.move(d).isInvalid())
+                {
+                    break;
+                }
+                stats.recordMove(System.nanoTime() - begin);
+            }
+
+            BoardEngine board = g.getBoard();
+            int maxTile = 0;
+            for (int row = 0; row < size; row++)
+            {
+                for (int column = 0; column < size; column++)
+                {
+                    maxTile = Math.max(maxTile, board.getElement(row, column));
+                }
+            }
+            stats.recordGame(g.getScore(), g.getTotalMoves(), maxTile, board.isWon());
+        }
+    }
+
+}
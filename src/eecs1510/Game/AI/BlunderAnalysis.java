@@ -0,0 +1,312 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.GameRecord;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+import eecs1510.Game.Randomizer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays a finished game and finds the moves that gave away the most
+ * expected value compared to the best move in the same position.
+ *
+ * Every position is searched on its own with a shallow expectimax search
+ * that scores the positions at its horizon with the <code>HeuristicEvaluator</code>.
+ * Since the positions don't depend on each other, worker threads simply
+ * claim the next few positions of the game until all of them are done.
+ */
+public class BlunderAnalysis
+{
+
+    /** The default number of moves searched in every position */
+    public static final int DEFAULT_DEPTH = 2;
+
+    /** The number of positions a worker claims at once */
+    private static final int CHUNK = 32;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final PackedBoard packed;
+    private final HeuristicEvaluator evaluator;
+    private final int depth;
+
+    /**
+     * A move of the game and how much worse it was than the best move
+     */
+    public static class Blunder
+    {
+        /** The number of the move, starting at 1 */
+        public final int moveNumber;
+        /** The packed board the move was played on */
+        public final long board;
+        public final Direction played;
+        public final Direction best;
+        /** The value of the best move minus the value of the played move */
+        public final double loss;
+
+        private Blunder(int moveNumber, long board, Direction played, Direction best, double loss)
+        {
+            this.moveNumber = moveNumber;
+            this.board = board;
+            this.played = played;
+            this.best = best;
+            this.loss = loss;
+        }
+    }
+
+    /**
+     * The outcome of analyzing a whole game
+     */
+    public static class Report
+    {
+        /** Every move that was worse than the best move, the largest loss first */
+        public final List<Blunder> blunders = new ArrayList<>();
+        /** The number of moves analyzed */
+        public int moves;
+        /** The number of moves that were the best move */
+        public int bestMoves;
+        public double seconds;
+
+        /**
+         * Prints a summary and the largest blunders
+         *
+         * @param out   where to print to
+         * @param count the maximum number of blunders to list
+         */
+        public void print(PrintStream out, int count)
+        {
+            out.printf("Analyzed %d moves in %.2f s. The best move was played %d times (%.1f%%)%n", moves, seconds,
+                    bestMoves, 100.0 * bestMoves / Math.max(1, moves));
+
+            if (blunders.isEmpty())
+            {
+                return;
+            }
+
+            out.println("Largest blunders:");
+            for (int i = 0; i < Math.min(count, blunders.size()); i++)
+            {
+                Blunder b = blunders.get(i);
+                out.printf("  Move %5d: played %-5s instead of %-5s, %s%n", b.moveNumber, b.played, b.best, describe(b.loss));
+            }
+        }
+    }
+
+    /**
+     * Losses that include a chance of losing the game are dominated by the
+     * value of a lost position, so they are shown as that chance instead
+     */
+    private static String describe(double loss)
+    {
+        double chance = loss / -HeuristicEvaluator.LOST_VALUE;
+        if (chance >= 0.001)
+        {
+            return String.format("raising the chance of losing by %.1f%%", 100.0 * chance);
+        }
+
+        return String.format("losing %.1f", loss);
+    }
+
+    /**
+     * @param size    the size of the board, 2 to 4
+     * @param weights the weights to score positions at the horizon with
+     * @param depth   the number of moves to search in every position
+     */
+    public BlunderAnalysis(int size, HeuristicWeights weights, int depth)
+    {
+        this.packed = PackedBoard.forSize(size);
+        this.evaluator = new HeuristicEvaluator(size, weights);
+        this.depth = depth;
+    }
+
+    public BlunderAnalysis(int size)
+    {
+        this(size, HeuristicWeights.DEFAULT, DEFAULT_DEPTH);
+    }
+
+    public static void main(String[] args)
+    {
+        String[] seed = { null };
+        String[] policySpec = { MovePolicies.HEURISTIC };
+        int[] size = { 4 };
+        int[] depth = { DEFAULT_DEPTH };
+        int[] threads = { Runtime.getRuntime().availableProcessors() };
+        int[] top = { 10 };
+
+        new OptionsParser().add("seed", "Play the game with this seed (Default: random)", (s) -> {
+            seed[0] = s;
+        }).add("policy", "'heuristic', 'mcts' or a file written by TDTrainer or SmallBoardSolver (Default: heuristic)", (s) -> {
+            policySpec[0] = s;
+        }).add("size", "The size of the board, 2 to 4 (Default: 4)", (s) -> {
+            size[0] = Integer.parseInt(s);
+        }).add("depth", "The number of moves to search in every position (Default: " + DEFAULT_DEPTH + ")", (s) -> {
+            depth[0] = Integer.parseInt(s);
+        }).add("t", "threads", "The number of threads (Default: one per core)", (s) -> {
+            threads[0] = Integer.parseInt(s);
+        }).add("top", "The number of blunders to list (Default: 10)", (s) -> {
+            top[0] = Integer.parseInt(s);
+        }).parse(args);
+
+        try
+        {
+            MovePolicy policy = MovePolicies.create(policySpec[0], size[0]);
+            BoardEngine board = BoardEngines.create(BoardEngines.PACKED, size[0], seed[0] == null ? Randomizer.randomSeed() : seed[0]);
+            GameRecord record = new GameRecord(size[0]);
+
+            Direction d;
+            while (!board.isLost() && (d = policy.nextMove(board)) != null)
+            {
+                long before = record.pack(board);
+                record.add(record.size(), before, d);
+                board.squash(d);
+                board.placeRandom();
+            }
+            System.out.println("Seed " + board.getSeed() + ": the game ended after " + record.size() + " moves");
+
+            new BlunderAnalysis(size[0], HeuristicWeights.DEFAULT, depth[0]).analyze(record, threads[0]).print(System.out, top[0]);
+        } catch(IOException | InterruptedException | Randomizer.InvalidSeedException | IllegalArgumentException e) {
+            System.err.println("Analysis failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Searches every position of a game on several threads
+     *
+     * @param record  the game
+     * @param threads the number of worker threads
+     * @return the losses of all moves
+     */
+    public Report analyze(GameRecord record, int threads) throws InterruptedException
+    {
+        int moves = record.size();
+        double[] losses = new double[moves];
+        byte[] best = new byte[moves];
+        AtomicInteger next = new AtomicInteger();
+
+        long start = System.nanoTime();
+        Thread[] running = new Thread[Math.max(1, Math.min(threads, (moves + CHUNK - 1) / CHUNK))];
+        RuntimeException[] failures = new RuntimeException[running.length];
+        for (int i = 0; i < running.length; i++)
+        {
+            final int id = i;
+            running[i] = new Thread(() -> {
+                try
+                {
+                    int first;
+                    while ((first = next.getAndAdd(CHUNK)) < moves)
+                    {
+                        for (int m = first; m < Math.min(first + CHUNK, moves); m++)
+                        {
+                            double[] values = values(record.getBoard(m));
+                            int b = record.getMove(m).ordinal();
+                            for (int k = 0; k < values.length; k++)
+                            {
+                                if (!Double.isNaN(values[k]) && values[k] > values[b]) b = k;
+                            }
+
+                            best[m] = (byte) b;
+                            losses[m] = values[b] - values[record.getMove(m).ordinal()];
+                        }
+                    }
+                } catch(RuntimeException e) {
+                    failures[id] = e;
+                }
+            }, "blunder-analysis-" + i);
+            running[i].start();
+        }
+
+        for (int i = 0; i < running.length; i++)
+        {
+            running[i].join();
+            if (failures[i] != null)
+            {
+                throw new IllegalStateException("An analysis thread failed", failures[i]);
+            }
+        }
+
+        Report r = new Report();
+        r.moves = moves;
+        r.seconds = (System.nanoTime() - start) / 1e9;
+        for (int m = 0; m < moves; m++)
+        {
+            if (losses[m] > 0)
+            {
+                r.blunders.add(new Blunder(m + 1, record.getBoard(m), record.getMove(m), DIRECTIONS[best[m]], losses[m]));
+            } else {
+                r.bestMoves++;
+            }
+        }
+        r.blunders.sort((a, b) -> Double.compare(b.loss, a.loss));
+
+        return r;
+    }
+
+    /**
+     * @param board a packed board
+     * @return the value of every move in the position, NaN for invalid moves
+     */
+    public double[] values(long board)
+    {
+        double[] values = new double[DIRECTIONS.length];
+        for (Direction d : DIRECTIONS)
+        {
+            long after = packed.move(board, d);
+            values[d.ordinal()] = after == board ? Double.NaN : packed.score(board, d) + chance(after, depth);
+        }
+
+        return values;
+    }
+
+    /**
+     * @return the expected value of a position before a tile is spawned
+     */
+    private double chance(long board, int depth)
+    {
+        int[] empty = new int[16];
+        int count = packed.emptyCells(board, empty);
+        if (count == 0)
+        {
+            return evaluator.evaluate(board);
+        }
+
+        double expected = 0.0;
+        for (int i = 0; i < count; i++)
+        {
+            long two = packed.set(board, empty[i], 1);
+            long four = packed.set(board, empty[i], 2);
+            expected += depth <= 1
+                    ? Board.TWO_PROBABILITY * evaluator.evaluate(two) + Board.FOUR_PROBABILITY * evaluator.evaluate(four)
+                    : Board.TWO_PROBABILITY * decision(two, depth - 1) + Board.FOUR_PROBABILITY * decision(four, depth - 1);
+        }
+
+        return expected / count;
+    }
+
+    /**
+     * @return the value of the best move in a position
+     */
+    private double decision(long board, int depth)
+    {
+        double best = HeuristicEvaluator.LOST_VALUE;
+        for (Direction d : DIRECTIONS)
+        {
+            long after = packed.move(board, d);
+            if (after == board) continue;
+
+            best = Math.max(best, packed.score(board, d) + chance(after, depth));
+        }
+
+        return best;
+    }
+
+}
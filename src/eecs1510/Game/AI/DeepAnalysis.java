@@ -0,0 +1,538 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+import eecs1510.Game.Randomizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Searches a single position deeply with expectimax on all cores, for offline
+ * analysis rather than for play.
+ *
+ * The value of a position is the best value over the moves, the value of a
+ * move is its immediate reward plus the expected value over all spawns, and
+ * positions at the search horizon are scored by the <code>HeuristicEvaluator</code>.
+ * Alongside the value, the search tracks the expected score the best line
+ * gains within the horizon, which is what is reported per move.
+ *
+ * Three things keep a deep search tractable:
+ * <ul>
+ *     <li>Spawns that are less likely than a threshold, counted from the root,
+ *         are not searched further but scored by the heuristic</li>
+ *     <li>Positions that are reached more than once, through different
+ *         orders of moves and spawns, are looked up in a transposition table
+ *         shared by all threads</li>
+ *     <li>The moves at the root and the spawns of the upper chance nodes are
+ *         separate tasks on a fork/join pool</li>
+ * </ul>
+ * The table is lock-free: an entry is three longs, and the stored check word
+ * is the XOR of the board with the other two, so an entry that was torn by a
+ * concurrent write simply doesn't match and counts as a miss.
+ */
+public class DeepAnalysis
+{
+
+    /** Chance nodes this many moves from the root or closer fork a task for every spawn */
+    private static final int SPLIT_PLY = 2;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private String seed = null;
+    private String boardSpec = null;
+    private int size = Board.DEFAULT_SIZE;
+    private int depth = 8;
+    private double threshold = 1e-4;
+    private int tableBits = 22;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean scaling = false;
+
+    private PackedBoard packed;
+    private HeuristicEvaluator evaluator;
+    private TranspositionTable table;
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The outcome of one analysis
+     */
+    public static class Result
+    {
+        /** The value of each move, NaN for invalid moves */
+        public final double[] values = new double[DIRECTIONS.length];
+        /** The expected score each move gains within the horizon, NaN for invalid moves */
+        public final double[] scores = new double[DIRECTIONS.length];
+        public long nodes;
+        public long hits;
+        public double seconds;
+
+        /**
+         * @return the move with the highest value, or null if no move is valid
+         */
+        public Direction best()
+        {
+            Direction best = null;
+            for (Direction d : DIRECTIONS)
+            {
+                if (!Double.isNaN(values[d.ordinal()]) && (best == null || values[d.ordinal()] > values[best.ordinal()]))
+                {
+                    best = d;
+                }
+            }
+
+            return best;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        DeepAnalysis a = new DeepAnalysis();
+
+        new OptionsParser().add("seed", "Analyze the opening of the game with this seed (Default: random)", (s) -> {
+            a.seed = s;
+        }).add("board", "Analyze these tiles instead, row by row, separated by commas (for example 2,0,0,4,...)", (s) -> {
+            a.boardSpec = s;
+        }).add("size", "The size of the board, 2 to 4 (Default: 4)", (s) -> {
+            a.size = Integer.parseInt(s);
+        }).add("depth", "The number of moves to search (Default: 8)", (s) -> {
+            a.depth = Integer.parseInt(s);
+        }).add("threshold", "Spawns less likely than this are scored instead of searched (Default: 0.0001)", (s) -> {
+            a.threshold = Double.parseDouble(s);
+        }).add("table", "The transposition table holds 2^N positions (Default: 22)", (s) -> {
+            a.tableBits = Integer.parseInt(s);
+        }).add("t", "threads", "The number of worker threads (Default: one per core)", (s) -> {
+            a.threads = Integer.parseInt(s);
+        }).addSwitch("scaling", "Repeat the analysis with 1, 2, 4, ... threads and report the parallel efficiency", () -> a.scaling = true)
+          .parse(args);
+
+        try
+        {
+            a.run();
+        } catch(Randomizer.InvalidSeedException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void run() throws Randomizer.InvalidSeedException
+    {
+        packed = PackedBoard.forSize(size);
+        evaluator = new HeuristicEvaluator(size);
+
+        long board;
+        if (boardSpec != null)
+        {
+            board = parseBoard(boardSpec);
+        } else {
+            BoardEngine start = BoardEngines.create(BoardEngines.PACKED, size, seed == null ? Randomizer.randomSeed() : seed);
+            board = packed.pack(start);
+            System.out.println("Seed " + start.getSeed());
+        }
+        print(board);
+
+        Result r = analyze(board, threads);
+        System.out.printf("%nDepth %d, threshold %g, %d threads%n", depth, threshold, threads);
+        for (Direction d : DIRECTIONS)
+        {
+            int i = d.ordinal();
+            if (Double.isNaN(r.values[i]))
+            {
+                System.out.printf("  %-5s invalid%n", d);
+            } else {
+                System.out.printf("  %-5s expected score %9.1f   value %12.1f%s%n", d, r.scores[i], r.values[i], d == r.best() ? "   <- best" : "");
+            }
+        }
+        System.out.printf("%d nodes, %.1f%% table hits, %.2f s, %.2f million nodes/s%n",
+                r.nodes, 100.0 * r.hits / Math.max(1, r.nodes), r.seconds, r.nodes / r.seconds / 1e6);
+
+        if (scaling)
+        {
+            System.out.printf("%nThreads      time    nodes/s  speedup  efficiency%n");
+            double single = 0.0;
+            for (int t = 1; ; t = Math.min(2 * t, threads))
+            {
+                Result s = analyze(board, t);
+                if (t == 1) single = s.seconds;
+                System.out.printf("%7d %8.2fs %9.2fM %7.2fx %10.0f%%%n", t, s.seconds, s.nodes / s.seconds / 1e6,
+                        single / s.seconds, 100.0 * single / s.seconds / t);
+                if (t == threads) break;
+            }
+        }
+    }
+
+    /**
+     * Searches a position with a fresh transposition table
+     *
+     * @param board   the packed position
+     * @param threads the number of worker threads
+     * @return the value and expected score of every move
+     */
+    public Result analyze(long board, int threads)
+    {
+        table = new TranspositionTable(tableBits);
+        nodes.reset();
+        hits.reset();
+
+        Result r = new Result();
+        long begin = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            List<MoveTask> moves = new ArrayList<>();
+            for (Direction d : DIRECTIONS)
+            {
+                long after = packed.move(board, d);
+                r.values[d.ordinal()] = Double.NaN;
+                r.scores[d.ordinal()] = Double.NaN;
+                if (after != board)
+                {
+                    moves.add(new MoveTask(board, d));
+                }
+            }
+
+            for (MoveTask m : moves)
+            {
+                pool.execute(m);
+            }
+            for (MoveTask m : moves)
+            {
+                long result = m.join();
+                r.values[m.move.ordinal()] = valueOf(result);
+                r.scores[m.move.ordinal()] = scoreOf(result);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        r.seconds = (System.nanoTime() - begin) / 1e9;
+        r.nodes = nodes.sum();
+        r.hits = hits.sum();
+        return r;
+    }
+
+    /**
+     * Searches one move at the root
+     */
+    private class MoveTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long board;
+        private final Direction move;
+
+        private MoveTask(long board, Direction move)
+        {
+            this.board = board;
+            this.move = move;
+        }
+
+        @Override
+        protected Long compute()
+        {
+            long after = packed.move(board, move);
+            int reward = packed.score(board, move);
+            long result = new ChanceTask(after, depth, 1.0, 0).compute();
+            return pack(reward + valueOf(result), reward + scoreOf(result));
+        }
+    }
+
+    /**
+     * Searches a chance node, splitting it into a task per spawn near the root
+     */
+    private class ChanceTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long board;
+        private final int depth;
+        private final double probability;
+        private final int ply;
+
+        private long visited = 0;
+        private long tableHits = 0;
+
+        private ChanceTask(long board, int depth, double probability, int ply)
+        {
+            this.board = board;
+            this.depth = depth;
+            this.probability = probability;
+            this.ply = ply;
+        }
+
+        @Override
+        protected Long compute()
+        {
+            long result = ply < SPLIT_PLY ? split() : chance(board, depth, probability);
+            nodes.add(visited);
+            hits.add(tableHits);
+            return result;
+        }
+
+        /**
+         * Forks a task for the best move after each spawn
+         */
+        private long split()
+        {
+            int[] empty = new int[packed.getSize() * packed.getSize()];
+            int count = packed.emptyCells(board, empty);
+            visited++;
+
+            List<SpawnTask> spawns = new ArrayList<>();
+            for (int i = 0; i < count; i++)
+            {
+                spawns.add(new SpawnTask(packed.set(board, empty[i], 1), depth - 1, probability * Board.TWO_PROBABILITY / count, ply + 1));
+                spawns.add(new SpawnTask(packed.set(board, empty[i], 2), depth - 1, probability * Board.FOUR_PROBABILITY / count, ply + 1));
+            }
+            invokeAll(spawns);
+
+            double value = 0.0;
+            double score = 0.0;
+            for (int i = 0; i < spawns.size(); i++)
+            {
+                long result = spawns.get(i).join();
+                double weight = (i % 2 == 0 ? Board.TWO_PROBABILITY : Board.FOUR_PROBABILITY) / count;
+                value += weight * valueOf(result);
+                score += weight * scoreOf(result);
+            }
+
+            return pack(value, score);
+        }
+
+        /**
+         * Searches a chance node on the current thread
+         */
+        private long chance(long board, int depth, double probability)
+        {
+            int[] empty = new int[16];
+            int count = packed.emptyCells(board, empty);
+            visited++;
+
+            double value = 0.0;
+            double score = 0.0;
+            for (int i = 0; i < count; i++)
+            {
+                long two = decision(packed.set(board, empty[i], 1), depth - 1, probability * Board.TWO_PROBABILITY / count);
+                long four = decision(packed.set(board, empty[i], 2), depth - 1, probability * Board.FOUR_PROBABILITY / count);
+                value += Board.TWO_PROBABILITY * valueOf(two) + Board.FOUR_PROBABILITY * valueOf(four);
+                score += Board.TWO_PROBABILITY * scoreOf(two) + Board.FOUR_PROBABILITY * scoreOf(four);
+            }
+
+            return pack(value / count, score / count);
+        }
+
+        /**
+         * Searches the best move of a position on the current thread
+         */
+        long decision(long board, int depth, double probability)
+        {
+            visited++;
+            if (depth == 0 || probability < threshold)
+            {
+                return pack(evaluator.evaluate(board), 0.0);
+            }
+
+            long cached = table.get(board, depth);
+            if (cached != TranspositionTable.MISS)
+            {
+                tableHits++;
+                return cached;
+            }
+
+            double bestValue = 0.0;
+            double bestScore = 0.0;
+            boolean any = false;
+            for (Direction d : DIRECTIONS)
+            {
+                long after = packed.move(board, d);
+                if (after == board) continue;
+
+                int reward = packed.score(board, d);
+                long result = chance(after, depth, probability);
+                double value = reward + valueOf(result);
+                if (!any || value > bestValue)
+                {
+                    bestValue = value;
+                    bestScore = reward + scoreOf(result);
+                    any = true;
+                }
+            }
+
+            long result = pack(any ? bestValue : HeuristicEvaluator.LOST_VALUE, bestScore);
+            table.put(board, depth, result);
+            return result;
+        }
+    }
+
+    /**
+     * Searches the position after a spawn near the root, forking its chance nodes again while shallow enough
+     */
+    private class SpawnTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long board;
+        private final int depth;
+        private final double probability;
+        private final int ply;
+
+        private SpawnTask(long board, int depth, double probability, int ply)
+        {
+            this.board = board;
+            this.depth = depth;
+            this.probability = probability;
+            this.ply = ply;
+        }
+
+        @Override
+        protected Long compute()
+        {
+            if (depth == 0 || probability < threshold || ply >= SPLIT_PLY)
+            {
+                ChanceTask sequential = new ChanceTask(board, depth, probability, ply);
+                long result = sequential.decision(board, depth, probability);
+                nodes.add(sequential.visited);
+                hits.add(sequential.tableHits);
+                return result;
+            }
+
+            nodes.increment();
+            List<ChanceTask> moves = new ArrayList<>();
+            List<Integer> rewards = new ArrayList<>();
+            for (Direction d : DIRECTIONS)
+            {
+                long after = packed.move(board, d);
+                if (after == board) continue;
+
+                moves.add(new ChanceTask(after, depth, probability, ply));
+                rewards.add(packed.score(board, d));
+            }
+            invokeAll(moves);
+
+            double bestValue = 0.0;
+            double bestScore = 0.0;
+            for (int i = 0; i < moves.size(); i++)
+            {
+                long result = moves.get(i).join();
+                double value = rewards.get(i) + valueOf(result);
+                if (i == 0 || value > bestValue)
+                {
+                    bestValue = value;
+                    bestScore = rewards.get(i) + scoreOf(result);
+                }
+            }
+
+            return pack(moves.isEmpty() ? HeuristicEvaluator.LOST_VALUE : bestValue, bestScore);
+        }
+    }
+
+    /**
+     * Packs a value and a score into a long as two floats
+     */
+    private static long pack(double value, double score)
+    {
+        return ((long) Float.floatToRawIntBits((float) value) << 32) | (Float.floatToRawIntBits((float) score) & 0xFFFFFFFFL);
+    }
+
+    private static double valueOf(long packedResult)
+    {
+        return Float.intBitsToFloat((int) (packedResult >>> 32));
+    }
+
+    private static double scoreOf(long packedResult)
+    {
+        return Float.intBitsToFloat((int) packedResult);
+    }
+
+    private long parseBoard(String spec)
+    {
+        String[] cells = spec.split(",");
+        if (cells.length != size * size)
+        {
+            throw new IllegalArgumentException("Expected " + size * size + " tiles but got " + cells.length);
+        }
+
+        int[][] data = new int[size][size];
+        for (int i = 0; i < cells.length; i++)
+        {
+            data[i / size][i % size] = Integer.parseInt(cells[i].trim());
+        }
+
+        return packed.pack(data);
+    }
+
+    private void print(long board)
+    {
+        for (int[] row : packed.unpack(board))
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int value : row)
+            {
+                sb.append(String.format("%6s", value == 0 ? "." : String.valueOf(value)));
+            }
+            System.out.println(sb);
+        }
+    }
+
+    /**
+     * A fixed-size, lock-free table of searched positions. A newer entry
+     * always replaces the one in its slot
+     */
+    private static class TranspositionTable
+    {
+        /** Returned when a position is not in the table. No real result packs to this value */
+        static final long MISS = -1L;
+
+        private final int mask;
+        /** The board XOR the other two words, so torn entries don't match */
+        private final AtomicLongArray checks;
+        private final AtomicLongArray results;
+        private final AtomicLongArray depths;
+
+        TranspositionTable(int bits)
+        {
+            mask = (1 << bits) - 1;
+            checks = new AtomicLongArray(1 << bits);
+            results = new AtomicLongArray(1 << bits);
+            depths = new AtomicLongArray(1 << bits);
+        }
+
+        /**
+         * @return the result of the position if it was searched at least this deep, otherwise <code>MISS</code>
+         */
+        long get(long board, int depth)
+        {
+            int slot = slotOf(board);
+            long result = results.get(slot);
+            long searched = depths.get(slot);
+            if (checks.get(slot) != (board ^ result ^ searched) || searched < depth)
+            {
+                return MISS;
+            }
+
+            return result;
+        }
+
+        void put(long board, int depth, long result)
+        {
+            int slot = slotOf(board);
+            results.lazySet(slot, result);
+            depths.lazySet(slot, depth);
+            checks.set(slot, board ^ result ^ depth);
+        }
+
+        private int slotOf(long board)
+        {
+            long h = board * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+
+}
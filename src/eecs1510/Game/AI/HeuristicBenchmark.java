@@ -0,0 +1,116 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.Direction;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+import eecs1510.Game.Randomizer;
+
+/**
+ * Measures how many positions per second a <code>HeuristicEvaluator</code> can score.
+ *
+ * A pool of positions is collected from random games first, so the benchmark
+ * scores realistic boards instead of uniformly random bit patterns.
+ */
+public class HeuristicBenchmark
+{
+
+    /** The number of positions scored between checks of the clock */
+    private static final int BATCH = 1 << 16;
+
+    private int size = Board.DEFAULT_SIZE;
+    private int seconds = 5;
+    private int positions = 4096;
+    private HeuristicWeights weights = HeuristicWeights.DEFAULT;
+
+    public static void main(String[] args)
+    {
+        HeuristicBenchmark b = new HeuristicBenchmark();
+
+        new OptionsParser().add("size", "The size of the boards to score (Default: 4)", (s) -> {
+            b.size = Integer.parseInt(s);
+        }).add("seconds", "How long to run the benchmark for (Default: 5)", (s) -> {
+            b.seconds = Integer.parseInt(s);
+        }).add("positions", "The number of distinct positions to score (Default: 4096)", (s) -> {
+            b.positions = Integer.parseInt(s);
+        }).add("weights", "Heuristic weights as name=value pairs (Default: " + HeuristicWeights.DEFAULT + ")", (s) -> {
+            b.weights = HeuristicWeights.parse(s);
+        }).parse(args);
+
+        try
+        {
+            b.run();
+        } catch(Randomizer.InvalidSeedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Collects the position pool, warms up the evaluator and reports evaluations per second
+     */
+    public void run() throws Randomizer.InvalidSeedException
+    {
+        long start = System.nanoTime();
+        HeuristicEvaluator evaluator = new HeuristicEvaluator(size, weights);
+        System.out.printf("Built lookup tables in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        long[] pool = collectPositions();
+
+        // Warm up so the JIT has compiled evaluate() before we start timing
+        double sink = score(evaluator, pool, 20 * BATCH);
+
+        long evaluations = 0;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        start = System.nanoTime();
+        while (System.nanoTime() < deadline)
+        {
+            sink += score(evaluator, pool, BATCH);
+            evaluations += BATCH;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d evaluations in %.2f s: %.1f million evaluations/second (checksum %.1f)%n",
+                evaluations, elapsed, evaluations / elapsed / 1e6, sink);
+    }
+
+    private static double score(HeuristicEvaluator evaluator, long[] pool, int count)
+    {
+        double sum = 0.0;
+        for (int i = 0; i < count; i++)
+        {
+            sum += evaluator.evaluate(pool[i & (pool.length - 1)]);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Plays random games until enough positions have been seen
+     *
+     * @return a pool of packed positions whose length is a power of two
+     */
+    private long[] collectPositions() throws Randomizer.InvalidSeedException
+    {
+        PackedBoard packed = PackedBoard.forSize(size);
+        long[] pool = new long[Integer.highestOneBit(Math.max(positions, 1))];
+        Direction[] directions = Direction.values();
+
+        Board board = new Board(size, Randomizer.randomSeed());
+        for (int i = 0; i < pool.length; i++)
+        {
+            if (board.isLost())
+            {
+                board = new Board(size, Randomizer.randomSeed());
+            }
+
+            if (!board.squash(directions[(int) (Math.random() * directions.length)]).isInvalid())
+            {
+                board.placeRandom();
+            }
+            pool[i] = packed.pack(board.getData());
+        }
+
+        return pool;
+    }
+
+}
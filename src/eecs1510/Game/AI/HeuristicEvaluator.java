@@ -0,0 +1,209 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.PackedBoard;
+
+/**
+ * Scores a position by how promising it looks, without searching ahead.
+ *
+ * The score of a board is the sum of the scores of all of its rows and
+ * columns. Because every line is scored independently, the score of each
+ * possible packed row is precomputed into a lookup table when the evaluator
+ * is created, so scoring a packed 4x4 board costs eight table lookups and
+ * one transposition.
+ *
+ * Each line is scored on:
+ * <ul>
+ *     <li>the number of empty cells</li>
+ *     <li>the number of equal neighbouring tiles (merge potential)</li>
+ *     <li>how far the line is from being monotonic</li>
+ *     <li>the rank differences between neighbouring tiles (smoothness)</li>
+ *     <li>whether its largest tile sits at one of its ends (which, combined
+ *         over rows and columns, rewards keeping large tiles in a corner)</li>
+ * </ul>
+ */
+public class HeuristicEvaluator
+{
+
+    /**
+     * The value searches give a lost position. Heuristic scores of crowded
+     * boards can be far below zero, so a lost position has to be worth less
+     * than any of them
+     */
+    public static final double LOST_VALUE = -1e9;
+
+    private final HeuristicWeights weights;
+    private final PackedBoard packed;
+    private final float[] lineScores;
+
+    /**
+     * Creates an evaluator for boards of the specified size
+     *
+     * @param size    the size of the boards to evaluate
+     * @param weights the weights of the individual terms
+     */
+    public HeuristicEvaluator(int size, HeuristicWeights weights)
+    {
+        this.weights = weights;
+
+        if (PackedBoard.supports(size))
+        {
+            packed = PackedBoard.forSize(size);
+            lineScores = new float[packed.rowCount()];
+
+            int[] line = new int[size];
+            for (int row = 0; row < lineScores.length; row++)
+            {
+                packed.unpackRow(row, line);
+                lineScores[row] = (float) scoreLine(line, weights);
+            }
+        } else {
+            packed = null;
+            lineScores = null;
+        }
+    }
+
+    public HeuristicEvaluator(int size)
+    {
+        this(size, HeuristicWeights.DEFAULT);
+    }
+
+    /**
+     * @return the weights used by this evaluator
+     */
+    public HeuristicWeights getWeights()
+    {
+        return weights;
+    }
+
+    /**
+     * Scores a packed board
+     *
+     * @param board the packed board
+     * @return the heuristic score of the board. Higher is better
+     */
+    public float evaluate(long board)
+    {
+        long transposed = packed.transpose(board);
+        int size = packed.getSize();
+
+        float score = 0f;
+        for (int i = 0; i < size; i++)
+        {
+            score += lineScores[packed.row(board, i)] + lineScores[packed.row(transposed, i)];
+        }
+
+        return score;
+    }
+
+    /**
+     * Scores a game board of any size
+     *
+     * @param board the game board
+     * @return the heuristic score of the board. Higher is better
+     */
+    public double evaluate(BoardEngine board)
+    {
+        if (packed != null && board.getSize() == packed.getSize())
+        {
+            return evaluate(packed.pack(board));
+        }
+
+        int size = board.getSize();
+        int[] line = new int[size];
+        double score = 0.0;
+
+        for (int i = 0; i < size; i++)
+        {
+            for (int j = 0; j < size; j++)
+            {
+                line[j] = PackedBoard.exponentOf(board.getElement(i, j));
+            }
+            score += scoreLine(line, weights);
+
+            for (int j = 0; j < size; j++)
+            {
+                line[j] = PackedBoard.exponentOf(board.getElement(j, i));
+            }
+            score += scoreLine(line, weights);
+        }
+
+        return score;
+    }
+
+    /**
+     * Scores a single row or column
+     *
+     * @param line    the exponents of the tiles in the line (0 for empty cells)
+     * @param weights the weights of the individual terms
+     * @return the heuristic score of the line
+     */
+    public static double scoreLine(int[] line, HeuristicWeights weights)
+    {
+        int empty = 0;
+        int merges = 0;
+        int max = 0;
+
+        int previous = 0;
+        int counter = 0;
+        for (int rank : line)
+        {
+            max = Math.max(max, rank);
+
+            if (rank == 0)
+            {
+                empty++;
+                continue;
+            }
+
+            if (rank == previous)
+            {
+                counter++;
+            } else if (counter > 0) {
+                merges += 1 + counter;
+                counter = 0;
+            }
+            previous = rank;
+        }
+        if (counter > 0)
+        {
+            merges += 1 + counter;
+        }
+
+        double increasing = 0.0;
+        double decreasing = 0.0;
+        for (int i = 1; i < line.length; i++)
+        {
+            double a = Math.pow(line[i - 1], weights.monotonicityPower);
+            double b = Math.pow(line[i], weights.monotonicityPower);
+            if (line[i - 1] > line[i])
+            {
+                increasing += a - b;
+            } else {
+                decreasing += b - a;
+            }
+        }
+
+        // Differences between neighbouring tiles, skipping over empty cells
+        int roughness = 0;
+        int last = 0;
+        for (int rank : line)
+        {
+            if (rank == 0) continue;
+            if (last != 0)
+            {
+                roughness += Math.abs(rank - last);
+            }
+            last = rank;
+        }
+
+        int corner = max > 0 && (line[0] == max || line[line.length - 1] == max) ? max : 0;
+
+        return weights.empty * empty
+             + weights.merges * merges
+             - weights.monotonicity * Math.min(increasing, decreasing)
+             - weights.smoothness * roughness
+             + weights.corner * corner;
+    }
+
+}
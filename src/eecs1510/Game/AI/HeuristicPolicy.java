@@ -0,0 +1,92 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.PackedBoard;
+
+/**
+ * Plays the move whose immediate reward plus the heuristic score of the
+ * resulting board is the largest. It doesn't search ahead, so it is fast
+ * enough to play millions of games, but far from perfect.
+ */
+public class HeuristicPolicy implements MovePolicy
+{
+
+    private final int size;
+    private final HeuristicEvaluator evaluator;
+    private final PackedBoard packed;
+
+    public HeuristicPolicy(int size, HeuristicWeights weights)
+    {
+        this.size = size;
+        this.evaluator = new HeuristicEvaluator(size, weights);
+        this.packed = PackedBoard.supports(size) ? PackedBoard.forSize(size) : null;
+    }
+
+    public HeuristicPolicy(int size)
+    {
+        this(size, HeuristicWeights.DEFAULT);
+    }
+
+    @Override
+    public Direction nextMove(BoardEngine board)
+    {
+        if (packed != null)
+        {
+            return bestMove(packed.pack(board));
+        }
+
+        Direction best = null;
+        double bestValue = Double.NEGATIVE_INFINITY;
+
+        for (Direction d : Direction.values())
+        {
+            BoardEngine after = board.copy();
+            MoveResult result = after.squash(d);
+            if (result.isInvalid()) continue;
+
+            double value = result.mergeValue + evaluator.evaluate(after);
+            if (value > bestValue)
+            {
+                best = d;
+                bestValue = value;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @param board a packed board
+     * @return the best move for the board, or null if no move is valid
+     */
+    public Direction bestMove(long board)
+    {
+        Direction best = null;
+        float bestValue = Float.NEGATIVE_INFINITY;
+
+        for (Direction d : Direction.values())
+        {
+            long after = packed.move(board, d);
+            if (after == board) continue;
+
+            float value = packed.score(board, d) + evaluator.evaluate(after);
+            if (value > bestValue)
+            {
+                best = d;
+                bestValue = value;
+            }
+        }
+
+        return best;
+    }
+
+    @Override
+    public boolean supports(int size)
+    {
+        return size == this.size;
+    }
+
+}
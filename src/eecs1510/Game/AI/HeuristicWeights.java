@@ -0,0 +1,108 @@
+package eecs1510.Game.AI;
+
+import java.util.Arrays;
+
+/**
+ * The weights of the individual terms scored by a <code>HeuristicEvaluator</code>.
+ *
+ * Weights can be written as a comma-separated list of <code>name=value</code>
+ * pairs (for example <code>empty=270,merges=700</code>). Terms that are not
+ * mentioned keep their default value.
+ */
+public class HeuristicWeights
+{
+
+    /** The names of the weights, in the order used by <code>toArray()</code> */
+    public static final String[] NAMES = {"empty", "merges", "monotonicity", "monotonicityPower", "smoothness", "corner"};
+
+    /** Weights that play reasonably well on a 4x4 board */
+    public static final HeuristicWeights DEFAULT = new HeuristicWeights(270.0, 700.0, 47.0, 4.0, 10.0, 20.0);
+
+    /** Reward per empty cell */
+    public final double empty;
+    /** Reward per pair of equal tiles that could be merged */
+    public final double merges;
+    /** Penalty for tiles that break the ordering of a row or column */
+    public final double monotonicity;
+    /** The exponent applied to tile ranks when measuring monotonicity */
+    public final double monotonicityPower;
+    /** Penalty for rank differences between neighbouring tiles */
+    public final double smoothness;
+    /** Reward for keeping the largest tile of a row or column at one of its ends */
+    public final double corner;
+
+    public HeuristicWeights(double empty, double merges, double monotonicity, double monotonicityPower, double smoothness, double corner)
+    {
+        this.empty = empty;
+        this.merges = merges;
+        this.monotonicity = monotonicity;
+        this.monotonicityPower = monotonicityPower;
+        this.smoothness = smoothness;
+        this.corner = corner;
+    }
+
+    /**
+     * @return the weights in the order of <code>NAMES</code>
+     */
+    public double[] toArray()
+    {
+        return new double[]{empty, merges, monotonicity, monotonicityPower, smoothness, corner};
+    }
+
+    /**
+     * @param w the weights in the order of <code>NAMES</code>
+     * @return a new set of weights with the specified values
+     */
+    public static HeuristicWeights fromArray(double[] w)
+    {
+        if (w.length != NAMES.length)
+        {
+            throw new IllegalArgumentException("Expected " + NAMES.length + " weights but got " + w.length);
+        }
+
+        return new HeuristicWeights(w[0], w[1], w[2], w[3], w[4], w[5]);
+    }
+
+    /**
+     * Parses weights in the format produced by <code>toString()</code>
+     *
+     * @param spec a comma-separated list of <code>name=value</code> pairs
+     * @return the default weights overridden by the values in <code>spec</code>
+     * @throws IllegalArgumentException if a weight is unknown or malformed
+     */
+    public static HeuristicWeights parse(String spec)
+    {
+        double[] w = DEFAULT.toArray();
+
+        for (String pair : spec.split(","))
+        {
+            if (pair.trim().isEmpty()) continue;
+
+            String[] kv = pair.split("=");
+            int index = kv.length == 2 ? Arrays.asList(NAMES).indexOf(kv[0].trim()) : -1;
+            if (index < 0)
+            {
+                throw new IllegalArgumentException("Unknown heuristic weight '" + pair + "'");
+            }
+
+            w[index] = Double.parseDouble(kv[1].trim());
+        }
+
+        return fromArray(w);
+    }
+
+    @Override
+    public String toString()
+    {
+        double[] w = toArray();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < w.length; i++)
+        {
+            if (i > 0) sb.append(',');
+            sb.append(NAMES[i]).append('=').append(w[i]);
+        }
+
+        return sb.toString();
+    }
+
+}
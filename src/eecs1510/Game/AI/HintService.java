@@ -0,0 +1,459 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.Direction;
+import eecs1510.Game.PackedBoard;
+
+/**
+ * Searches for the best move of a game in the background, while the player
+ * is still thinking, so a hint is ready the moment it is asked for.
+ *
+ * The search is an expectimax search with iterative deepening over a tree
+ * that is kept between turns. Every position in the tree remembers its value
+ * and the depth that value was searched to. When the game moves on, the
+ * subtree below the actual move and spawn becomes the new root, so everything
+ * searched there is reused and the next iteration starts where the last one
+ * left off.
+ *
+ * The tree is capped at a number of positions. Once the cap is reached, the
+ * search idles until the game moves on and the parts of the tree that can no
+ * longer be reached are dropped. Any search in progress is abandoned as soon
+ * as the root changes, so moving never waits for the search to finish.
+ *
+ * Only the game thread may call <code>reset()</code>, <code>advance()</code>
+ * and <code>hint()</code>. The search runs on a single daemon thread that
+ * lives until <code>close()</code> is called.
+ */
+public class HintService implements AutoCloseable
+{
+
+    /** The default maximum number of positions in the tree, about 50 MB */
+    public static final int DEFAULT_MAX_NODES = 1_000_000;
+    /** The deepest the search will look, in moves */
+    public static final int MAX_DEPTH = 12;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final PackedBoard packed;
+    private final HeuristicEvaluator evaluator;
+    private final int maxNodes;
+    private final Thread thread;
+
+    /** The position the game is in. Guarded by this */
+    private MaxNode root = null;
+    /** The number of positions in the tree. Guarded by this */
+    private int nodes = 0;
+    /** Whether the tree reached the cap. Guarded by this */
+    private boolean full = false;
+    private boolean closed = false;
+
+    /** Tells the search to give up its current iteration */
+    private volatile boolean abort = false;
+
+    /** The board the hint below belongs to, and whether there is one */
+    private volatile long hintBoard;
+    private volatile Direction hint = null;
+    private volatile int hintDepth = 0;
+    private volatile int hintNodes = 0;
+    /** The board of the current root */
+    private volatile long rootBoard;
+    private final Object hintReady = new Object();
+
+    /**
+     * Starts the search thread. It idles until a game is set with <code>reset()</code>
+     *
+     * @param size     the size of the board, 2 to 4
+     * @param weights  the weights to score positions at the bottom of the search with
+     * @param maxNodes the maximum number of positions to keep in the tree
+     */
+    public HintService(int size, HeuristicWeights weights, int maxNodes)
+    {
+        this.packed = PackedBoard.forSize(size);
+        this.evaluator = new HeuristicEvaluator(size, weights);
+        this.maxNodes = maxNodes;
+
+        thread = new Thread(this::searchLoop, "hint-search");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public HintService(int size)
+    {
+        this(size, HeuristicWeights.DEFAULT, DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Throws away the tree and starts searching the specified position, for
+     * example after a new game was started or a move was undone
+     *
+     * @param board the current board of the game
+     */
+    public void reset(BoardEngine board)
+    {
+        long b;
+        try
+        {
+            b = packed.pack(board);
+        } catch(IllegalArgumentException e) {
+            // A tile grew too large to be packed, there is nothing left to hint
+            cancel();
+            return;
+        }
+
+        abort = true;
+        synchronized(this)
+        {
+            setRoot(new MaxNode(b), 1);
+        }
+    }
+
+    /**
+     * Moves the root of the tree to the position after a move and the tile
+     * that was spawned afterwards, keeping everything searched below it
+     *
+     * @param move  the move that was played
+     * @param board the board after the move, with the spawned tile in place
+     */
+    public void advance(Direction move, BoardEngine board)
+    {
+        long b;
+        try
+        {
+            b = packed.pack(board);
+        } catch(IllegalArgumentException e) {
+            cancel();
+            return;
+        }
+
+        int cell = board.getLastSpawnCell();
+        int exponent = PackedBoard.exponentOf(board.getLastSpawnValue());
+
+        abort = true;
+        synchronized(this)
+        {
+            MaxNode next = root == null ? null : root.find(packed, move, cell, exponent);
+            if (next == null || next.board != b)
+            {
+                setRoot(new MaxNode(b), 1);
+            } else {
+                setRoot(next, next.count());
+            }
+        }
+    }
+
+    /**
+     * Stops searching and throws away the tree until the next <code>reset()</code>
+     */
+    public void cancel()
+    {
+        abort = true;
+        synchronized(this)
+        {
+            root = null;
+            nodes = 0;
+            hint = null;
+            abort = false;
+        }
+    }
+
+    /**
+     * Returns the best move found so far for the current position. If the
+     * search has not finished looking a single move ahead yet, this waits
+     * for it for up to the specified time.
+     *
+     * @param waitMillis how long to wait for a first result
+     * @return the best move, or null if there is none (yet)
+     */
+    public Direction hint(long waitMillis) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        synchronized(hintReady)
+        {
+            long remaining;
+            while (!hasHint() && (remaining = deadline - System.currentTimeMillis()) > 0)
+            {
+                hintReady.wait(remaining);
+            }
+        }
+
+        return hasHint() ? hint : null;
+    }
+
+    /**
+     * @return how many moves ahead the current hint looked, or 0 if there is no hint
+     */
+    public int getDepth()
+    {
+        return hasHint() ? hintDepth : 0;
+    }
+
+    /**
+     * @return the number of positions in the tree when the current hint was found
+     */
+    public int getNodes()
+    {
+        return hintNodes;
+    }
+
+    /**
+     * Stops the search thread. The service can't be used afterwards
+     */
+    @Override
+    public void close()
+    {
+        abort = true;
+        synchronized(this)
+        {
+            closed = true;
+            root = null;
+            notifyAll();
+        }
+
+        try
+        {
+            thread.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean hasHint()
+    {
+        return hint != null && hintBoard == rootBoard;
+    }
+
+    /**
+     * Replaces the root and wakes up the search. Called with the lock held
+     * after the search was told to abort, so the tree is not in use
+     */
+    private void setRoot(MaxNode node, int count)
+    {
+        root = node;
+        nodes = count;
+        full = nodes >= maxNodes;
+        rootBoard = node.board;
+        abort = false;
+
+        if (node.depth > 0 && node.best >= 0)
+        {
+            publish(node);
+        }
+
+        notifyAll();
+    }
+
+    private void searchLoop()
+    {
+        synchronized(this)
+        {
+            while (!closed)
+            {
+                if (abort || root == null || full || root.depth >= MAX_DEPTH)
+                {
+                    try
+                    {
+                        wait();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+
+                MaxNode searching = root;
+                if (!Double.isNaN(search(searching, searching.depth + 1)) && searching.best >= 0)
+                {
+                    publish(searching);
+                }
+            }
+        }
+    }
+
+    private void publish(MaxNode node)
+    {
+        synchronized(hintReady)
+        {
+            hint = DIRECTIONS[node.best];
+            hintDepth = node.depth;
+            hintNodes = nodes;
+            hintBoard = node.board;
+            hintReady.notifyAll();
+        }
+    }
+
+    /**
+     * Searches a position to the specified depth, reusing values that were
+     * already searched at least that deep
+     *
+     * @return the value of the position, or NaN if the search was abandoned
+     */
+    private double search(MaxNode node, int depth)
+    {
+        if (node.depth >= depth)
+        {
+            return node.value;
+        }
+        if (abort)
+        {
+            return Double.NaN;
+        }
+        if (depth == 0)
+        {
+            node.value = evaluator.evaluate(node.board);
+            node.depth = 0;
+            return node.value;
+        }
+
+        if (node.children == null)
+        {
+            node.children = new ChanceNode[DIRECTIONS.length];
+            for (Direction d : DIRECTIONS)
+            {
+                long after = packed.move(node.board, d);
+                if (after != node.board)
+                {
+                    node.children[d.ordinal()] = new ChanceNode(after, packed.score(node.board, d));
+                }
+            }
+        }
+
+        double best = 0.0;
+        int bestMove = -1;
+        int[] empty = new int[packed.getSize() * packed.getSize()];
+        for (int m = 0; m < DIRECTIONS.length; m++)
+        {
+            ChanceNode chance = node.children[m];
+            if (chance == null) continue;
+
+            int count = packed.emptyCells(chance.board, empty);
+            if (chance.spawns == null)
+            {
+                chance.spawns = new MaxNode[2 * count];
+            }
+
+            double expected = 0.0;
+            for (int i = 0; i < count; i++)
+            {
+                for (int k = 0; k < 2; k++)
+                {
+                    MaxNode spawn = chance.spawns[2 * i + k];
+                    if (spawn == null)
+                    {
+                        if (nodes >= maxNodes)
+                        {
+                            full = true;
+                            return Double.NaN;
+                        }
+
+                        spawn = chance.spawns[2 * i + k] = new MaxNode(packed.set(chance.board, empty[i], k + 1));
+                        nodes++;
+                    }
+
+                    double value = search(spawn, depth - 1);
+                    if (Double.isNaN(value))
+                    {
+                        return value;
+                    }
+                    expected += (k == 0 ? Board.TWO_PROBABILITY : Board.FOUR_PROBABILITY) * value;
+                }
+            }
+
+            double value = chance.reward + expected / count;
+            if (bestMove < 0 || value > best)
+            {
+                best = value;
+                bestMove = m;
+            }
+        }
+
+        // A position without moves is lost, however deep it is searched
+        node.value = bestMove < 0 ? HeuristicEvaluator.LOST_VALUE : best;
+        node.best = bestMove;
+        node.depth = bestMove < 0 ? MAX_DEPTH : depth;
+        return node.value;
+    }
+
+    /**
+     * A position where the player moves next
+     */
+    private static class MaxNode
+    {
+
+        final long board;
+        double value;
+        /** How many moves ahead the value looked, or -1 if it was never searched */
+        int depth = -1;
+        /** The ordinal of the best move, or -1 if there is none or it is not known yet */
+        int best = -1;
+        /** The positions after each move, null for invalid moves */
+        ChanceNode[] children;
+
+        MaxNode(long board)
+        {
+            this.board = board;
+        }
+
+        /**
+         * @return the position after the move and spawn, if it has been searched
+         */
+        MaxNode find(PackedBoard packed, Direction move, int cell, int exponent)
+        {
+            ChanceNode chance = children == null ? null : children[move.ordinal()];
+            if (chance == null || chance.spawns == null || exponent < 1 || exponent > 2)
+            {
+                return null;
+            }
+
+            int index = 0;
+            for (int c = 0; c < cell; c++)
+            {
+                if (packed.get(chance.board, c) == 0) index++;
+            }
+
+            int slot = 2 * index + exponent - 1;
+            return slot < chance.spawns.length ? chance.spawns[slot] : null;
+        }
+
+        /**
+         * @return the number of positions in this subtree
+         */
+        int count()
+        {
+            int count = 1;
+            if (children != null)
+            {
+                for (ChanceNode chance : children)
+                {
+                    if (chance == null || chance.spawns == null) continue;
+                    for (MaxNode spawn : chance.spawns)
+                    {
+                        if (spawn != null) count += spawn.count();
+                    }
+                }
+            }
+
+            return count;
+        }
+
+    }
+
+    /**
+     * A position after a move, before a tile is spawned
+     */
+    private static class ChanceNode
+    {
+
+        final long board;
+        final int reward;
+        /** The positions after spawning a 2 and a 4 into each empty cell, in row-major order */
+        MaxNode[] spawns;
+
+        ChanceNode(long board, int reward)
+        {
+            this.board = board;
+            this.reward = reward;
+        }
+
+    }
+
+}
@@ -0,0 +1,512 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+import eecs1510.Game.Randomizer;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Chooses moves with a Monte Carlo tree search (UCT) that many threads grow
+ * together.
+ *
+ * The tree alternates between decision nodes, where the player picks a
+ * <code>Direction</code>, and chance nodes, where a 2 or a 4 spawns in one of
+ * the empty cells. Decision nodes pick a move by the UCT rule and chance nodes
+ * sample a spawn with the probabilities of the game. A new position is scored
+ * by playing random moves until the game is lost, and the score of that
+ * playout is added to every node on the way back up.
+ *
+ * All threads share one tree. Visit counts and score sums are atomic and
+ * nodes are expanded by whichever thread claims them first, so no locks are
+ * taken. A thread that passes through a node counts a few visits up front
+ * without adding any score (a virtual loss), which makes the path look worse
+ * to the other threads until the real result is added and keeps them
+ * exploring other parts of the tree.
+ *
+ * Nodes are not objects but slots in a preallocated <code>Arena</code> that
+ * is reused for every move, so even a tree of tens of millions of nodes
+ * creates no garbage. When the arena is full, the tree stops growing and the
+ * search continues with playouts from its leaves.
+ */
+public class MctsPolicy implements MovePolicy
+{
+
+    /** The default number of playouts per move */
+    public static final int DEFAULT_ITERATIONS = 2000;
+
+    /** The number of visits a thread counts in advance for every node it passes */
+    private static final int VIRTUAL_LOSS = 3;
+    /**
+     * A decision node is expanded once it has been visited this many times,
+     * not counting the visit in progress. Visits other threads are still
+     * making count with their virtual loss
+     */
+    private static final int EXPAND_VISITS = 2;
+    /** The exploration constant, relative to the mean score of the parent */
+    private static final double EXPLORATION = 0.5;
+    /** The deepest path a single iteration follows through the tree */
+    private static final int MAX_PATH = 1024;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int size;
+    private final PackedBoard packed;
+    private final int iterations;
+    private final int threads;
+    private final Arena arena;
+
+    /** The number of iterations left for the current move */
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    /**
+     * @param size       the size of the board, 2 to 4
+     * @param iterations the number of playouts per move
+     * @param threads    the number of threads searching each move
+     * @param capacity   the maximum number of nodes in the tree
+     */
+    public MctsPolicy(int size, int iterations, int threads, int capacity)
+    {
+        this.size = size;
+        this.packed = PackedBoard.forSize(size);
+        this.iterations = iterations;
+        this.threads = threads;
+        this.arena = new Arena(capacity);
+    }
+
+    /**
+     * Searches with one thread per core and room for every node the iterations can create
+     */
+    public MctsPolicy(int size, int iterations)
+    {
+        this(size, iterations, Runtime.getRuntime().availableProcessors(), 4 + iterations * (4 + 2 * size * size));
+    }
+
+    public static void main(String[] args)
+    {
+        String[] seed = {Randomizer.randomSeed()};
+        int[] size = {4};
+        int[] iterations = {DEFAULT_ITERATIONS};
+        int[] threads = {Runtime.getRuntime().availableProcessors()};
+        int[] capacity = {0};
+
+        new OptionsParser().add("seed", "The seed of the game to play (Default: random)", (v) -> {
+            seed[0] = v;
+        }).add("size", "The size of the board, 2 to 4 (Default: 4)", (v) -> {
+            size[0] = Integer.parseInt(v);
+        }).add("iterations", "The number of playouts per move (Default: " + DEFAULT_ITERATIONS + ")", (v) -> {
+            iterations[0] = Integer.parseInt(v);
+        }).add("t", "threads", "The number of threads growing the tree (Default: one per core)", (v) -> {
+            threads[0] = Integer.parseInt(v);
+        }).add("nodes", "The capacity of the node arena (Default: enough for every iteration)", (v) -> {
+            capacity[0] = Integer.parseInt(v);
+        }).parse(args);
+
+        try
+        {
+            int nodes = capacity[0] > 0 ? capacity[0] : 4 + iterations[0] * (4 + 2 * size[0] * size[0]);
+            MctsPolicy policy = new MctsPolicy(size[0], iterations[0], threads[0], nodes);
+            BoardEngine board = BoardEngines.create(BoardEngines.PACKED, size[0], seed[0]);
+
+            long start = System.nanoTime();
+            int score = 0;
+            int moves = 0;
+            int peak = 0;
+            Direction d;
+            while ((d = policy.nextMove(board)) != null)
+            {
+                peak = Math.max(peak, policy.getNodes());
+                MoveResult result = board.squash(d);
+                if (result.isInvalid()) break;
+
+                score += result.mergeValue;
+                moves++;
+                board.placeRandom();
+            }
+
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Seed %s: score %d after %d moves in %.1f s (%.0f playouts/s, up to %d of %d nodes per move)%n",
+                    seed[0], score, moves, elapsed, (double) moves * iterations[0] / elapsed, peak, nodes);
+        } catch(Randomizer.InvalidSeedException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Searches the board on all threads. A policy searches one position at a time
+     */
+    @Override
+    public synchronized Direction nextMove(BoardEngine board)
+    {
+        long root = packed.pack(board);
+        if (packed.isLost(root))
+        {
+            return null;
+        }
+
+        arena.reset(root);
+        expandDecision(0, root);
+        remaining.set(iterations);
+
+        Thread[] helpers = new Thread[threads - 1];
+        for (int i = 0; i < helpers.length; i++)
+        {
+            helpers[i] = new Thread(this::searchUntilDone, "mcts-" + i);
+            helpers[i].start();
+        }
+        searchUntilDone();
+
+        for (Thread helper : helpers)
+        {
+            try
+            {
+                helper.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Play the most visited move, which is less noisy than the best mean
+        int first = arena.children.get(0);
+        int best = -1;
+        for (int m = 0; m < DIRECTIONS.length; m++)
+        {
+            int child = first + m;
+            if (arena.children.get(child) != Arena.INVALID && (best < 0 || arena.visits.get(child) > arena.visits.get(first + best)))
+            {
+                best = m;
+            }
+        }
+
+        return best < 0 ? null : DIRECTIONS[best];
+    }
+
+    /**
+     * @return the number of nodes in the tree of the last search
+     */
+    public int getNodes()
+    {
+        return arena.size();
+    }
+
+    @Override
+    public boolean supports(int size)
+    {
+        return size == this.size;
+    }
+
+    private void searchUntilDone()
+    {
+        int[] path = new int[MAX_PATH];
+        int[] rewards = new int[MAX_PATH];
+        int[] empty = new int[size * size];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (remaining.getAndDecrement() > 0)
+        {
+            iterate(path, rewards, empty, random);
+        }
+    }
+
+    /**
+     * Follows the tree from the root to a leaf, scores the leaf with a playout
+     * and adds the result to every node on the path
+     */
+    private void iterate(int[] path, int[] rewards, int[] empty, ThreadLocalRandom random)
+    {
+        int depth = 0;
+        int node = 0;
+        long result;
+
+        while (true)
+        {
+            // Decision node
+            arena.visits.addAndGet(node, VIRTUAL_LOSS);
+            path[depth] = node;
+            rewards[depth++] = 0;
+
+            long board = arena.boards[node];
+            int first = arena.children.get(node);
+            if (first == Arena.LEAF && arena.visits.get(node) - VIRTUAL_LOSS >= EXPAND_VISITS && depth < MAX_PATH - 2)
+            {
+                first = expandDecision(node, board);
+            }
+            if (first <= 0)
+            {
+                result = playout(board, empty, random);
+                break;
+            }
+
+            int chance = select(node, first);
+            if (chance < 0)
+            {
+                // No move is possible, the game is lost here
+                result = 0;
+                break;
+            }
+
+            arena.visits.addAndGet(chance, VIRTUAL_LOSS);
+            path[depth] = chance;
+            rewards[depth++] = packed.score(board, DIRECTIONS[chance - first]);
+
+            long after = arena.boards[chance];
+            int spawns = arena.children.get(chance);
+            if (spawns == Arena.LEAF)
+            {
+                spawns = expandChance(chance, after, empty);
+            }
+            if (spawns <= 0)
+            {
+                result = playout(spawn(after, empty, random), empty, random);
+                break;
+            }
+
+            // Sample the spawn the way the game does
+            int count = packed.emptyCells(after, empty);
+            node = spawns + 2 * random.nextInt(count) + (random.nextDouble() < Board.TWO_PROBABILITY ? 0 : 1);
+        }
+
+        // Add the real result and take back the virtual loss, from the leaf up
+        for (int i = depth - 1; i >= 0; i--)
+        {
+            arena.scores.addAndGet(path[i], result);
+            arena.visits.addAndGet(path[i], 1 - VIRTUAL_LOSS);
+            result += rewards[i];
+        }
+    }
+
+    /**
+     * Picks the move with the best upper confidence bound
+     *
+     * @return the chance node of the move, or -1 if no move is valid
+     */
+    private int select(int node, int first)
+    {
+        int parentVisits = arena.visits.get(node);
+        double parentMean = Math.max(1.0, arena.scores.get(node) / (double) Math.max(1, parentVisits));
+        double logVisits = Math.log(Math.max(1, parentVisits));
+        long board = arena.boards[node];
+
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int m = 0; m < DIRECTIONS.length; m++)
+        {
+            int child = first + m;
+            if (arena.children.get(child) == Arena.INVALID) continue;
+
+            int visits = arena.visits.get(child);
+            if (visits == 0)
+            {
+                return child;
+            }
+
+            double value = packed.score(board, DIRECTIONS[m]) + arena.scores.get(child) / (double) visits
+                    + EXPLORATION * parentMean * Math.sqrt(logVisits / visits);
+            if (value > bestValue)
+            {
+                best = child;
+                bestValue = value;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Adds the four chance nodes of a decision node, unless another thread is already doing so
+     *
+     * @return the first chance node, or a value of at most 0 if the node was not expanded
+     */
+    private int expandDecision(int node, long board)
+    {
+        if (!arena.children.compareAndSet(node, Arena.LEAF, Arena.EXPANDING))
+        {
+            return arena.children.get(node);
+        }
+        if (packed.isLost(board))
+        {
+            arena.children.set(node, Arena.FULL);
+            return Arena.FULL;
+        }
+
+        int first = arena.allocate(DIRECTIONS.length);
+        if (first < 0)
+        {
+            arena.children.set(node, Arena.FULL);
+            return Arena.FULL;
+        }
+
+        for (int m = 0; m < DIRECTIONS.length; m++)
+        {
+            long after = packed.move(board, DIRECTIONS[m]);
+            arena.init(first + m, after, after == board ? Arena.INVALID : Arena.LEAF);
+        }
+
+        // Publishing the index makes the initialized children visible to other threads
+        arena.children.set(node, first);
+        return first;
+    }
+
+    /**
+     * Adds a decision node for every possible spawn of a chance node
+     *
+     * @return the first decision node, or a value of at most 0 if the node was not expanded
+     */
+    private int expandChance(int chance, long after, int[] empty)
+    {
+        if (!arena.children.compareAndSet(chance, Arena.LEAF, Arena.EXPANDING))
+        {
+            return arena.children.get(chance);
+        }
+
+        int count = packed.emptyCells(after, empty);
+        int first = arena.allocate(2 * count);
+        if (first < 0)
+        {
+            arena.children.set(chance, Arena.FULL);
+            return Arena.FULL;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            arena.init(first + 2 * i, packed.set(after, empty[i], 1), Arena.LEAF);
+            arena.init(first + 2 * i + 1, packed.set(after, empty[i], 2), Arena.LEAF);
+        }
+
+        arena.children.set(chance, first);
+        return first;
+    }
+
+    /**
+     * Plays random moves until the game is lost
+     *
+     * @return the score gained on the way
+     */
+    private long playout(long board, int[] empty, ThreadLocalRandom random)
+    {
+        long score = 0;
+        while (true)
+        {
+            int start = random.nextInt(DIRECTIONS.length);
+            long after = board;
+            int m = 0;
+            for (; m < DIRECTIONS.length; m++)
+            {
+                after = packed.move(board, DIRECTIONS[(start + m) % DIRECTIONS.length]);
+                if (after != board) break;
+            }
+            if (m == DIRECTIONS.length)
+            {
+                return score;
+            }
+
+            score += packed.score(board, DIRECTIONS[(start + m) % DIRECTIONS.length]);
+            board = spawn(after, empty, random);
+        }
+    }
+
+    private long spawn(long board, int[] empty, ThreadLocalRandom random)
+    {
+        int count = packed.emptyCells(board, empty);
+        return packed.set(board, empty[random.nextInt(count)], random.nextDouble() < Board.TWO_PROBABILITY ? 1 : 2);
+    }
+
+    /**
+     * Fixed-size storage for the nodes of the tree, one slot of each array per node
+     */
+    static class Arena
+    {
+
+        /** A node whose children have not been added yet */
+        static final int LEAF = 0;
+        /** A node whose children are being added by another thread */
+        static final int EXPANDING = -1;
+        /** A node that can't get children, because the arena is full or the game is lost */
+        static final int FULL = -2;
+        /** A chance node of a move that is not possible */
+        static final int INVALID = -3;
+
+        private final int capacity;
+        private final AtomicInteger next = new AtomicInteger();
+
+        /** The packed board of each node */
+        final long[] boards;
+        /** The number of visits of each node, including virtual losses in flight */
+        final AtomicIntegerArray visits;
+        /** The sum of the scores of all playouts through each node */
+        final AtomicLongArray scores;
+        /** The index of the first child of each node, or one of the markers above */
+        final AtomicIntegerArray children;
+
+        Arena(int capacity)
+        {
+            this.capacity = capacity;
+            boards = new long[capacity];
+            visits = new AtomicIntegerArray(capacity);
+            scores = new AtomicLongArray(capacity);
+            children = new AtomicIntegerArray(capacity);
+        }
+
+        /**
+         * Forgets the whole tree and puts a new root into slot 0
+         */
+        void reset(long root)
+        {
+            int used = Math.min(next.get(), capacity);
+            next.set(0);
+            for (int i = 0; i < used; i++)
+            {
+                visits.lazySet(i, 0);
+                scores.lazySet(i, 0);
+            }
+
+            init(allocate(1), root, LEAF);
+        }
+
+        /**
+         * Reserves consecutive slots
+         *
+         * @return the first slot, or -1 if the arena is full
+         */
+        int allocate(int count)
+        {
+            while (true)
+            {
+                int first = next.get();
+                if (first + count > capacity)
+                {
+                    return -1;
+                }
+                if (next.compareAndSet(first, first + count))
+                {
+                    return first;
+                }
+            }
+        }
+
+        void init(int node, long board, int state)
+        {
+            boards[node] = board;
+            children.lazySet(node, state);
+        }
+
+        /**
+         * @return the number of slots in use
+         */
+        int size()
+        {
+            return next.get();
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.MovePolicy;
+
+import java.io.IOException;
+
+/**
+ * Creates move policies from the files written by the training and solving tools
+ */
+public class MovePolicies
+{
+
+    /** The name of the built-in <code>HeuristicPolicy</code> */
+    public static final String HEURISTIC = "heuristic";
+    /** The name of the built-in <code>MctsPolicy</code> */
+    public static final String MCTS = "mcts";
+
+    private MovePolicies() {}
+
+    /**
+     * Creates a built-in policy by name or loads one from a file
+     *
+     * @param spec <code>HEURISTIC</code>, optionally followed by a colon and weights in the format
+     *             of <code>HeuristicWeights.parse()</code>, <code>MCTS</code>, optionally followed by a colon and
+     *             the number of playouts per move, or the path of a file accepted by <code>load()</code>
+     * @param size the size of the boards the policy will play on
+     * @return the policy
+     * @throws IOException if the file could not be read
+     */
+    public static MovePolicy create(String spec, int size) throws IOException
+    {
+        if (HEURISTIC.equalsIgnoreCase(spec))
+        {
+            return new HeuristicPolicy(size);
+        }
+        if (spec.toLowerCase().startsWith(HEURISTIC + ":"))
+        {
+            return new HeuristicPolicy(size, HeuristicWeights.parse(spec.substring(HEURISTIC.length() + 1)));
+        }
+        if (MCTS.equalsIgnoreCase(spec))
+        {
+            return new MctsPolicy(size, MctsPolicy.DEFAULT_ITERATIONS);
+        }
+        if (spec.toLowerCase().startsWith(MCTS + ":"))
+        {
+            return new MctsPolicy(size, Integer.parseInt(spec.substring(MCTS.length() + 1)));
+        }
+
+        return load(spec);
+    }
+
+    /**
+     * Loads a policy from a file, choosing the kind of policy by the contents of the file
+     *
+     * @param path a table written by <code>SmallBoardSolver</code>, a book written by
+     *             <code>OpeningBook</code> or a weight file written by <code>TDTrainer</code>
+     * @return a policy playing with the contents of the file
+     * @throws IOException if the file could not be read
+     */
+    public static MovePolicy load(String path) throws IOException
+    {
+        if (SolvedTable.isTable(path))
+        {
+            return SolvedTable.load(path);
+        }
+        if (OpeningBook.isBook(path))
+        {
+            return OpeningBook.map(path);
+        }
+
+        return NTuplePolicy.load(path);
+    }
+
+}
@@ -0,0 +1,270 @@
+package eecs1510.Game.AI;
+
+import java.nio.FloatBuffer;
+
+/**
+ * An n-tuple network that estimates the value of a packed 4x4 board.
+ *
+ * Each tuple is a fixed set of cells. The exponents found in those cells
+ * form an index into a table of weights, and the value of a board is the sum
+ * of the weights selected by every tuple. Every tuple is also applied to the
+ * seven rotations and reflections of the board, sharing one table, so
+ * symmetric positions always receive the same value.
+ *
+ * All weights live in a single <code>float[]</code>. <code>update()</code>
+ * deliberately does not synchronize: several training threads may update the
+ * same network at once and occasionally lose an update to a race, which costs
+ * far less than locking would (the "Hogwild" approach to parallel training).
+ *
+ * A network that only plays can instead read its weights from a
+ * <code>FloatBuffer</code>, such as a file mapped by <code>NTupleWeightFile</code>.
+ * Such networks cannot be updated.
+ */
+public class NTupleNetwork
+{
+
+    /** The board size the network plays on */
+    public static final int SIZE = 4;
+
+    /** Four 6-tuples (two straight, two rectangular). Strong, but needs 256 MB of weights */
+    public static final int[][] SIX_TUPLES = {
+            {0, 1, 2, 3, 4, 5},
+            {4, 5, 6, 7, 8, 9},
+            {0, 1, 2, 4, 5, 6},
+            {4, 5, 6, 8, 9, 10}
+    };
+
+    /** Two straight and three square 4-tuples. Weaker, but only needs 1.25 MB of weights */
+    public static final int[][] FOUR_TUPLES = {
+            {0, 1, 2, 3},
+            {4, 5, 6, 7},
+            {0, 1, 4, 5},
+            {1, 2, 5, 6},
+            {5, 6, 9, 10}
+    };
+
+    private final int[][] tuples;
+    /** The cells of every symmetric variant of every tuple */
+    private final int[][] features;
+    /** The offset of the weight table used by each feature */
+    private final int[] featureOffsets;
+    /** The weights of a trainable network, or null if the network is read-only */
+    private final float[] weights;
+    /** The weights of a read-only network, or null if the network is trainable */
+    private final FloatBuffer readOnlyWeights;
+
+    /**
+     * Creates a network with all weights set to zero
+     *
+     * @param tuples the cells of each tuple, in row-major order
+     */
+    public NTupleNetwork(int[][] tuples)
+    {
+        this(tuples, new float[tableOffset(tuples, tuples.length)]);
+    }
+
+    /**
+     * Creates a network with the specified weights
+     *
+     * @param tuples  the cells of each tuple, in row-major order
+     * @param weights the weight tables of all tuples, one after another
+     */
+    public NTupleNetwork(int[][] tuples, float[] weights)
+    {
+        this(tuples, weights, null, weights.length);
+    }
+
+    /**
+     * Creates a read-only network whose weights are read from a buffer
+     *
+     * @param tuples  the cells of each tuple, in row-major order
+     * @param weights the weight tables of all tuples, one after another,
+     *                starting at the position of the buffer
+     */
+    public NTupleNetwork(int[][] tuples, FloatBuffer weights)
+    {
+        this(tuples, null, weights.slice(), weights.remaining());
+    }
+
+    private NTupleNetwork(int[][] tuples, float[] weights, FloatBuffer readOnlyWeights, int weightCount)
+    {
+        if (weightCount != tableOffset(tuples, tuples.length))
+        {
+            throw new IllegalArgumentException("Expected " + tableOffset(tuples, tuples.length) + " weights but got " + weightCount);
+        }
+
+        this.tuples = tuples;
+        this.weights = weights;
+        this.readOnlyWeights = readOnlyWeights;
+
+        int[][] symmetries = symmetries();
+        features = new int[tuples.length * symmetries.length][];
+        featureOffsets = new int[features.length];
+
+        for (int t = 0; t < tuples.length; t++)
+        {
+            for (int s = 0; s < symmetries.length; s++)
+            {
+                int[] cells = new int[tuples[t].length];
+                for (int k = 0; k < cells.length; k++)
+                {
+                    cells[k] = symmetries[s][tuples[t][k]];
+                }
+
+                features[t * symmetries.length + s] = cells;
+                featureOffsets[t * symmetries.length + s] = tableOffset(tuples, t);
+            }
+        }
+    }
+
+    /**
+     * @param tuples the cells of each tuple
+     * @param count  the number of tuples preceding the table
+     * @return the offset of the weight table of the tuple at <code>count</code>
+     */
+    private static int tableOffset(int[][] tuples, int count)
+    {
+        long offset = 0;
+        for (int t = 0; t < count; t++)
+        {
+            offset += 1L << (4 * tuples[t].length);
+        }
+
+        if (offset > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("The tuples need more weights than fit into an array");
+        }
+
+        return (int) offset;
+    }
+
+    /**
+     * @return for each of the 8 rotations and reflections of a 4x4 board, the
+     *         cell that each cell is mapped to
+     */
+    private static int[][] symmetries()
+    {
+        int[][] result = new int[8][SIZE * SIZE];
+        for (int row = 0; row < SIZE; row++)
+        {
+            for (int column = 0; column < SIZE; column++)
+            {
+                int r = row, c = column;
+                for (int s = 0; s < 4; s++)
+                {
+                    result[s][row * SIZE + column] = r * SIZE + c;
+                    result[s + 4][row * SIZE + column] = r * SIZE + (SIZE - 1 - c);
+
+                    // Rotate by 90 degrees
+                    int t = r;
+                    r = c;
+                    c = SIZE - 1 - t;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the cells of each tuple
+     */
+    public int[][] getTuples()
+    {
+        return tuples;
+    }
+
+    /**
+     * @return the weight tables of all tuples, one after another
+     */
+    public float[] getWeights()
+    {
+        if (weights == null)
+        {
+            float[] copy = new float[readOnlyWeights.capacity()];
+            readOnlyWeights.duplicate().get(copy);
+            return copy;
+        }
+
+        return weights;
+    }
+
+    /**
+     * @return the number of weights in all tables
+     */
+    public int weightCount()
+    {
+        return weights != null ? weights.length : readOnlyWeights.capacity();
+    }
+
+    /**
+     * @return false if the weights are read from a buffer and cannot be updated
+     */
+    public boolean isTrainable()
+    {
+        return weights != null;
+    }
+
+    /**
+     * @return the number of weights summed up for every evaluation
+     */
+    public int featureCount()
+    {
+        return features.length;
+    }
+
+    /**
+     * @param board a packed 4x4 board
+     * @return the estimated value of the board
+     */
+    public float evaluate(long board)
+    {
+        float value = 0f;
+        if (weights != null)
+        {
+            for (int f = 0; f < features.length; f++)
+            {
+                value += weights[featureOffsets[f] + index(board, features[f])];
+            }
+        } else {
+            for (int f = 0; f < features.length; f++)
+            {
+                value += readOnlyWeights.get(featureOffsets[f] + index(board, features[f]));
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Adds <code>delta</code> to every weight that contributes to the value of the board
+     *
+     * @param board a packed 4x4 board
+     * @param delta the amount to add to each weight
+     * @throws IllegalStateException if the network is read-only
+     */
+    public void update(long board, float delta)
+    {
+        if (weights == null)
+        {
+            throw new IllegalStateException("The weights of this network are read-only");
+        }
+
+        for (int f = 0; f < features.length; f++)
+        {
+            weights[featureOffsets[f] + index(board, features[f])] += delta;
+        }
+    }
+
+    private static int index(long board, int[] cells)
+    {
+        int index = 0;
+        for (int k = 0; k < cells.length; k++)
+        {
+            index |= (int) ((board >>> (4 * cells[k])) & 0xF) << (4 * k);
+        }
+
+        return index;
+    }
+
+}
@@ -0,0 +1,73 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.PackedBoard;
+
+import java.io.IOException;
+
+/**
+ * Plays the move whose immediate reward plus the value of the resulting
+ * afterstate (the board before the random tile is placed) is the largest,
+ * as estimated by a trained <code>NTupleNetwork</code>
+ */
+public class NTuplePolicy implements MovePolicy
+{
+
+    private final NTupleNetwork network;
+    private final PackedBoard packed = PackedBoard.forSize(NTupleNetwork.SIZE);
+
+    public NTuplePolicy(NTupleNetwork network)
+    {
+        this.network = network;
+    }
+
+    /**
+     * @param path a weight file written by <code>TDTrainer</code>
+     * @return a policy reading its weights straight from a mapping of the file
+     * @throws IOException if the file could not be mapped
+     */
+    public static NTuplePolicy load(String path) throws IOException
+    {
+        return new NTuplePolicy(NTupleWeightFile.map(path));
+    }
+
+    @Override
+    public Direction nextMove(BoardEngine board)
+    {
+        return bestMove(packed.pack(board));
+    }
+
+    /**
+     * @param board a packed 4x4 board
+     * @return the best move for the board, or null if no move is valid
+     */
+    public Direction bestMove(long board)
+    {
+        Direction best = null;
+        float bestValue = Float.NEGATIVE_INFINITY;
+
+        for (Direction d : Direction.values())
+        {
+            long after = packed.move(board, d);
+            if (after == board) continue;
+
+            float value = packed.score(board, d) + network.evaluate(after);
+            if (value > bestValue)
+            {
+                best = d;
+                bestValue = value;
+            }
+        }
+
+        return best;
+    }
+
+    @Override
+    public boolean supports(int size)
+    {
+        return size == NTupleNetwork.SIZE;
+    }
+
+}
@@ -0,0 +1,180 @@
+package eecs1510.Game.AI;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the weights of an <code>NTupleNetwork</code> in a flat
+ * binary format that can be memory-mapped.
+ *
+ * All values are little-endian. The file starts with a header:
+ * <pre>
+ *   int   magic ("NTW1")
+ *   int   version
+ *   int   number of tuples
+ *   int   offset of the weights in bytes
+ *   long  number of weights
+ *   per tuple: int length, followed by one int per cell
+ * </pre>
+ * The header is padded to a multiple of <code>ALIGNMENT</code> bytes, and the
+ * weights follow as raw 32-bit floats. Because the weights are stored exactly
+ * as they are laid out in memory, a network can use a read-only mapping of the
+ * file directly: loading costs no more than reading the header, and several
+ * processes playing with the same file share one copy in the page cache.
+ */
+public class NTupleWeightFile
+{
+
+    /** The weights start at a multiple of this many bytes, so they begin on a page boundary */
+    public static final int ALIGNMENT = 4096;
+
+    private static final int MAGIC = 0x3157544E; // "NTW1" read as a little-endian int
+    private static final int VERSION = 1;
+    /** The size of the buffer used to stream weights to disk */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private NTupleWeightFile() {}
+
+    /**
+     * Writes the tuples and weights of a network
+     *
+     * @param network the network to write
+     * @param path    the file to write
+     * @throws IOException if the file could not be written
+     */
+    public static void save(NTupleNetwork network, String path) throws IOException
+    {
+        int[][] tuples = network.getTuples();
+        float[] weights = network.getWeights();
+
+        int headerSize = 24;
+        for (int[] tuple : tuples)
+        {
+            headerSize += 4 * (1 + tuple.length);
+        }
+        int weightsOffset = (headerSize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+        ByteBuffer header = ByteBuffer.allocate(weightsOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(tuples.length).putInt(weightsOffset).putLong(weights.length);
+        for (int[] tuple : tuples)
+        {
+            header.putInt(tuple.length);
+            for (int cell : tuple)
+            {
+                header.putInt(cell);
+            }
+        }
+        header.clear();
+
+        try(FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            writeFully(out, header);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer floats = buffer.asFloatBuffer();
+            for (int i = 0; i < weights.length; i += floats.capacity())
+            {
+                int count = Math.min(floats.capacity(), weights.length - i);
+                floats.clear();
+                floats.put(weights, i, count);
+
+                buffer.clear().limit(4 * count);
+                writeFully(out, buffer);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Maps the weights of a network read-only. The returned network reads its
+     * weights straight from the mapping and cannot be trained.
+     *
+     * @param path the file to map
+     * @return the network stored in the file
+     * @throws IOException if the file could not be mapped or is not a weight file
+     */
+    public static NTupleNetwork map(String path) throws IOException
+    {
+        try(FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            // The mapping stays valid after the channel is closed
+            return new NTupleNetwork(readTuples(in, path), mapWeights(in, path));
+        }
+    }
+
+    /**
+     * Reads the weights of a network into the heap, so it can be trained further
+     *
+     * @param path the file to read
+     * @return the network stored in the file
+     * @throws IOException if the file could not be read or is not a weight file
+     */
+    public static NTupleNetwork load(String path) throws IOException
+    {
+        try(FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            int[][] tuples = readTuples(in, path);
+            FloatBuffer mapped = mapWeights(in, path);
+
+            float[] weights = new float[mapped.remaining()];
+            mapped.get(weights);
+
+            return new NTupleNetwork(tuples, weights);
+        }
+    }
+
+    private static int[][] readTuples(FileChannel in, String path) throws IOException
+    {
+        ByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(in.size(), 24)).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.remaining() < 24 || header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+        {
+            throw new IOException(path + " is not an n-tuple weight file");
+        }
+
+        header = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(in.size(), header.getInt(12))).order(ByteOrder.LITTLE_ENDIAN);
+        header.position(8);
+
+        int[][] tuples = new int[header.getInt()][];
+        header.position(24);
+        for (int t = 0; t < tuples.length; t++)
+        {
+            tuples[t] = new int[header.getInt()];
+            for (int k = 0; k < tuples[t].length; k++)
+            {
+                tuples[t][k] = header.getInt();
+            }
+        }
+
+        return tuples;
+    }
+
+    private static FloatBuffer mapWeights(FileChannel in, String path) throws IOException
+    {
+        ByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, 24).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = header.getInt(12);
+        long count = header.getLong(16);
+
+        if (count > Integer.MAX_VALUE / 4 || offset + 4 * count > in.size())
+        {
+            throw new IOException(path + " is truncated or has too many weights to map");
+        }
+
+        MappedByteBuffer weights = in.map(FileChannel.MapMode.READ_ONLY, offset, 4 * count);
+        return weights.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+}
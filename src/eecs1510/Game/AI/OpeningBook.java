@@ -0,0 +1,515 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+import eecs1510.Game.PackedBoardEngine;
+import eecs1510.Game.Randomizer;
+import eecs1510.Game.Stats.LogHistogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays the first moves of a game from a precomputed table of positions, the
+ * best move in each and its value, and hands every position that is not in
+ * the table to another policy.
+ *
+ * The book is built by playing many seeded games with a shallow expectimax
+ * search and storing every position of their openings. It is an
+ * open-addressed hash table in a file that is memory-mapped read-only, so a
+ * lookup is a few reads from the page cache instead of a search, and all
+ * processes on a host that use the same book share one copy of it. A new
+ * book is written to a temporary file and renamed over the old one, so
+ * processes that have the old book mapped keep using it undisturbed.
+ *
+ * All values are little-endian:
+ * <pre>
+ *   int   magic ("BOK1")
+ *   int   version
+ *   int   board size
+ *   int   log2 of the number of slots
+ *   int   number of positions
+ *   int   number of moves of every game that were stored
+ *   int   number of moves searched in every position
+ *   int   reserved
+ *   per slot: long packed board, float value, int ordinal of the best Direction
+ * </pre>
+ * A slot is found by multiplying the board with a large odd constant and
+ * keeping the top bits, and collisions probe the following slots. Empty slots
+ * hold the board 0, which never occurs in a game.
+ */
+public class OpeningBook implements MovePolicy
+{
+
+    private static final int MAGIC = 0x314B4F42; // "BOK1" read as a little-endian int
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 16;
+    /** The largest table that fits a single mapping */
+    private static final int MAX_BITS = 26;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int size;
+    private final int bits;
+    private final int positions;
+    private final int plies;
+    private final int depth;
+    private final ByteBuffer slots;
+    private final PackedBoard packed;
+    private final MovePolicy fallback;
+
+    private OpeningBook(int size, int bits, int positions, int plies, int depth, ByteBuffer slots, MovePolicy fallback)
+    {
+        this.size = size;
+        this.bits = bits;
+        this.positions = positions;
+        this.plies = plies;
+        this.depth = depth;
+        this.slots = slots;
+        this.packed = PackedBoard.forSize(size);
+        this.fallback = fallback;
+    }
+
+    /**
+     * Maps a book that hands the positions it doesn't cover to a <code>HeuristicPolicy</code>
+     *
+     * @param path the book to map
+     * @return a policy that plays the moves stored in the book
+     * @throws IOException if the file could not be mapped or is not a book
+     */
+    public static OpeningBook map(String path) throws IOException
+    {
+        return map(path, null);
+    }
+
+    /**
+     * Maps a book written by <code>OpeningBook</code>
+     *
+     * @param path     the book to map
+     * @param fallback the policy that plays positions that are not in the book, or null for a <code>HeuristicPolicy</code>
+     * @return a policy that plays the moves stored in the book
+     * @throws IOException if the file could not be mapped or is not a book
+     */
+    public static OpeningBook map(String path, MovePolicy fallback) throws IOException
+    {
+        try(FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            ByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(in.size(), HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION)
+            {
+                throw new IOException(path + " is not an opening book");
+            }
+
+            int size = header.getInt();
+            int bits = header.getInt();
+            int positions = header.getInt();
+            int plies = header.getInt();
+            int depth = header.getInt();
+            if (!PackedBoard.supports(size) || bits < 1 || bits > MAX_BITS || in.size() < HEADER_SIZE + ((long) SLOT_SIZE << bits))
+            {
+                throw new IOException(path + " is damaged");
+            }
+
+            ByteBuffer slots = in.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) SLOT_SIZE << bits).order(ByteOrder.LITTLE_ENDIAN);
+            return new OpeningBook(size, bits, positions, plies, depth, slots, fallback != null ? fallback : new HeuristicPolicy(size));
+        }
+    }
+
+    /**
+     * Writes a book
+     *
+     * @param path      the book to write. It is replaced in one step if it exists
+     * @param size      the size of the boards in the book
+     * @param plies     the number of moves of every game that were stored
+     * @param depth     the number of moves searched in every position
+     * @param positions the packed boards, each with its value in the upper and the ordinal of its best move in the lower half
+     * @throws IOException if the file could not be written
+     */
+    static void write(String path, int size, int plies, int depth, Map<Long, Long> positions) throws IOException
+    {
+        int bits = 1;
+        while ((1L << bits) < 2L * positions.size())
+        {
+            bits++;
+        }
+        if (bits > MAX_BITS)
+        {
+            throw new IllegalArgumentException("The book can't hold more than " + (1 << (MAX_BITS - 1)) + " positions");
+        }
+
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try
+        {
+            try(FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                MappedByteBuffer file = out.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + ((long) SLOT_SIZE << bits));
+                file.order(ByteOrder.LITTLE_ENDIAN);
+                file.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(bits).putInt(positions.size()).putInt(plies).putInt(depth).putInt(0);
+
+                int mask = (1 << bits) - 1;
+                for (Map.Entry<Long, Long> e : positions.entrySet())
+                {
+                    long board = e.getKey();
+                    int slot = slot(board, bits);
+                    while (file.getLong(HEADER_SIZE + slot * SLOT_SIZE) != 0)
+                    {
+                        slot = (slot + 1) & mask;
+                    }
+
+                    file.putLong(HEADER_SIZE + slot * SLOT_SIZE, board);
+                    file.putFloat(HEADER_SIZE + slot * SLOT_SIZE + 8, Float.intBitsToFloat((int) (e.getValue() >>> 32)));
+                    file.putInt(HEADER_SIZE + slot * SLOT_SIZE + 12, (int) (e.getValue() & 3));
+                }
+                file.force();
+            }
+
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @param path a file
+     * @return true if the file starts like an opening book
+     */
+    public static boolean isBook(String path)
+    {
+        try(FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            return in.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    private static int slot(long board, int bits)
+    {
+        return (int) ((board * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+    }
+
+    /**
+     * @param board a packed board of the size of the book
+     * @return the offset of the slot that holds the board, or -1 if it is not in the book
+     */
+    private int find(long board)
+    {
+        if (board == 0)
+        {
+            return -1;
+        }
+
+        int mask = (1 << bits) - 1;
+        for (int slot = slot(board, bits); ; slot = (slot + 1) & mask)
+        {
+            long stored = slots.getLong(slot * SLOT_SIZE);
+            if (stored == board)
+            {
+                return slot * SLOT_SIZE;
+            }
+            if (stored == 0)
+            {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @param board a packed board of the size of the book
+     * @return the best move stored for the board, or null if the board is not in the book
+     */
+    public Direction bestMove(long board)
+    {
+        int offset = find(board);
+        return offset < 0 ? null : DIRECTIONS[slots.getInt(offset + 12)];
+    }
+
+    /**
+     * @param board a game board
+     * @return the best move stored for the board, or null if the board is not in the book
+     */
+    public Direction bestMove(BoardEngine board)
+    {
+        if (board.getSize() != size)
+        {
+            return null;
+        }
+
+        try
+        {
+            return bestMove(packed.pack(board));
+        } catch(IllegalArgumentException e) {
+            // A tile grew too large to be packed, which is long past any opening
+            return null;
+        }
+    }
+
+    /**
+     * @param board a packed board of the size of the book
+     * @return the expectimax value of the best move stored for the board, or NaN if the board is not in the book
+     */
+    public double value(long board)
+    {
+        int offset = find(board);
+        return offset < 0 ? Double.NaN : slots.getFloat(offset + 8);
+    }
+
+    @Override
+    public Direction nextMove(BoardEngine board)
+    {
+        Direction d = bestMove(board);
+        return d != null ? d : fallback.nextMove(board);
+    }
+
+    @Override
+    public boolean supports(int size)
+    {
+        return size == this.size;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of positions in the book
+     */
+    public int getPositions()
+    {
+        return positions;
+    }
+
+    /**
+     * @return the number of moves of every game the book was built from that it covers
+     */
+    public int getPlies()
+    {
+        return plies;
+    }
+
+    /**
+     * @return the number of moves that were searched in every position
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public static void main(String[] args)
+    {
+        int[] size = { 4 };
+        int[] games = { 1000 };
+        int[] plies = { 25 };
+        int[] depth = { BlunderAnalysis.DEFAULT_DEPTH };
+        int[] threads = { Runtime.getRuntime().availableProcessors() };
+        long[] seed = { 2048 };
+        String[] output = { null };
+        String[] inspect = { null };
+
+        new OptionsParser().add("size", "The size of the board, 2 to 4 (Default: 4)", (s) -> {
+            size[0] = Integer.parseInt(s);
+        }).add("games", "The number of games to play (Default: 1000)", (s) -> {
+            games[0] = Integer.parseInt(s);
+        }).add("moves", "The number of moves of every game to store (Default: 25)", (s) -> {
+            plies[0] = Integer.parseInt(s);
+        }).add("depth", "The number of moves to search in every position (Default: " + BlunderAnalysis.DEFAULT_DEPTH + ")", (s) -> {
+            depth[0] = Integer.parseInt(s);
+        }).add("t", "threads", "The number of threads (Default: one per core)", (s) -> {
+            threads[0] = Integer.parseInt(s);
+        }).add("seed", "Seeds the choice of game seeds, for repeatable runs (Default: 2048)", (s) -> {
+            seed[0] = Long.parseLong(s);
+        }).add("o", "output", "The book to write (Default: opening-SIZE.book)", (s) -> {
+            output[0] = s;
+        }).add("inspect", "Play --games games with an existing book and report how much of them it covers and how fast it is", (s) -> {
+            inspect[0] = s;
+        }).parse(args);
+
+        try
+        {
+            if (inspect[0] != null)
+            {
+                inspect(inspect[0], games[0], seed[0]);
+            } else {
+                build(output[0] != null ? output[0] : "opening-" + size[0] + ".book", size[0], games[0], plies[0], depth[0], threads[0], seed[0]);
+            }
+        } catch(IOException | InterruptedException | Randomizer.InvalidSeedException | IllegalArgumentException e) {
+            System.err.println("Opening book failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the seed of a game the book is built from or inspected with
+     */
+    private static String gameSeed(long seed, int game)
+    {
+        return SeedScanner.seedAt(new SplittableRandom(seed + game * 0x9E3779B97F4A7C15L).nextLong(SeedScanner.SEED_COUNT));
+    }
+
+    /**
+     * Plays the openings of seeded games with an expectimax search on several
+     * threads and writes every position they reach to a book
+     *
+     * @param path    the book to write
+     * @param size    the size of the board
+     * @param games   the number of games
+     * @param plies   the number of moves of every game to store
+     * @param depth   the number of moves to search in every position
+     * @param threads the number of worker threads
+     * @param seed    seeds the choice of game seeds
+     */
+    public static void build(String path, int size, int games, int plies, int depth, int threads, long seed) throws IOException, InterruptedException
+    {
+        BlunderAnalysis search = new BlunderAnalysis(size, HeuristicWeights.DEFAULT, depth);
+        Map<Long, Long> entries = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+
+        long start = System.nanoTime();
+        Thread[] running = new Thread[Math.max(1, Math.min(threads, games))];
+        Exception[] failures = new Exception[running.length];
+        for (int i = 0; i < running.length; i++)
+        {
+            final int id = i;
+            running[i] = new Thread(() -> {
+                try
+                {
+                    int game;
+                    while ((game = next.getAndIncrement()) < games)
+                    {
+                        PackedBoardEngine board = new PackedBoardEngine(size, gameSeed(seed, game));
+                        for (int ply = 0; ply < plies && !board.isLost(); ply++)
+                        {
+                            long b = board.getPacked();
+                            Long entry = entries.get(b);
+                            if (entry == null)
+                            {
+                                entry = entries.computeIfAbsent(b, (k) -> entry(search.values(k)));
+                            }
+
+                            board.squash(DIRECTIONS[(int) (entry & 3)]);
+                            board.placeRandom();
+                        }
+                    }
+                } catch(Randomizer.InvalidSeedException | RuntimeException e) {
+                    failures[id] = e;
+                }
+            }, "opening-book-" + i);
+            running[i].start();
+        }
+
+        for (int i = 0; i < running.length; i++)
+        {
+            running[i].join();
+            if (failures[i] != null)
+            {
+                throw new IOException("A search thread failed: " + failures[i], failures[i]);
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        write(path, size, plies, depth, entries);
+        System.out.printf("Searched %d positions of %d games in %.1f s, wrote %s (%d bytes)%n",
+                entries.size(), games, elapsed, path, Files.size(Paths.get(path)));
+    }
+
+    /**
+     * @param values the values of all moves of a position, NaN for invalid moves
+     * @return the best move and its value in the format of <code>write()</code>
+     */
+    private static long entry(double[] values)
+    {
+        int best = -1;
+        for (int i = 0; i < values.length; i++)
+        {
+            if (!Double.isNaN(values[i]) && (best < 0 || values[i] > values[best])) best = i;
+        }
+        if (best < 0)
+        {
+            // Lost positions never reach the book since the games stop before them
+            throw new IllegalStateException("No move is valid");
+        }
+
+        return (long) Float.floatToIntBits((float) values[best]) << 32 | best;
+    }
+
+    /**
+     * Plays games with the book and the search it replaces, and reports how
+     * many of their first moves the book covered and how long a lookup takes
+     * compared to the search
+     */
+    private static void inspect(String path, int games, long seed) throws IOException, Randomizer.InvalidSeedException
+    {
+        OpeningBook book = map(path);
+        BlunderAnalysis search = new BlunderAnalysis(book.getSize(), HeuristicWeights.DEFAULT, book.getDepth());
+        PackedBoard packed = PackedBoard.forSize(book.getSize());
+
+        System.out.printf("%s: %d positions of %dx%d boards in %d slots, the first %d moves of every game searched %d moves deep%n",
+                path, book.getPositions(), book.getSize(), book.getSize(), 1 << book.bits, book.getPlies(), book.getDepth());
+
+        LogHistogram lookups = new LogHistogram();
+        LogHistogram searches = new LogHistogram();
+        long hits = 0;
+        long moves = 0;
+        long inBook = 0;
+        for (int game = 0; game < games; game++)
+        {
+            PackedBoardEngine board = new PackedBoardEngine(book.getSize(), gameSeed(seed, game));
+            boolean left = false;
+            for (int ply = 0; ply < book.getPlies() && !board.isLost(); ply++)
+            {
+                long b = board.getPacked();
+
+                long begin = System.nanoTime();
+                Direction d = book.bestMove(b);
+                lookups.record(System.nanoTime() - begin);
+
+                // Time the search on a sample of the positions, it is orders of magnitude slower
+                if ((ply & 7) == 0)
+                {
+                    begin = System.nanoTime();
+                    search.values(b);
+                    searches.record(System.nanoTime() - begin);
+                }
+
+                moves++;
+                if (d != null)
+                {
+                    hits++;
+                    if (!left) inBook++;
+                } else {
+                    left = true;
+                    d = DIRECTIONS[(int) (entry(search.values(b)) & 3)];
+                }
+
+                if (packed.move(b, d) == b) break;
+                board.squash(d);
+                board.placeRandom();
+            }
+        }
+
+        System.out.printf("%d of the first %d moves of %d games were in the book (%.1f%%), %.1f moves per game before the first miss%n",
+                hits, moves, games, 100.0 * hits / Math.max(1, moves), (double) inBook / Math.max(1, games));
+        System.out.println("Lookup (ns): " + lookups);
+        System.out.println("Search (ns): " + searches);
+    }
+
+}
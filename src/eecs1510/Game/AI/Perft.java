@@ -0,0 +1,293 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Randomizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts every position reachable from the start of a game, like "perft" in
+ * chess engines.
+ *
+ * One ply is a valid move followed by a 2 or a 4 spawning on any free cell,
+ * so every spawn is a separate branch of the tree. The position counts for a
+ * seed and depth never change, which makes them a regression test for every
+ * <code>BoardEngine</code>, and the number of positions visited per second is
+ * a benchmark for it. The subtrees near the root are searched in parallel on
+ * a fork/join pool.
+ */
+public class Perft
+{
+
+    /**
+     * Counts of standard positions, as {size, depth, nodes, moves, merges, score, terminal}
+     * for a game started with <code>STANDARD_SEED</code>
+     */
+    private static final long[][] KNOWN_COUNTS = {
+            {4, 1, 84, 3, 0, 0, 0},
+            {4, 2, 8004, 307, 50, 304, 0},
+            {4, 3, 750048, 30014, 13478, 84408, 0},
+            {3, 4, 1732526, 165503, 89290, 571776, 0},
+            {2, 8, 258536, 177201, 122036, 921224, 42006}
+    };
+
+    /** The seed of the standard positions */
+    public static final String STANDARD_SEED = "2048PERF";
+
+    /** Subtrees with at least this many plies left are split into parallel tasks */
+    private static final int SPLIT_DEPTH = 2;
+
+    private String seed = STANDARD_SEED;
+    private int size = Board.DEFAULT_SIZE;
+    private int depth = 3;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean verify = false;
+    private String engine = BoardEngines.REFERENCE;
+    private boolean differential = false;
+
+    /**
+     * Totals over a subtree
+     */
+    public static class Counts
+    {
+        /** The number of positions at the requested depth */
+        public long nodes;
+        /** The number of valid moves made on the way */
+        public long moves;
+        /** The number of tiles merged by those moves */
+        public long merges;
+        /** The score gained by those moves */
+        public long score;
+        /** The number of positions without a valid move that were reached before the requested depth */
+        public long terminal;
+
+        private void add(Counts other)
+        {
+            nodes += other.nodes;
+            moves += other.moves;
+            merges += other.merges;
+            score += other.score;
+            terminal += other.terminal;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "nodes=" + nodes + " moves=" + moves + " merges=" + merges + " score=" + score + " terminal=" + terminal;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Perft p = new Perft();
+
+        new OptionsParser().add("seed", "The seed of the starting position (Default: " + STANDARD_SEED + ")", (s) -> {
+            p.seed = s;
+        }).add("size", "The size of the board (Default: 4)", (s) -> {
+            p.size = Integer.parseInt(s);
+        }).add("depth", "The number of plies to search (Default: 3)", (s) -> {
+            p.depth = Integer.parseInt(s);
+        }).add("t", "threads", "The number of worker threads (Default: one per core)", (s) -> {
+            p.threads = Integer.parseInt(s);
+        }).add("engine", "The board engine to count with: " + String.join(", ", BoardEngines.NAMES) + " (Default: " + BoardEngines.REFERENCE + ")", (s) -> {
+            p.engine = s;
+        }).addSwitch("differential", "Run the engine in lockstep with the reference engine and stop if they disagree", () -> p.differential = true)
+          .addSwitch("verify", "Compare the counts of the standard positions to the known values", () -> p.verify = true)
+          .parse(args);
+
+        try
+        {
+            if (p.verify)
+            {
+                if (!p.verify())
+                {
+                    System.exit(1);
+                }
+            } else {
+                p.report(p.seed, p.size, p.depth);
+            }
+        } catch(Randomizer.InvalidSeedException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Searches the standard positions and compares them to the known counts
+     *
+     * @return true if all counts match
+     */
+    public boolean verify() throws Randomizer.InvalidSeedException
+    {
+        boolean passed = true;
+        for (long[] known : KNOWN_COUNTS)
+        {
+            Counts c = report(STANDARD_SEED, (int) known[0], (int) known[1]);
+            long[] actual = {known[0], known[1], c.nodes, c.moves, c.merges, c.score, c.terminal};
+            if (!Arrays.equals(known, actual))
+            {
+                System.out.println("  MISMATCH, expected nodes=" + known[2] + " moves=" + known[3] + " merges=" + known[4] +
+                        " score=" + known[5] + " terminal=" + known[6]);
+                passed = false;
+            }
+        }
+
+        System.out.println(passed ? "All counts match" : "Some counts do not match");
+        return passed;
+    }
+
+    /**
+     * Searches a position and prints its counts and the search speed
+     */
+    private Counts report(String seed, int size, int depth) throws Randomizer.InvalidSeedException
+    {
+        BoardEngine start = BoardEngines.create(engine, differential, size, seed);
+
+        long begin = System.nanoTime();
+        Counts c = count(start, depth, threads);
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+
+        long visited = c.nodes + c.terminal;
+        System.out.printf("%dx%d %s depth %d with %s: %s (%.2f s, %.2f million nodes/s)%n",
+                size, size, seed, depth, differential ? engine + " (differential)" : engine, c, elapsed, visited / elapsed / 1e6);
+        return c;
+    }
+
+    /**
+     * Counts all positions reachable from a board
+     *
+     * @param start   the position to search from
+     * @param depth   the number of plies to search
+     * @param threads the number of worker threads
+     * @return the totals over the whole tree
+     */
+    public static Counts count(BoardEngine start, int depth, int threads)
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            return pool.invoke(new Subtree(start, depth));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Searches a subtree, forking a task for every child while enough plies are left
+     */
+    private static class Subtree extends RecursiveTask<Counts>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final BoardEngine board;
+        private final int depth;
+
+        private Subtree(BoardEngine board, int depth)
+        {
+            this.board = board;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Counts compute()
+        {
+            if (depth < SPLIT_DEPTH)
+            {
+                Counts c = new Counts();
+                search(board, depth, c);
+                return c;
+            }
+
+            Counts c = new Counts();
+            List<Subtree> children = new ArrayList<>();
+            for (Direction d : Direction.values())
+            {
+                BoardEngine moved = board.copy();
+                MoveResult result = moved.squash(d);
+                if (result.isInvalid())
+                {
+                    continue;
+                }
+
+                c.moves++;
+                c.merges += result.mergeCount;
+                c.score += result.mergeValue;
+
+                for (int[] cell : moved.getFreeCells())
+                {
+                    for (int value = 2; value <= 4; value += 2)
+                    {
+                        BoardEngine child = moved.copy();
+                        child.place(cell[0], cell[1], value);
+                        children.add(new Subtree(child, depth - 1));
+                    }
+                }
+            }
+
+            if (c.moves == 0)
+            {
+                c.terminal++;
+                return c;
+            }
+
+            invokeAll(children);
+            for (Subtree child : children)
+            {
+                c.add(child.join());
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Searches a subtree on the current thread
+     */
+    private static void search(BoardEngine board, int depth, Counts c)
+    {
+        if (depth == 0)
+        {
+            c.nodes++;
+            return;
+        }
+
+        boolean anyValid = false;
+        for (Direction d : Direction.values())
+        {
+            BoardEngine moved = board.copy();
+            MoveResult result = moved.squash(d);
+            if (result.isInvalid())
+            {
+                continue;
+            }
+
+            anyValid = true;
+            c.moves++;
+            c.merges += result.mergeCount;
+            c.score += result.mergeValue;
+
+            for (int[] cell : moved.getFreeCells())
+            {
+                for (int value = 2; value <= 4; value += 2)
+                {
+                    moved.place(cell[0], cell[1], value);
+                    search(moved, depth - 1, c);
+                    moved.place(cell[0], cell[1], 0);
+                }
+            }
+        }
+
+        if (!anyValid)
+        {
+            c.terminal++;
+        }
+    }
+
+}
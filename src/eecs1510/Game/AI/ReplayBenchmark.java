@@ -0,0 +1,162 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Randomizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Replays recorded games on every engine, once move by move through
+ * <code>squash()</code> and <code>placeRandom()</code> and once through the
+ * batch <code>applyMoves()</code>, checks that all of them end on the same
+ * board with the same score, and reports moves per second.
+ *
+ * The games are played with random moves on the reference engine first.
+ */
+public class ReplayBenchmark
+{
+
+    private int size = Board.DEFAULT_SIZE;
+    private int games = 1000;
+    private int rounds = 20;
+    private long seed = 2048;
+
+    private final List<String> seeds = new ArrayList<>();
+    private final List<byte[]> moves = new ArrayList<>();
+    private final List<Integer> lengths = new ArrayList<>();
+    private final List<Long> hashes = new ArrayList<>();
+    private final List<Integer> scores = new ArrayList<>();
+    private long totalMoves = 0;
+
+    public static void main(String[] args)
+    {
+        ReplayBenchmark b = new ReplayBenchmark();
+
+        new OptionsParser().add("size", "The size of the board (Default: 4)", (s) -> {
+            b.size = Integer.parseInt(s);
+        }).add("games", "The number of games to record (Default: 1000)", (s) -> {
+            b.games = Integer.parseInt(s);
+        }).add("rounds", "How often every game is replayed (Default: 20)", (s) -> {
+            b.rounds = Integer.parseInt(s);
+        }).add("seed", "Seeds the games and their moves, for repeatable runs (Default: 2048)", (s) -> {
+            b.seed = Long.parseLong(s);
+        }).parse(args);
+
+        try
+        {
+            b.run();
+        } catch(Randomizer.InvalidSeedException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void run() throws Randomizer.InvalidSeedException
+    {
+        record();
+        System.out.printf("Recorded %d games with %d moves%n", games, totalMoves);
+
+        for (String engine : BoardEngines.NAMES)
+        {
+            // The first round warms up the JIT and isn't timed
+            for (int batch = 0; batch < 2; batch++)
+            {
+                String name = batch == 0 ? "one by one" : "applyMoves";
+                replay(engine, batch == 1, 1);
+                long start = System.nanoTime();
+                replay(engine, batch == 1, rounds);
+                double elapsed = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("%-7s %-11s %8.2f million moves/s%n", engine, name, totalMoves * rounds / elapsed / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Plays the games with random valid moves on the reference engine
+     */
+    private void record() throws Randomizer.InvalidSeedException
+    {
+        SplittableRandom random = new SplittableRandom(seed);
+        Randomizer seeds = new Randomizer(Randomizer.randomSeed(), random.nextLong());
+        Direction[] directions = Direction.values();
+
+        for (int g = 0; g < games; g++)
+        {
+            String s = seeds.nextSeed();
+            Board board = new Board(size, s);
+            List<Direction> played = new ArrayList<>();
+            int score = 0;
+
+            while (!board.isLost())
+            {
+                Direction d = directions[random.nextInt(directions.length)];
+                MoveResult result = board.squash(d);
+                if (result.isInvalid()) continue;
+
+                played.add(d);
+                score += result.mergeValue;
+                board.placeRandom();
+            }
+
+            this.seeds.add(s);
+            moves.add(BoardEngine.packMoves(played.toArray(new Direction[0])));
+            lengths.add(played.size());
+            hashes.add(board.getHash());
+            scores.add(score);
+            totalMoves += played.size();
+        }
+    }
+
+    /**
+     * Replays every game and checks where it ended
+     */
+    private void replay(String engine, boolean batch, int rounds) throws Randomizer.InvalidSeedException
+    {
+        Direction[] directions = Direction.values();
+        int[] points = new int[0];
+
+        for (int r = 0; r < rounds; r++)
+        {
+            for (int g = 0; g < games; g++)
+            {
+                BoardEngine board = BoardEngines.create(engine, size, seeds.get(g));
+                byte[] packed = moves.get(g);
+                int length = lengths.get(g);
+                int score = 0;
+
+                if (batch)
+                {
+                    if (points.length < length) points = new int[2 * length];
+                    int played = board.applyMoves(packed, 0, length, points, null, null);
+                    if (played != length)
+                    {
+                        throw new IllegalStateException(engine + " stopped game " + g + " after " + played + " of " + length + " moves");
+                    }
+                    for (int i = 0; i < length; i++)
+                    {
+                        score += points[i];
+                    }
+                } else {
+                    for (int i = 0; i < length; i++)
+                    {
+                        score += board.squash(directions[(packed[i >> 2] >>> (2 * (i & 3))) & 3]).mergeValue;
+                        board.placeRandom();
+                    }
+                }
+
+                if (board.getHash() != hashes.get(g) || score != scores.get(g))
+                {
+                    throw new IllegalStateException(engine + " ended game " + g + " (seed " + seeds.get(g) + ") differently");
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,492 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+import eecs1510.Game.Randomizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays a range of seeds with a fixed policy to find the easiest and hardest openings.
+ *
+ * The letters O, E and L play exactly like the digits 0, 3 and 1 (see
+ * <code>Randomizer</code>), so only seeds made of the remaining 33 characters
+ * are scanned. The generator is also started from the last five characters
+ * of a seed alone, since the earlier ones are shifted out of its 48 bits of
+ * state, so every seed plays like the seed that starts with "000" and ends
+ * the same way. Seeds are therefore numbered by their last five characters,
+ * with the first of them being the most significant, and no game is played
+ * twice. Worker threads claim chunks of consecutive seeds
+ * and keep the best and worst outcomes they have seen in bounded heaps, which
+ * are merged for reports and at the end.
+ *
+ * A checkpoint is written regularly. It holds the range, the first seed that
+ * has not been scanned completely, and the merged heaps, so an interrupted
+ * scan continues with <code>--resume</code>. Seeds after that point may be
+ * played again, but duplicates are removed when the heaps are merged.
+ */
+public class SeedScanner
+{
+
+    /** The characters that make up scanned seeds, in the order they are numbered */
+    public static final String ALPHABET = Randomizer.VALID_SEED_CHARS.replaceAll("[OEL]", "");
+    /** The number of characters of a seed that decide the game */
+    private static final int SIGNIFICANT_CHARS = 5;
+    /** The number of seeds that play different games */
+    public static final long SEED_COUNT = pow(ALPHABET.length(), SIGNIFICANT_CHARS);
+
+    /** The number of consecutive seeds a worker claims at once */
+    private static final int CHUNK = 256;
+
+    private long from = 0;
+    private long count = 100_000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int top = 10;
+    private int size = 4;
+    private String policySpec = MovePolicies.HEURISTIC;
+    private String checkpoint = "seedscan.checkpoint";
+    private boolean resume = false;
+    private int reportSeconds = 10;
+
+    private MovePolicy policy;
+    private String engine;
+
+    /** The next seed that has not been claimed by a worker */
+    private AtomicLong cursor;
+    /** Every seed before this one has been played */
+    private long watermark;
+    /** Chunks after the watermark that are finished */
+    private final TreeSet<Long> finishedChunks = new TreeSet<>();
+
+    private final LongAdder gamesPlayed = new LongAdder();
+    private final List<Worker> workers = new ArrayList<>();
+    /** Outcomes read from the checkpoint */
+    private final List<Outcome> resumed = new ArrayList<>();
+
+    /**
+     * The result of playing one seed
+     */
+    public static class Outcome
+    {
+        public final long index;
+        public final int score;
+        public final int moves;
+        public final int maxTile;
+
+        public Outcome(long index, int score, int moves, int maxTile)
+        {
+            this.index = index;
+            this.score = score;
+            this.moves = moves;
+            this.maxTile = maxTile;
+        }
+
+        @Override
+        public String toString()
+        {
+            return seedAt(index) + " " + score + " " + moves + " " + maxTile;
+        }
+    }
+
+    /** Orders outcomes from worst to best */
+    private static final Comparator<Outcome> BY_SCORE = Comparator.<Outcome>comparingInt((o) -> o.score)
+            .thenComparingInt((o) -> o.moves)
+            .thenComparingLong((o) -> -o.index);
+
+    public static void main(String[] args)
+    {
+        SeedScanner s = new SeedScanner();
+
+        new OptionsParser().add("from", "The first seed to play (Default: 00000000)", (v) -> {
+            s.from = indexOf(v);
+        }).add("count", "The number of seeds to play (Default: 100000)", (v) -> {
+            s.count = Long.parseLong(v);
+        }).add("t", "threads", "The number of worker threads (Default: one per core)", (v) -> {
+            s.threads = Integer.parseInt(v);
+        }).add("top", "The number of best and worst seeds to keep (Default: 10)", (v) -> {
+            s.top = Integer.parseInt(v);
+        }).add("size", "The size of the board (Default: 4)", (v) -> {
+            s.size = Integer.parseInt(v);
+        }).add("policy", "'heuristic' or a file written by TDTrainer or SmallBoardSolver (Default: heuristic)", (v) -> {
+            s.policySpec = v;
+        }).add("checkpoint", "The checkpoint file (Default: seedscan.checkpoint)", (v) -> {
+            s.checkpoint = v;
+        }).addSwitch("resume", "Continue the scan stored in the checkpoint file", () -> s.resume = true)
+          .add("report", "Seconds between progress reports and checkpoints (Default: 10)", (v) -> {
+            s.reportSeconds = Integer.parseInt(v);
+        }).parse(args);
+
+        try
+        {
+            s.scan();
+        } catch(IOException | InterruptedException | IllegalArgumentException e) {
+            System.err.println("Scan failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Plays every seed in the range, writing checkpoints and reports along the way
+     */
+    public void scan() throws IOException, InterruptedException
+    {
+        if (resume)
+        {
+            readCheckpoint();
+        }
+        if (from < 0 || count < 0 || from + count > SEED_COUNT)
+        {
+            throw new IllegalArgumentException("The range of seeds is outside of the " + SEED_COUNT + " seeds");
+        }
+
+        policy = MovePolicies.create(policySpec, size);
+        if (!policy.supports(size))
+        {
+            throw new IllegalArgumentException("The policy can't play on a board of size " + size);
+        }
+        engine = PackedBoard.supports(size) ? BoardEngines.PACKED : BoardEngines.REFERENCE;
+
+        long end = from + count;
+        if (!resume)
+        {
+            watermark = from;
+        }
+        cursor = new AtomicLong(watermark);
+
+        System.out.printf("Scanning %d seeds from %s to %s with %d threads%n",
+                end - watermark, seedAt(watermark), seedAt(end - 1), threads);
+
+        List<Thread> running = new ArrayList<>();
+        for (int i = 0; i < threads; i++)
+        {
+            Worker w = new Worker(end);
+            workers.add(w);
+            Thread t = new Thread(w, "seed-scanner-" + i);
+            t.start();
+            running.add(t);
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : running)
+        {
+            while (t.isAlive())
+            {
+                t.join(reportSeconds * 1000L);
+                if (t.isAlive())
+                {
+                    report(start, end);
+                    writeCheckpoint();
+                }
+            }
+        }
+
+        for (Worker w : workers)
+        {
+            if (w.failure != null)
+            {
+                throw new IllegalStateException("A worker failed", w.failure);
+            }
+        }
+
+        writeCheckpoint();
+        report(start, end);
+
+        System.out.println("\nBest seeds (seed score moves max-tile):");
+        for (Outcome o : merge(true))
+        {
+            System.out.println("  " + o);
+        }
+        System.out.println("Worst seeds (seed score moves max-tile):");
+        for (Outcome o : merge(false))
+        {
+            System.out.println("  " + o);
+        }
+    }
+
+    /**
+     * @param index the number of a seed
+     * @return the seed with the specified number, which starts with "000"
+     */
+    public static String seedAt(long index)
+    {
+        char[] seed = "00000000".toCharArray();
+        for (int i = seed.length - 1; i >= seed.length - SIGNIFICANT_CHARS; i--)
+        {
+            seed[i] = ALPHABET.charAt((int) (index % ALPHABET.length()));
+            index /= ALPHABET.length();
+        }
+
+        return new String(seed);
+    }
+
+    /**
+     * @param seed a valid seed
+     * @return the number of the seed that plays the same game
+     * @throws IllegalArgumentException if the seed is not valid
+     */
+    public static long indexOf(String seed)
+    {
+        String s = seed.replaceAll("\\s", "").toUpperCase().replace('O', '0').replace('E', '3').replace('L', '1');
+        if (!Randomizer.validSeed(s))
+        {
+            throw new IllegalArgumentException("'" + seed + "' is not a valid seed!");
+        }
+
+        long index = 0;
+        for (char c : s.substring(s.length() - SIGNIFICANT_CHARS).toCharArray())
+        {
+            index = index * ALPHABET.length() + ALPHABET.indexOf(c);
+        }
+
+        return index;
+    }
+
+    /**
+     * Plays a seed until no move is valid
+     */
+    private Outcome play(long index) throws Randomizer.InvalidSeedException
+    {
+        BoardEngine board = BoardEngines.create(engine, size, seedAt(index));
+
+        int score = 0;
+        int moves = 0;
+        Direction d;
+        while ((d = policy.nextMove(board)) != null)
+        {
+            MoveResult result = board.squash(d);
+            if (result.isInvalid())
+            {
+                break;
+            }
+
+            score += result.mergeValue;
+            moves++;
+            board.placeRandom();
+        }
+
+        int maxTile = 0;
+        for (int row = 0; row < size; row++)
+        {
+            for (int column = 0; column < size; column++)
+            {
+                maxTile = Math.max(maxTile, board.getElement(row, column));
+            }
+        }
+
+        return new Outcome(index, score, moves, maxTile);
+    }
+
+    /**
+     * Marks a chunk as finished and advances the watermark past all finished chunks
+     */
+    private synchronized void finished(long chunk, long end)
+    {
+        finishedChunks.add(chunk);
+        while (!finishedChunks.isEmpty() && finishedChunks.first() == watermark)
+        {
+            finishedChunks.pollFirst();
+            watermark = Math.min(watermark + CHUNK, end);
+        }
+    }
+
+    /**
+     * Merges the heaps of all workers and the outcomes of the checkpoint
+     *
+     * @param best true for the best outcomes, false for the worst
+     * @return the outcomes without duplicates, best or worst first
+     */
+    private List<Outcome> merge(boolean best)
+    {
+        List<Outcome> all = new ArrayList<>(resumed);
+        for (Worker w : workers)
+        {
+            synchronized(w)
+            {
+                all.addAll(best ? w.best : w.worst);
+            }
+        }
+
+        all.sort(best ? BY_SCORE.reversed() : BY_SCORE);
+
+        List<Outcome> merged = new ArrayList<>(top);
+        TreeSet<Long> seen = new TreeSet<>();
+        for (Outcome o : all)
+        {
+            if (merged.size() == top) break;
+            if (seen.add(o.index))
+            {
+                merged.add(o);
+            }
+        }
+
+        return merged;
+    }
+
+    private void report(long start, long end)
+    {
+        long games = gamesPlayed.sum();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long done;
+        synchronized(this)
+        {
+            done = watermark;
+        }
+
+        List<Outcome> best = merge(true);
+        List<Outcome> worst = merge(false);
+        System.out.printf("%d games (%.0f/s), complete up to %s (%.1f%%), best %s, worst %s%n",
+                games, games / elapsed, seedAt(Math.min(done, SEED_COUNT - 1)),
+                100.0 * (done - from) / Math.max(1, end - from),
+                best.isEmpty() ? "-" : best.get(0), worst.isEmpty() ? "-" : worst.get(0));
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file first, so a crash never leaves a broken checkpoint behind
+     */
+    private void writeCheckpoint() throws IOException
+    {
+        Path target = Paths.get(checkpoint);
+        Path temp = Paths.get(checkpoint + ".tmp");
+
+        long done;
+        synchronized(this)
+        {
+            done = watermark;
+        }
+
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8)))
+        {
+            out.println("# SeedScanner checkpoint");
+            out.println("from=" + seedAt(from));
+            out.println("count=" + count);
+            out.println("done=" + done);
+            out.println("size=" + size);
+            out.println("policy=" + policySpec);
+            out.println("top=" + top);
+            for (Outcome o : merge(true))
+            {
+                out.println("best=" + o);
+            }
+            for (Outcome o : merge(false))
+            {
+                out.println("worst=" + o);
+            }
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readCheckpoint() throws IOException
+    {
+        try(BufferedReader in = Files.newBufferedReader(Paths.get(checkpoint), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                int split = line.indexOf('=');
+                if (line.startsWith("#") || split < 0) continue;
+
+                String key = line.substring(0, split);
+                String value = line.substring(split + 1);
+                switch(key)
+                {
+                    case "from":   from = indexOf(value); break;
+                    case "count":  count = Long.parseLong(value); break;
+                    case "done":   watermark = Long.parseLong(value); break;
+                    case "size":   size = Integer.parseInt(value); break;
+                    case "policy": policySpec = value; break;
+                    case "top":    top = Integer.parseInt(value); break;
+                    case "best":
+                    case "worst":
+                        String[] fields = value.split(" ");
+                        resumed.add(new Outcome(indexOf(fields[0]), Integer.parseInt(fields[1]),
+                                Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    private static long pow(long base, int exponent)
+    {
+        long result = 1;
+        for (int i = 0; i < exponent; i++)
+        {
+            result *= base;
+        }
+
+        return result;
+    }
+
+    /**
+     * Claims chunks of seeds until the range is exhausted
+     */
+    private class Worker implements Runnable
+    {
+        private final long end;
+
+        /** The best outcomes so far, worst of them first */
+        private final PriorityQueue<Outcome> best = new PriorityQueue<>(BY_SCORE);
+        /** The worst outcomes so far, best of them first */
+        private final PriorityQueue<Outcome> worst = new PriorityQueue<>(BY_SCORE.reversed());
+
+        private Exception failure = null;
+
+        private Worker(long end)
+        {
+            this.end = end;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                long chunk;
+                while ((chunk = cursor.getAndAdd(CHUNK)) < end)
+                {
+                    long last = Math.min(chunk + CHUNK, end);
+                    for (long index = chunk; index < last; index++)
+                    {
+                        record(play(index));
+                    }
+
+                    gamesPlayed.add(last - chunk);
+                    finished(chunk, end);
+                }
+            } catch(Randomizer.InvalidSeedException | RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        private synchronized void record(Outcome o)
+        {
+            best.add(o);
+            if (best.size() > top) best.poll();
+
+            worst.add(o);
+            if (worst.size() > top) worst.poll();
+        }
+    }
+
+}
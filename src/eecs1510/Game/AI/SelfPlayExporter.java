@@ -0,0 +1,184 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Data.DatasetReader;
+import eecs1510.Game.Data.DatasetWriter;
+import eecs1510.Game.Direction;
+import eecs1510.Game.Game;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+import eecs1510.Game.Randomizer;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays games with a policy on all cores and writes every move into a
+ * columnar dataset for offline training. See <code>DatasetWriter</code> for
+ * the file format.
+ *
+ * <code>--inspect</code> maps an existing dataset instead and prints a short
+ * summary of it.
+ */
+public class SelfPlayExporter
+{
+
+    private long games = 10_000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int size = 4;
+    private String policySpec = MovePolicies.HEURISTIC;
+    private String engine = BoardEngines.REFERENCE;
+    private long seed = 2048;
+    private String output = "selfplay.dataset";
+    private int blockRecords = DatasetWriter.DEFAULT_BLOCK_RECORDS;
+    private String inspect = null;
+
+    private MovePolicy policy;
+    private final AtomicLong nextGame = new AtomicLong();
+
+    public static void main(String[] args)
+    {
+        SelfPlayExporter e = new SelfPlayExporter();
+
+        new OptionsParser().add("games", "The number of games to play (Default: 10000)", (s) -> {
+            e.games = Long.parseLong(s);
+        }).add("t", "threads", "The number of threads (Default: one per core)", (s) -> {
+            e.threads = Integer.parseInt(s);
+        }).add("size", "The size of the board, 2 to 4 (Default: 4)", (s) -> {
+            e.size = Integer.parseInt(s);
+        }).add("policy", "'heuristic' or a file written by TDTrainer or SmallBoardSolver (Default: heuristic)", (s) -> {
+            e.policySpec = s;
+        }).add("engine", "The board engine to play with: " + String.join(", ", BoardEngines.NAMES) + " (Default: " + BoardEngines.REFERENCE + ")", (s) -> {
+            e.engine = s;
+        }).add("seed", "Seeds the choice of game seeds, for repeatable runs (Default: 2048)", (s) -> {
+            e.seed = Long.parseLong(s);
+        }).add("o", "output", "The dataset to write (Default: selfplay.dataset)", (s) -> {
+            e.output = s;
+        }).add("block", "The number of records per block (Default: " + DatasetWriter.DEFAULT_BLOCK_RECORDS + ")", (s) -> {
+            e.blockRecords = Integer.parseInt(s);
+        }).add("inspect", "Print a summary of an existing dataset instead of playing", (s) -> {
+            e.inspect = s;
+        }).parse(args);
+
+        try
+        {
+            if (e.inspect != null)
+            {
+                inspect(e.inspect);
+            } else {
+                e.run();
+            }
+        } catch(IOException | InterruptedException | IllegalArgumentException ex) {
+            System.err.println("Export failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Plays all games and writes them to the output file
+     */
+    public void run() throws IOException, InterruptedException
+    {
+        policy = MovePolicies.create(policySpec, size);
+        if (!policy.supports(size))
+        {
+            throw new IllegalArgumentException("The policy can't play on a board of size " + size);
+        }
+
+        long start = System.nanoTime();
+        try(DatasetWriter writer = new DatasetWriter(output, size, blockRecords))
+        {
+            Thread[] running = new Thread[threads];
+            Exception[] failures = new Exception[threads];
+            for (int i = 0; i < threads; i++)
+            {
+                int id = i;
+                running[i] = new Thread(() -> {
+                    try
+                    {
+                        play(writer);
+                    } catch(IOException | Randomizer.InvalidSeedException | RuntimeException ex) {
+                        failures[id] = ex;
+                    }
+                }, "exporter-" + i);
+                running[i].start();
+            }
+
+            for (int i = 0; i < threads; i++)
+            {
+                running[i].join();
+                if (failures[i] != null)
+                {
+                    throw new IOException("An export thread failed: " + failures[i], failures[i]);
+                }
+            }
+
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Wrote %d moves of %d games to %s in %.1f s (%.0f moves/s)%n",
+                    writer.getRecords(), writer.getGames(), output, elapsed, writer.getRecords() / elapsed);
+        }
+    }
+
+    /**
+     * Plays games until all have been claimed
+     */
+    private void play(DatasetWriter writer) throws IOException, Randomizer.InvalidSeedException
+    {
+        PackedBoard packed = PackedBoard.forSize(size);
+        DatasetWriter.GameBuffer buffer = new DatasetWriter.GameBuffer();
+
+        long game;
+        while ((game = nextGame.getAndIncrement()) < games)
+        {
+            SplittableRandom seeds = new SplittableRandom(seed + game * 0x9E3779B97F4A7C15L);
+            Game g = new Game(size, SeedScanner.seedAt(seeds.nextLong(SeedScanner.SEED_COUNT)), engine);
+
+            buffer.clear();
+            while (!g.isLost())
+            {
+                long before = packed.pack(g.getBoard());
+                Direction d = policy.nextMove(g.getBoard());
+                if (d == null) break;
+
+                MoveResult result = g.move(d);
+                if (result.isInvalid()) break;
+
+                buffer.add(before, d, result.mergeValue);
+            }
+
+            writer.write(buffer, g.getScore());
+        }
+    }
+
+    /**
+     * Prints the number of records, the mean reward and outcome and how often each move was played
+     */
+    private static void inspect(String path) throws IOException
+    {
+        long start = System.nanoTime();
+        DatasetReader reader = DatasetReader.open(path);
+        DatasetReader.Cursor cursor = reader.cursor();
+
+        long[] moves = new long[Direction.values().length];
+        double reward = 0.0;
+        double outcome = 0.0;
+        while (cursor.next())
+        {
+            moves[cursor.getMove().ordinal()]++;
+            reward += cursor.getReward();
+            outcome += cursor.getOutcome();
+        }
+
+        long records = Math.max(1, reader.getRecords());
+        System.out.printf("%s: %d records of %dx%d boards in %d blocks, read in %.2f s%n", path, reader.getRecords(),
+                reader.getSize(), reader.getSize(), reader.getBlocks(), (System.nanoTime() - start) / 1e9);
+        System.out.printf("Mean reward %.2f, mean final score %.1f%n", reward / records, outcome / records);
+        for (Direction d : Direction.values())
+        {
+            System.out.printf("%-5s %5.1f%%%n", d, 100.0 * moves[d.ordinal()] / records);
+        }
+    }
+
+}
@@ -0,0 +1,461 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.Direction;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Solves 2x2 and 3x3 games exactly and writes the best move for every
+ * reachable position to a <code>SolvedTable</code>.
+ *
+ * The sum of all tiles on the board never changes when squashing and grows
+ * by 2 or 4 with every spawned tile, so positions fall into layers by their
+ * tile sum and every move leads from one layer to a later one. The solver
+ * uses that in two passes:
+ * <ol>
+ *     <li>Forward: starting from the opening positions, each layer is sorted,
+ *         de-duplicated and written to disk, and all positions reachable by
+ *         one move and one spawn are streamed into the files of the next two
+ *         layers.</li>
+ *     <li>Backward: from the last layer down, the expected score of every
+ *         position is the best over all moves of the score of the move plus
+ *         the average value of all possible spawns, looked up in the two
+ *         following layers. Positions without a valid move are worth 0.</li>
+ * </ol>
+ * Only three layers are ever held in memory at once, and each layer is split
+ * across all threads.
+ */
+public class SmallBoardSolver
+{
+
+    /** Successors are sorted and flushed to disk once a thread has buffered this many */
+    private static final int FLUSH_THRESHOLD = 1 << 20;
+    /** Each layer is split into this many chunks per thread */
+    private static final int CHUNKS_PER_THREAD = 8;
+
+    private int size = 3;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String workDir = "solver-work";
+    private String output = null;
+
+    private PackedBoard packed;
+    private ExecutorService pool;
+    /** The tile sums of all layers found by the forward pass, in ascending order */
+    private final List<Integer> layers = new ArrayList<>();
+    /** The largest tile sum that successors have been written for */
+    private int lastPending = 8;
+
+    public static void main(String[] args)
+    {
+        SmallBoardSolver s = new SmallBoardSolver();
+
+        new OptionsParser().add("size", "The size of the board to solve, 2 or 3 (Default: 3)", (v) -> {
+            s.size = Integer.parseInt(v);
+        }).add("t", "threads", "The number of worker threads (Default: one per core)", (v) -> {
+            s.threads = Integer.parseInt(v);
+        }).add("work", "The directory for intermediate layer files (Default: solver-work)", (v) -> {
+            s.workDir = v;
+        }).add("o", "output", "The table to write (Default: solved-SIZE.table)", (v) -> {
+            s.output = v;
+        }).parse(args);
+
+        if (s.size < 2 || s.size > 3)
+        {
+            System.err.println("Only 2x2 and 3x3 boards can be solved");
+            return;
+        }
+
+        try
+        {
+            s.solve();
+        } catch(Exception e) {
+            System.err.println("Solving failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs both passes and writes the table
+     */
+    public void solve() throws Exception
+    {
+        packed = PackedBoard.forSize(size);
+        pool = Executors.newFixedThreadPool(threads);
+        Files.createDirectories(Paths.get(workDir));
+        if (output == null)
+        {
+            output = "solved-" + size + ".table";
+        }
+
+        try
+        {
+            long start = System.nanoTime();
+            long positions = forward();
+            System.out.printf("Found %d positions in %d layers in %.1f s%n", positions, layers.size(), (System.nanoTime() - start) / 1e9);
+
+            start = System.nanoTime();
+            double expected = backward();
+            System.out.printf("Solved all layers in %.1f s. Expected score with perfect play: %.2f%n", (System.nanoTime() - start) / 1e9, expected);
+
+            SolvedTable.write(output, size, expected, layers, this::layerFile);
+            System.out.println("Wrote " + output);
+
+            for (int sum : layers)
+            {
+                Files.deleteIfExists(layerFile(sum, "states"));
+                Files.deleteIfExists(layerFile(sum, "moves"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Enumerates all reachable positions layer by layer
+     *
+     * @return the number of positions found
+     */
+    private long forward() throws Exception
+    {
+        for (int sum = 4; sum <= 8; sum += 2)
+        {
+            long[] openings = openings(sum);
+            appendLongs(layerFile(sum, "raw"), openings, openings.length);
+        }
+
+        long total = 0;
+        for (int sum = 4; sum <= lastPending; sum += 2)
+        {
+            Path raw = layerFile(sum, "raw");
+            if (!Files.exists(raw)) continue;
+
+            long[] states = sortedUnique(readLongs(raw), -1);
+            Files.delete(raw);
+            if (states.length == 0) continue;
+
+            writeLongs(layerFile(sum, "states"), states);
+            layers.add(sum);
+            total += states.length;
+
+            expand(states, sum);
+        }
+
+        return total;
+    }
+
+    /**
+     * @param sum the tile sum of the positions to return
+     * @return every position with the specified tile sum that results from
+     *         placing two tiles on an empty board
+     */
+    private long[] openings(int sum)
+    {
+        int cells = size * size;
+        List<Long> result = new ArrayList<>();
+
+        for (int first = 0; first < cells; first++)
+        {
+            for (int second = 0; second < cells; second++)
+            {
+                if (first == second) continue;
+                for (int a = 1; a <= 2; a++)
+                {
+                    for (int b = 1; b <= 2; b++)
+                    {
+                        long board = packed.set(packed.set(0L, first, a), second, b);
+                        if (tileSum(board) == sum)
+                        {
+                            result.add(board);
+                        }
+                    }
+                }
+            }
+        }
+
+        return result.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Streams all successors of a layer into the raw files of the next two layers
+     */
+    private void expand(long[] states, int sum) throws Exception
+    {
+        Path twos = layerFile(sum + 2, "raw");
+        Path fours = layerFile(sum + 4, "raw");
+        lastPending = sum + 4;
+
+        forEachChunk(states.length, (from, to) -> {
+            long[] nextTwos = new long[FLUSH_THRESHOLD + 64];
+            long[] nextFours = new long[FLUSH_THRESHOLD + 64];
+            int[] empty = new int[size * size];
+            int count = 0;
+
+            for (int i = from; i < to; i++)
+            {
+                for (Direction d : Direction.values())
+                {
+                    long after = packed.move(states[i], d);
+                    if (after == states[i]) continue;
+
+                    int free = packed.emptyCells(after, empty);
+                    for (int c = 0; c < free; c++)
+                    {
+                        nextTwos[count] = packed.set(after, empty[c], 1);
+                        nextFours[count++] = packed.set(after, empty[c], 2);
+                    }
+                }
+
+                if (count >= FLUSH_THRESHOLD || i == to - 1)
+                {
+                    flush(twos, nextTwos, count);
+                    flush(fours, nextFours, count);
+                    count = 0;
+                }
+            }
+        });
+    }
+
+    private void flush(Path file, long[] buffer, int count) throws IOException
+    {
+        long[] unique = sortedUnique(buffer, count);
+        synchronized(this)
+        {
+            appendLongs(file, unique, unique.length);
+        }
+    }
+
+    /**
+     * Computes the value and best move of every position, from the last layer down
+     *
+     * @return the expected score of a new game with perfect play
+     */
+    private double backward() throws Exception
+    {
+        // Only the two layers following the current one are needed, plus the
+        // layers that opening positions fall into
+        Map<Integer, long[]> keys = new HashMap<>();
+        Map<Integer, float[]> values = new HashMap<>();
+
+        for (int l = layers.size() - 1; l >= 0; l--)
+        {
+            int sum = layers.get(l);
+            long[] states = readLongs(layerFile(sum, "states"));
+            float[] value = new float[states.length];
+            byte[] moves = new byte[states.length];
+
+            long[] twos = keys.getOrDefault(sum + 2, new long[0]);
+            float[] twoValues = values.getOrDefault(sum + 2, new float[0]);
+            long[] fours = keys.getOrDefault(sum + 4, new long[0]);
+            float[] fourValues = values.getOrDefault(sum + 4, new float[0]);
+
+            forEachChunk(states.length, (from, to) -> {
+                int[] empty = new int[size * size];
+                for (int i = from; i < to; i++)
+                {
+                    double best = 0.0;
+                    int bestMove = -1;
+                    for (Direction d : Direction.values())
+                    {
+                        long after = packed.move(states[i], d);
+                        if (after == states[i]) continue;
+
+                        int free = packed.emptyCells(after, empty);
+                        double spawned = 0.0;
+                        for (int c = 0; c < free; c++)
+                        {
+                            spawned += Board.TWO_PROBABILITY * lookup(twos, twoValues, packed.set(after, empty[c], 1))
+                                     + Board.FOUR_PROBABILITY * lookup(fours, fourValues, packed.set(after, empty[c], 2));
+                        }
+
+                        double v = packed.score(states[i], d) + spawned / free;
+                        if (bestMove < 0 || v > best)
+                        {
+                            best = v;
+                            bestMove = d.ordinal();
+                        }
+                    }
+
+                    // Lost positions keep a value of 0, and any move fits in the 2 bits of the table
+                    // since the table checks that the move is valid anyway
+                    value[i] = (float) best;
+                    moves[i] = (byte) Math.max(bestMove, 0);
+                }
+            });
+
+            writeBytes(layerFile(sum, "moves"), moves);
+
+            keys.put(sum, states);
+            values.put(sum, value);
+            if (sum + 4 > 8)
+            {
+                keys.remove(sum + 4);
+                values.remove(sum + 4);
+            }
+        }
+
+        return openingValue(keys, values);
+    }
+
+    /**
+     * @return the expected value of a new game, averaged over the opening
+     *         positions with the odds that <code>Board</code> places them
+     */
+    private double openingValue(Map<Integer, long[]> keys, Map<Integer, float[]> values)
+    {
+        int cells = size * size;
+        double expected = 0.0;
+
+        for (int sum = 4; sum <= 8; sum += 2)
+        {
+            for (long board : openings(sum))
+            {
+                // Either tile may have been placed first, so each opening appears twice
+                int fours = (sum - 4) / 2;
+                double p = Math.pow(Board.FOUR_PROBABILITY, fours) * Math.pow(Board.TWO_PROBABILITY, 2 - fours) / (cells * (cells - 1));
+                expected += p * lookup(keys.get(sum), values.get(sum), board);
+            }
+        }
+
+        return expected;
+    }
+
+    private static float lookup(long[] keys, float[] values, long board)
+    {
+        int index = Arrays.binarySearch(keys, board);
+        return index >= 0 ? values[index] : 0f;
+    }
+
+    /**
+     * @param board a packed board
+     * @return the sum of all tiles on the board
+     */
+    public int tileSum(long board)
+    {
+        int sum = 0;
+        for (int cell = 0; cell < size * size; cell++)
+        {
+            sum += PackedBoard.valueOf(packed.get(board, cell));
+        }
+
+        return sum;
+    }
+
+    private Path layerFile(int sum, String kind)
+    {
+        return Paths.get(workDir, "layer-" + size + "-" + sum + "." + kind);
+    }
+
+    private interface ChunkTask
+    {
+        void run(int from, int to) throws IOException;
+    }
+
+    /**
+     * Splits the range [0, count) into chunks and runs them on the thread pool
+     */
+    private void forEachChunk(int count, ChunkTask task) throws Exception
+    {
+        int chunks = Math.max(1, Math.min(count, threads * CHUNKS_PER_THREAD));
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < chunks; c++)
+        {
+            int from = (int) ((long) count * c / chunks);
+            int to = (int) ((long) count * (c + 1) / chunks);
+            futures.add(pool.submit(() -> {
+                task.run(from, to);
+                return null;
+            }));
+        }
+
+        for (Future<?> f : futures)
+        {
+            f.get();
+        }
+    }
+
+    /**
+     * @param values the values to sort (sorted in place)
+     * @param count  how many values to consider, or -1 for all
+     * @return the distinct values in ascending order
+     */
+    private static long[] sortedUnique(long[] values, int count)
+    {
+        int n = count < 0 ? values.length : count;
+        Arrays.parallelSort(values, 0, n);
+
+        int unique = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (unique == 0 || values[i] != values[unique - 1])
+            {
+                values[unique++] = values[i];
+            }
+        }
+
+        return Arrays.copyOf(values, unique);
+    }
+
+    /* ======= Layer files: raw little-endian longs and bytes ======= */
+
+    static long[] readLongs(Path file) throws IOException
+    {
+        try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            long[] result = new long[(int) (in.size() / 8)];
+            in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(result);
+            return result;
+        }
+    }
+
+    private static void writeLongs(Path file, long[] values) throws IOException
+    {
+        Files.deleteIfExists(file);
+        appendLongs(file, values, values.length);
+    }
+
+    private static void appendLongs(Path file, long[] values, int count) throws IOException
+    {
+        try(FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+        {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < count; )
+            {
+                buffer.clear();
+                while (i < count && buffer.remaining() >= 8)
+                {
+                    buffer.putLong(values[i++]);
+                }
+
+                buffer.flip();
+                while (buffer.hasRemaining())
+                {
+                    out.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static void writeBytes(Path file, byte[] values) throws IOException
+    {
+        Files.write(file, values);
+    }
+
+}
@@ -0,0 +1,246 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.PackedBoard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Plays perfectly on a small board by looking up the best move for the
+ * current position in a table written by <code>SmallBoardSolver</code>.
+ *
+ * The table is memory-mapped, so a lookup is a binary search within the
+ * positions that have the same tile sum as the current board. All values are
+ * little-endian:
+ * <pre>
+ *   int    magic ("SLV1")
+ *   int    version
+ *   int    board size
+ *   int    number of layers
+ *   double expected score of a new game with perfect play
+ *   per layer: int tile sum, int number of positions, long offset of the
+ *              positions, long offset of the moves
+ * </pre>
+ * Each layer stores its packed positions as sorted longs, followed by the
+ * ordinal of the best <code>Direction</code> for each position, packed four
+ * to a byte.
+ */
+public class SolvedTable implements MovePolicy
+{
+
+    static final int MAGIC = 0x31564C53; // "SLV1" read as a little-endian int
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int LAYER_ENTRY_SIZE = 24;
+
+    private final int size;
+    private final double expectedScore;
+    private final PackedBoard packed;
+
+    /** The positions of each layer, indexed by half of the tile sum */
+    private final LongBuffer[] positions;
+    /** The packed best moves of each layer, indexed by half of the tile sum */
+    private final ByteBuffer[] moves;
+
+    private SolvedTable(int size, double expectedScore, LongBuffer[] positions, ByteBuffer[] moves)
+    {
+        this.size = size;
+        this.expectedScore = expectedScore;
+        this.packed = PackedBoard.forSize(size);
+        this.positions = positions;
+        this.moves = moves;
+    }
+
+    /**
+     * Maps a table written by <code>SmallBoardSolver</code>
+     *
+     * @param path the table to map
+     * @return a policy that plays the moves stored in the table
+     * @throws IOException if the file could not be mapped or is not a table
+     */
+    public static SolvedTable load(String path) throws IOException
+    {
+        try(FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            ByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(in.size(), HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION)
+            {
+                throw new IOException(path + " is not a solved table");
+            }
+
+            int size = header.getInt();
+            int layerCount = header.getInt();
+            double expected = header.getDouble();
+
+            ByteBuffer index = in.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) layerCount * LAYER_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            int maxSum = 0;
+            for (int l = 0; l < layerCount; l++)
+            {
+                maxSum = Math.max(maxSum, index.getInt(l * LAYER_ENTRY_SIZE));
+            }
+
+            LongBuffer[] positions = new LongBuffer[maxSum / 2 + 1];
+            ByteBuffer[] moves = new ByteBuffer[maxSum / 2 + 1];
+            for (int l = 0; l < layerCount; l++)
+            {
+                int sum = index.getInt();
+                int count = index.getInt();
+                long positionsOffset = index.getLong();
+                long movesOffset = index.getLong();
+
+                positions[sum / 2] = in.map(FileChannel.MapMode.READ_ONLY, positionsOffset, 8L * count)
+                        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                moves[sum / 2] = in.map(FileChannel.MapMode.READ_ONLY, movesOffset, (count + 3) / 4);
+            }
+
+            return new SolvedTable(size, expected, positions, moves);
+        }
+    }
+
+    /**
+     * Writes a table from the layer files of a finished solver run
+     *
+     * @param path          the table to write
+     * @param size          the size of the solved board
+     * @param expectedScore the expected score of a new game with perfect play
+     * @param sums          the tile sums of all layers
+     * @param layerFile     resolves the file of the specified kind ("states" or "moves") for a tile sum
+     * @throws IOException if a file could not be read or written
+     */
+    static void write(String path, int size, double expectedScore, List<Integer> sums,
+                      BiFunction<Integer, String, Path> layerFile) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + sums.size() * LAYER_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(sums.size()).putDouble(expectedScore);
+
+        long offset = header.capacity();
+        for (int sum : sums)
+        {
+            int count = (int) (Files.size(layerFile.apply(sum, "states")) / 8);
+            header.putInt(sum).putInt(count).putLong(offset).putLong(offset + 8L * count);
+            offset += 8L * count + (count + 3) / 4;
+        }
+        header.flip();
+
+        try(FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            writeFully(out, header);
+
+            for (int sum : sums)
+            {
+                try(FileChannel states = FileChannel.open(layerFile.apply(sum, "states"), StandardOpenOption.READ))
+                {
+                    long position = 0;
+                    while (position < states.size())
+                    {
+                        position += states.transferTo(position, states.size() - position, out);
+                    }
+                }
+
+                byte[] best = Files.readAllBytes(layerFile.apply(sum, "moves"));
+                ByteBuffer packedMoves = ByteBuffer.allocate((best.length + 3) / 4);
+                for (int i = 0; i < best.length; i++)
+                {
+                    int b = i / 4;
+                    packedMoves.put(b, (byte) (packedMoves.get(b) | best[i] << (2 * (i % 4))));
+                }
+                writeFully(out, packedMoves);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * @param path a file
+     * @return true if the file starts like a solved table
+     */
+    public static boolean isTable(String path)
+    {
+        try(FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            return in.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the expected score of a new game with perfect play
+     */
+    public double getExpectedScore()
+    {
+        return expectedScore;
+    }
+
+    @Override
+    public Direction nextMove(BoardEngine board)
+    {
+        return bestMove(packed.pack(board));
+    }
+
+    /**
+     * @param board a packed board of the solved size
+     * @return the best move for the board, or null if the board is not in the
+     *         table or no move is valid
+     */
+    public Direction bestMove(long board)
+    {
+        int sum = 0;
+        for (int cell = 0; cell < size * size; cell++)
+        {
+            sum += PackedBoard.valueOf(packed.get(board, cell));
+        }
+
+        LongBuffer layer = sum / 2 < positions.length ? positions[sum / 2] : null;
+        if (layer == null)
+        {
+            return null;
+        }
+
+        int low = 0, high = layer.limit() - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long key = layer.get(mid);
+            if (key < board)
+            {
+                low = mid + 1;
+            } else if (key > board) {
+                high = mid - 1;
+            } else {
+                Direction d = Direction.values()[(moves[sum / 2].get(mid / 4) >>> (2 * (mid % 4))) & 3];
+                return packed.move(board, d) != board ? d : null;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean supports(int size)
+    {
+        return size == this.size;
+    }
+
+}
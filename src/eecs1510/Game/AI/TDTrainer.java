@@ -0,0 +1,214 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.Direction;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Trains an <code>NTupleNetwork</code> by self-play with temporal-difference
+ * learning over afterstates.
+ *
+ * Every training thread plays complete games against the random tile
+ * spawner, always taking the move that the network currently rates best. After
+ * each move the value of the previous afterstate is nudged towards the reward
+ * of the move plus the value of the new afterstate; at the end of the game it
+ * is nudged towards zero. All threads update the same weights without locking.
+ *
+ * Training games use their own random numbers rather than a
+ * <code>Randomizer</code>, since they don't need to be reproducible from a seed.
+ */
+public class TDTrainer
+{
+
+    private final PackedBoard packed = PackedBoard.forSize(NTupleNetwork.SIZE);
+
+    private int[][] tuples = NTupleNetwork.SIX_TUPLES;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long games = 100_000;
+    private float alpha = 0.1f;
+    private int reportSeconds = 10;
+    private String input = null;
+    private String output = "ntuple.weights";
+
+    private NTupleNetwork network;
+
+    private final LongAdder gamesPlayed = new LongAdder();
+    private final LongAdder scoreSum = new LongAdder();
+    private final LongAdder gamesWon = new LongAdder();
+
+    public static void main(String[] args)
+    {
+        TDTrainer t = new TDTrainer();
+
+        new OptionsParser().add("tuples", "Either 4 or 6: the size of the tuples in a new network (Default: 6)", (s) -> {
+            t.tuples = Integer.parseInt(s) == 4 ? NTupleNetwork.FOUR_TUPLES : NTupleNetwork.SIX_TUPLES;
+        }).add("t", "threads", "The number of self-play threads (Default: one per core)", (s) -> {
+            t.threads = Integer.parseInt(s);
+        }).add("games", "The number of games to train on (Default: 100000)", (s) -> {
+            t.games = Long.parseLong(s);
+        }).add("alpha", "The learning rate (Default: 0.1)", (s) -> {
+            t.alpha = Float.parseFloat(s);
+        }).add("report", "Seconds between progress reports (Default: 10)", (s) -> {
+            t.reportSeconds = Integer.parseInt(s);
+        }).add("load", "Continue training the network stored in the specified file", (s) -> {
+            t.input = s;
+        }).add("o", "output", "The file to write the trained network to (Default: ntuple.weights)", (s) -> {
+            t.output = s;
+        }).parse(args);
+
+        try
+        {
+            t.train();
+        } catch(IOException | InterruptedException e) {
+            System.err.println("Training failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Trains the network on the requested number of games and writes it to the output file
+     */
+    public void train() throws IOException, InterruptedException
+    {
+        network = input != null ? NTupleWeightFile.load(input) : new NTupleNetwork(tuples);
+
+        AtomicLong remaining = new AtomicLong(games);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < workers.length; i++)
+        {
+            SplittableRandom rng = new SplittableRandom(System.nanoTime() + i);
+            workers[i] = new Thread(() -> {
+                while (remaining.getAndDecrement() > 0)
+                {
+                    playGame(rng);
+                }
+            }, "td-trainer-" + i);
+            workers[i].setDaemon(true);
+        }
+
+        System.out.println("Training " + network.weightCount() + " weights on " + games + " games with " + threads + " threads");
+
+        long start = System.nanoTime();
+        for (Thread w : workers)
+        {
+            w.start();
+        }
+
+        long lastGames = 0, lastScore = 0, lastWon = 0, lastTime = start;
+        for (Thread w : workers)
+        {
+            while (w.isAlive())
+            {
+                w.join(reportSeconds * 1000L);
+
+                long now = System.nanoTime();
+                if (now - lastTime < reportSeconds * 1_000_000_000L) continue;
+
+                long played = gamesPlayed.sum(), score = scoreSum.sum(), won = gamesWon.sum();
+                long window = Math.max(played - lastGames, 1);
+                System.out.printf("%d games, %.1f games/s, average score %.0f, reached 2048 in %.1f%%%n",
+                        played, (played - lastGames) / ((now - lastTime) / 1e9),
+                        (score - lastScore) / (double) window, 100.0 * (won - lastWon) / window);
+
+                lastGames = played;
+                lastScore = score;
+                lastWon = won;
+                lastTime = now;
+            }
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Trained on %d games in %.1f s (%.1f games/s, average score %.0f)%n",
+                gamesPlayed.sum(), elapsed, gamesPlayed.sum() / elapsed, scoreSum.sum() / (double) Math.max(gamesPlayed.sum(), 1));
+
+        NTupleWeightFile.save(network, output);
+        System.out.println("Wrote weights to " + output);
+    }
+
+    /**
+     * Plays a single training game, updating the network after every move
+     *
+     * @param rng the random number generator of the calling thread
+     */
+    private void playGame(SplittableRandom rng)
+    {
+        float step = alpha / network.featureCount();
+        int[] empty = new int[NTupleNetwork.SIZE * NTupleNetwork.SIZE];
+
+        long board = spawn(spawn(0L, rng, empty), rng, empty);
+        long previous = 0L;
+        boolean hasPrevious = false;
+        int score = 0;
+
+        while (true)
+        {
+            long bestAfter = 0L;
+            int bestReward = 0;
+            float bestValue = Float.NEGATIVE_INFINITY;
+
+            for (Direction d : Direction.values())
+            {
+                long after = packed.move(board, d);
+                if (after == board) continue;
+
+                int reward = packed.score(board, d);
+                float value = reward + network.evaluate(after);
+                if (value > bestValue)
+                {
+                    bestAfter = after;
+                    bestReward = reward;
+                    bestValue = value;
+                }
+            }
+
+            if (bestValue == Float.NEGATIVE_INFINITY)
+            {
+                // The game is over, so the last afterstate had no future value
+                if (hasPrevious)
+                {
+                    network.update(previous, step * -network.evaluate(previous));
+                }
+                break;
+            }
+
+            if (hasPrevious)
+            {
+                network.update(previous, step * (bestValue - network.evaluate(previous)));
+            }
+
+            previous = bestAfter;
+            hasPrevious = true;
+            score += bestReward;
+            board = spawn(bestAfter, rng, empty);
+        }
+
+        gamesPlayed.increment();
+        scoreSum.add(score);
+        if (PackedBoard.valueOf(packed.maxExponent(board)) >= Board.WIN_CONDITION_VALUE)
+        {
+            gamesWon.increment();
+        }
+    }
+
+    /**
+     * Places a random tile using the same odds as <code>Board.placeRandom()</code>
+     */
+    private long spawn(long board, SplittableRandom rng, int[] empty)
+    {
+        int count = packed.emptyCells(board, empty);
+        if (count == 0)
+        {
+            return board;
+        }
+
+        int exponent = rng.nextDouble() >= Board.FOUR_THRESHOLD ? 2 : 1;
+        return packed.set(board, empty[rng.nextInt(count)], exponent);
+    }
+
+}
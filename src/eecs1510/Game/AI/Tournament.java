@@ -0,0 +1,498 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Randomizer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays several policies on the same set of seeds and compares them game by game.
+ *
+ * The seeds are drawn from a <code>Randomizer</code> with a fixed seed, so the
+ * same tournament can be repeated anywhere. Every (policy, seed) game is a
+ * separate job on a work-stealing pool. Jobs are submitted slowest policy
+ * first, estimated from one pilot game per policy, so the slow games don't
+ * all end up at the end of the run while the other workers sit idle. Every
+ * worker plays all its games on the same <code>Board</code>.
+ *
+ * Each finished game is appended to a results file right away. An interrupted
+ * tournament continues with <code>--resume</code>, which reads the policies,
+ * seeds and finished games back from that file and only plays what is missing.
+ *
+ * The final table lists the score distribution of every policy, and for
+ * every pair of policies the mean difference in score on the same seed, its
+ * 95% confidence interval and how often each policy won.
+ */
+public class Tournament
+{
+
+    private final List<String> policySpecs = new ArrayList<>();
+    private int seedCount = 1000;
+    private String masterSeed = "TOURNAM1";
+    private int size = 4;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String results = "tournament.results";
+    private String table = "tournament.txt";
+    private boolean resume = false;
+
+    private MovePolicy[] policies;
+    private String[] seeds;
+
+    /** Scores, lengths, largest tiles and durations, indexed by policy and seed */
+    private int[][] scores;
+    private int[][] moves;
+    private int[][] maxTiles;
+    private long[][] nanos;
+    /** Whether the game of a policy on a seed has been played */
+    private boolean[][] played;
+
+    private PrintWriter journal;
+    private final ThreadLocal<Board> boards = new ThreadLocal<>();
+    /** The first exception a game failed with, or null */
+    private volatile Exception failure = null;
+
+    public static void main(String[] args)
+    {
+        Tournament t = new Tournament();
+
+        new OptionsParser().add("policy", "A policy to enter: 'heuristic', 'heuristic:WEIGHTS' or a file. Repeat for every policy", (v) -> {
+            t.policySpecs.add(v);
+        }).add("seeds", "The number of seeds every policy plays (Default: 1000)", (v) -> {
+            t.seedCount = Integer.parseInt(v);
+        }).add("seed", "The seed of the generator that draws the game seeds (Default: TOURNAM1)", (v) -> {
+            t.masterSeed = v;
+        }).add("size", "The size of the board (Default: 4)", (v) -> {
+            t.size = Integer.parseInt(v);
+        }).add("t", "threads", "The number of worker threads (Default: one per core)", (v) -> {
+            t.threads = Integer.parseInt(v);
+        }).add("results", "The file every finished game is appended to (Default: tournament.results)", (v) -> {
+            t.results = v;
+        }).add("o", "output", "The file the results table is written to (Default: tournament.txt)", (v) -> {
+            t.table = v;
+        }).addSwitch("resume", "Continue the tournament stored in the results file", () -> t.resume = true)
+          .parse(args);
+
+        try
+        {
+            t.run();
+        } catch(IOException | InterruptedException | IllegalArgumentException | Randomizer.InvalidSeedException e) {
+            System.err.println("Tournament failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Plays all missing games and writes the results table
+     */
+    public void run() throws IOException, InterruptedException, Randomizer.InvalidSeedException
+    {
+        if (resume)
+        {
+            readResults();
+        }
+        if (policySpecs.size() < 2)
+        {
+            throw new IllegalArgumentException("A tournament needs at least two policies");
+        }
+
+        policies = new MovePolicy[policySpecs.size()];
+        for (int p = 0; p < policies.length; p++)
+        {
+            policies[p] = MovePolicies.create(policySpecs.get(p), size);
+            if (!policies[p].supports(size))
+            {
+                throw new IllegalArgumentException(policySpecs.get(p) + " can't play on a board of size " + size);
+            }
+        }
+
+        Randomizer generator = new Randomizer(masterSeed);
+        seeds = new String[seedCount];
+        for (int s = 0; s < seedCount; s++)
+        {
+            seeds[s] = generator.nextSeed();
+        }
+
+        if (!resume)
+        {
+            allocate();
+            writeHeader();
+        }
+        journal = new PrintWriter(Files.newBufferedWriter(Paths.get(results), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        if (resume)
+        {
+            // Finish a line that may have been cut short, so the next game starts on its own line
+            journal.println();
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try
+        {
+            // One pilot game per policy without results, to learn how slow each policy is
+            for (int p = 0; p < policies.length; p++)
+            {
+                int pilot = firstMissing(p);
+                if (pilot >= 0 && meanNanos(p) == 0)
+                {
+                    submit(pool, p, pilot);
+                }
+            }
+            await(pool);
+
+            Integer[] order = new Integer[policies.length];
+            for (int p = 0; p < order.length; p++)
+            {
+                order[p] = p;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(meanNanos(b), meanNanos(a)));
+
+            int remaining = 0;
+            for (int p : order)
+            {
+                for (int s = 0; s < seedCount; s++)
+                {
+                    if (!played[p][s])
+                    {
+                        submit(pool, p, s);
+                        remaining++;
+                    }
+                }
+            }
+
+            System.out.printf("Playing %d games of %d policies on %d seeds with %d threads%n",
+                    remaining, policies.length, seedCount, threads);
+            await(pool);
+        } finally {
+            pool.shutdownNow();
+            journal.close();
+        }
+
+        System.out.printf("Finished in %.1f s%n%n", (System.nanoTime() - start) / 1e9);
+
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(table), StandardCharsets.UTF_8)))
+        {
+            writeTable(out);
+        }
+        PrintWriter console = new PrintWriter(System.out);
+        writeTable(console);
+        console.flush();
+    }
+
+    private void submit(ForkJoinPool pool, int policy, int seed)
+    {
+        pool.execute(() -> {
+            if (failure != null)
+            {
+                // The tournament fails anyway, don't play the games that are still queued
+                return;
+            }
+
+            try
+            {
+                play(policy, seed);
+            } catch(Randomizer.InvalidSeedException | RuntimeException e) {
+                synchronized(this)
+                {
+                    if (failure == null) failure = e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for all submitted games, reporting progress every ten seconds
+     *
+     * @throws IllegalStateException if a game failed
+     */
+    private void await(ForkJoinPool pool) throws InterruptedException
+    {
+        while (!pool.awaitQuiescence(10, TimeUnit.SECONDS))
+        {
+            System.out.printf("%d of %d games played%n", countPlayed(), policies.length * seedCount);
+        }
+
+        if (failure != null)
+        {
+            throw new IllegalStateException("A game failed", failure);
+        }
+    }
+
+    /**
+     * Plays a seed with a policy on the board of the current worker and records the result
+     */
+    private void play(int policy, int seed) throws Randomizer.InvalidSeedException
+    {
+        long begin = System.nanoTime();
+
+        Board board = boards.get();
+        if (board == null)
+        {
+            board = new Board(size, seeds[seed]);
+            boards.set(board);
+        } else {
+            board.reset(seeds[seed]);
+        }
+
+        int score = 0;
+        int length = 0;
+        Direction d;
+        while ((d = policies[policy].nextMove(board)) != null)
+        {
+            MoveResult result = board.squash(d);
+            if (result.isInvalid())
+            {
+                break;
+            }
+
+            score += result.mergeValue;
+            length++;
+            board.placeRandom();
+        }
+
+        int maxTile = 0;
+        for (int[] row : board.getData())
+        {
+            for (int value : row)
+            {
+                maxTile = Math.max(maxTile, value);
+            }
+        }
+
+        record(policy, seed, score, length, maxTile, System.nanoTime() - begin);
+    }
+
+    private synchronized void record(int policy, int seed, int score, int length, int maxTile, long duration)
+    {
+        scores[policy][seed] = score;
+        moves[policy][seed] = length;
+        maxTiles[policy][seed] = maxTile;
+        nanos[policy][seed] = duration;
+        played[policy][seed] = true;
+
+        journal.println("game=" + policy + " " + seed + " " + seeds[seed] + " " + score + " " + length + " " + maxTile + " " + duration);
+        journal.flush();
+    }
+
+    private synchronized int countPlayed()
+    {
+        int count = 0;
+        for (boolean[] row : played)
+        {
+            for (boolean p : row)
+            {
+                if (p) count++;
+            }
+        }
+
+        return count;
+    }
+
+    private synchronized int firstMissing(int policy)
+    {
+        for (int s = 0; s < seedCount; s++)
+        {
+            if (!played[policy][s]) return s;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the mean duration of the games a policy has played, or 0 if it played none
+     */
+    private synchronized double meanNanos(int policy)
+    {
+        long total = 0;
+        int count = 0;
+        for (int s = 0; s < seedCount; s++)
+        {
+            if (played[policy][s])
+            {
+                total += nanos[policy][s];
+                count++;
+            }
+        }
+
+        return count == 0 ? 0.0 : total / (double) count;
+    }
+
+    private void allocate()
+    {
+        int p = policySpecs.size();
+        scores = new int[p][seedCount];
+        moves = new int[p][seedCount];
+        maxTiles = new int[p][seedCount];
+        nanos = new long[p][seedCount];
+        played = new boolean[p][seedCount];
+    }
+
+    /**
+     * Prints the score distribution of every policy and the paired comparison of every pair of policies
+     */
+    private void writeTable(PrintWriter out)
+    {
+        out.printf("Tournament on %d seeds drawn from %s, %dx%d board%n%n", seedCount, masterSeed, size, size);
+        out.printf("%-3s %6s %9s %9s %7s %7s %7s %8s  %s%n", "#", "games", "mean", "stderr", "median", "moves", "2048+", "ms/game", "policy");
+        for (int p = 0; p < policies.length; p++)
+        {
+            int[] s = new int[seedCount];
+            int n = 0;
+            long totalMoves = 0;
+            long totalNanos = 0;
+            int won = 0;
+            for (int i = 0; i < seedCount; i++)
+            {
+                if (!played[p][i]) continue;
+
+                s[n++] = scores[p][i];
+                totalMoves += moves[p][i];
+                totalNanos += nanos[p][i];
+                if (maxTiles[p][i] >= Board.WIN_CONDITION_VALUE) won++;
+            }
+
+            int[] sorted = Arrays.copyOf(s, n);
+            Arrays.sort(sorted);
+            double[] stats = meanAndStandardError(sorted, n);
+            out.printf("%-3d %6d %9.1f %9.1f %7d %7.1f %6.1f%% %8.2f  %s%n", p + 1, n, stats[0], stats[1],
+                    n == 0 ? 0 : sorted[n / 2], totalMoves / (double) Math.max(1, n), 100.0 * won / Math.max(1, n),
+                    totalNanos / 1e6 / Math.max(1, n), policySpecs.get(p));
+        }
+
+        out.println();
+        out.println("Paired on the same seeds (A - B):");
+        out.printf("%-3s %-3s %6s %9s %21s %6s %6s %6s%n", "A", "B", "games", "mean", "95% interval", "A won", "B won", "tied");
+        for (int a = 0; a < policies.length; a++)
+        {
+            for (int b = a + 1; b < policies.length; b++)
+            {
+                int[] diff = new int[seedCount];
+                int n = 0;
+                int aWon = 0;
+                int bWon = 0;
+                for (int i = 0; i < seedCount; i++)
+                {
+                    if (!played[a][i] || !played[b][i]) continue;
+
+                    diff[n++] = scores[a][i] - scores[b][i];
+                    if (scores[a][i] > scores[b][i]) aWon++;
+                    if (scores[a][i] < scores[b][i]) bWon++;
+                }
+
+                double[] stats = meanAndStandardError(diff, n);
+                out.printf("%-3d %-3d %6d %9.1f [%9.1f, %9.1f] %6d %6d %6d%n", a + 1, b + 1, n, stats[0],
+                        stats[0] - 1.96 * stats[1], stats[0] + 1.96 * stats[1], aWon, bWon, n - aWon - bWon);
+            }
+        }
+    }
+
+    /**
+     * @return the mean of the first n values and the standard error of that mean
+     */
+    private static double[] meanAndStandardError(int[] values, int n)
+    {
+        if (n == 0)
+        {
+            return new double[]{0.0, 0.0};
+        }
+
+        double mean = 0.0;
+        for (int i = 0; i < n; i++)
+        {
+            mean += values[i];
+        }
+        mean /= n;
+
+        double variance = 0.0;
+        for (int i = 0; i < n; i++)
+        {
+            variance += (values[i] - mean) * (values[i] - mean);
+        }
+        variance /= Math.max(1, n - 1);
+
+        return new double[]{mean, Math.sqrt(variance / n)};
+    }
+
+    private void writeHeader() throws IOException
+    {
+        try(BufferedWriter out = Files.newBufferedWriter(Paths.get(results), StandardCharsets.UTF_8))
+        {
+            out.write("# Tournament results: game=POLICY SEED-INDEX SEED SCORE MOVES MAX-TILE NANOS\n");
+            out.write("size=" + size + "\n");
+            out.write("seed=" + masterSeed + "\n");
+            out.write("seeds=" + seedCount + "\n");
+            for (String spec : policySpecs)
+            {
+                out.write("policy=" + spec + "\n");
+            }
+        }
+    }
+
+    /**
+     * Reads the setup and all finished games of an earlier run. A line that was
+     * cut short by the interruption is ignored, so its game is played again
+     */
+    private void readResults() throws IOException
+    {
+        policySpecs.clear();
+        List<String> games = new ArrayList<>();
+        try(BufferedReader in = Files.newBufferedReader(Paths.get(results), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                int split = line.indexOf('=');
+                if (line.startsWith("#") || split < 0) continue;
+
+                String key = line.substring(0, split);
+                String value = line.substring(split + 1);
+                switch(key)
+                {
+                    case "size":   size = Integer.parseInt(value); break;
+                    case "seed":   masterSeed = value; break;
+                    case "seeds":  seedCount = Integer.parseInt(value); break;
+                    case "policy": policySpecs.add(value); break;
+                    case "game":   games.add(value); break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        allocate();
+        for (String game : games)
+        {
+            String[] f = game.split(" ");
+            if (f.length != 7) continue;
+
+            try
+            {
+                int p = Integer.parseInt(f[0]);
+                int s = Integer.parseInt(f[1]);
+                scores[p][s] = Integer.parseInt(f[3]);
+                moves[p][s] = Integer.parseInt(f[4]);
+                maxTiles[p][s] = Integer.parseInt(f[5]);
+                nanos[p][s] = Long.parseLong(f[6]);
+                played[p][s] = true;
+            } catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // The last line of an interrupted run
+            }
+        }
+    }
+
+}
@@ -0,0 +1,423 @@
+package eecs1510.Game.AI;
+
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.PackedBoard;
+import eecs1510.Game.Randomizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tunes the weights of the <code>HeuristicPolicy</code> with the noisy
+ * cross-entropy method.
+ *
+ * Every generation samples a population of weights from a normal distribution
+ * around the current mean. Each candidate, and the mean itself, plays the same
+ * batch of seeds, so differences in fitness come from the weights and not
+ * from easier or harder games. The mean and the spread of the best candidates
+ * become the distribution of the next generation. A little extra noise, which
+ * fades out over the run, keeps the distribution from collapsing too early.
+ *
+ * All games of a generation are shared among the worker threads one at a
+ * time, so every core is busy until the generation is done. The distribution
+ * is checkpointed after every generation and a tuning run continues from the
+ * checkpoint with <code>--resume</code>. Because the samples and seeds of a
+ * generation only depend on the seed of the run and the generation number, a
+ * resumed run is identical to one that was never interrupted. Options passed
+ * along with <code>--resume</code> replace those of the checkpoint, so a
+ * finished run can be extended with more generations, except for the size
+ * and the seed, which have to stay the same.
+ */
+public class WeightTuner
+{
+
+    private int generations = 30;
+    private int population = 16;
+    private int games = 100;
+    private double eliteFraction = 0.25;
+    private double spread = 0.3;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int size = 4;
+    private long seed = 2048;
+    private HeuristicWeights start = HeuristicWeights.DEFAULT;
+    private String checkpoint = "tuner.checkpoint";
+    private boolean resume = false;
+    /** The options passed on the command line, which take precedence over the checkpoint */
+    private final Set<String> given = new HashSet<>();
+
+    /** The first generation that has not been played */
+    private int generation = 0;
+    private double[] mean;
+    private double[] sigma;
+    /** The initial extra noise of each weight */
+    private double[] noise;
+
+    private double[] best;
+    private double bestFitness = Double.NEGATIVE_INFINITY;
+
+    public static void main(String[] args)
+    {
+        WeightTuner t = new WeightTuner();
+
+        new OptionsParser().add("generations", "The number of generations (Default: 30)", (v) -> {
+            t.generations = Integer.parseInt(v);
+            t.given.add("generations");
+        }).add("population", "The number of candidates per generation (Default: 16)", (v) -> {
+            t.population = Integer.parseInt(v);
+            t.given.add("population");
+        }).add("games", "The number of games every candidate plays (Default: 100)", (v) -> {
+            t.games = Integer.parseInt(v);
+            t.given.add("games");
+        }).add("elite", "The fraction of best candidates the next generation is built from (Default: 0.25)", (v) -> {
+            t.eliteFraction = Double.parseDouble(v);
+            t.given.add("elite");
+        }).add("spread", "The initial standard deviation, relative to each weight (Default: 0.3)", (v) -> {
+            t.spread = Double.parseDouble(v);
+        }).add("t", "threads", "The number of worker threads (Default: one per core)", (v) -> {
+            t.threads = Integer.parseInt(v);
+        }).add("size", "The size of the board, 2 to 4 (Default: 4)", (v) -> {
+            t.size = Integer.parseInt(v);
+            t.given.add("size");
+        }).add("seed", "Seeds the samples and the games of every generation (Default: 2048)", (v) -> {
+            t.seed = Long.parseLong(v);
+            t.given.add("seed");
+        }).add("weights", "The weights to start from, for example empty=270,merges=700 (Default: the built-in weights)", (v) -> {
+            t.start = HeuristicWeights.parse(v);
+        }).add("checkpoint", "The checkpoint file (Default: tuner.checkpoint)", (v) -> {
+            t.checkpoint = v;
+        }).addSwitch("resume", "Continue the run stored in the checkpoint file. Options passed along replace its own", () -> t.resume = true)
+          .parse(args);
+
+        try
+        {
+            HeuristicWeights tuned = t.tune();
+            System.out.println("\nTuned weights: " + tuned);
+            System.out.println("Play them with --policy " + MovePolicies.HEURISTIC + ":" + tuned);
+        } catch(IOException | InterruptedException | IllegalArgumentException e) {
+            System.err.println("Tuning failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs all remaining generations
+     *
+     * @return the mean of the final distribution
+     */
+    public HeuristicWeights tune() throws IOException, InterruptedException
+    {
+        if (resume)
+        {
+            readCheckpoint();
+        } else {
+            mean = start.toArray();
+            sigma = new double[mean.length];
+            for (int i = 0; i < mean.length; i++)
+            {
+                sigma[i] = spread * Math.max(Math.abs(mean[i]), 1.0);
+            }
+            noise = sigma.clone();
+        }
+
+        if (!PackedBoard.supports(size))
+        {
+            throw new IllegalArgumentException("Weights can only be tuned on boards of size 2 to 4");
+        }
+        if (population < 2 || games < 1 || eliteFraction <= 0.0 || eliteFraction > 1.0)
+        {
+            throw new IllegalArgumentException("The population, games and elite fraction must leave at least one elite candidate");
+        }
+
+        System.out.printf("Tuning %d weights for %d generations of %d candidates x %d games on %d threads%n",
+                mean.length, Math.max(0, generations - generation), population, games, threads);
+
+        long startTime = System.nanoTime();
+        for (; generation < generations; generation++)
+        {
+            runGeneration();
+            writeCheckpoint();
+        }
+
+        System.out.printf("Finished in %.1f s. Best candidate scored %.1f: %s%n", (System.nanoTime() - startTime) / 1e9,
+                bestFitness, best == null ? "-" : HeuristicWeights.fromArray(best));
+        return HeuristicWeights.fromArray(mean);
+    }
+
+    /**
+     * Samples, plays and ranks one generation, then moves the distribution towards its best candidates
+     */
+    private void runGeneration() throws InterruptedException
+    {
+        SplittableRandom random = new SplittableRandom(seed + generation * 0x9E3779B97F4A7C15L);
+
+        // Candidate 0 is the mean itself, to follow the progress of the distribution
+        double[][] candidates = new double[population + 1][];
+        candidates[0] = mean.clone();
+        for (int c = 1; c <= population; c++)
+        {
+            candidates[c] = new double[mean.length];
+            for (int i = 0; i < mean.length; i++)
+            {
+                candidates[c][i] = Math.max(0.0, mean[i] + sigma[i] * gaussian(random));
+            }
+        }
+
+        // Common random numbers: every candidate plays the same seeds
+        String[] seeds = new String[games];
+        for (int g = 0; g < games; g++)
+        {
+            seeds[g] = SeedScanner.seedAt(random.nextLong(SeedScanner.SEED_COUNT));
+        }
+
+        long generationStart = System.nanoTime();
+        double[] fitness = play(candidates, seeds);
+        double elapsed = (System.nanoTime() - generationStart) / 1e9;
+
+        Integer[] order = new Integer[population];
+        for (int c = 0; c < population; c++)
+        {
+            order[c] = c + 1;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+
+        if (fitness[order[0]] > bestFitness)
+        {
+            bestFitness = fitness[order[0]];
+            best = candidates[order[0]];
+        }
+
+        int elite = Math.max(1, (int) Math.round(eliteFraction * population));
+        double fade = Math.max(0.0, 1.0 - (generation + 1) / (double) generations);
+        for (int i = 0; i < mean.length; i++)
+        {
+            double m = 0.0;
+            for (int e = 0; e < elite; e++)
+            {
+                m += candidates[order[e]][i];
+            }
+            m /= elite;
+
+            double variance = 0.0;
+            for (int e = 0; e < elite; e++)
+            {
+                double d = candidates[order[e]][i] - m;
+                variance += d * d;
+            }
+            variance /= elite;
+
+            mean[i] = m;
+            sigma[i] = Math.sqrt(variance + Math.pow(noise[i] * fade, 2));
+        }
+
+        System.out.printf("Generation %d: mean scored %.1f, best %.1f, elite %.1f (%.1f s, %.0f games/s)%n  %s%n",
+                generation + 1, fitness[0], fitness[order[0]], fitness[order[elite - 1]], elapsed,
+                candidates.length * games / elapsed, HeuristicWeights.fromArray(mean));
+    }
+
+    /**
+     * Plays every seed with every candidate on all worker threads
+     *
+     * @return the mean score of each candidate
+     */
+    private double[] play(double[][] candidates, String[] seeds) throws InterruptedException
+    {
+        HeuristicPolicy[] policies = new HeuristicPolicy[candidates.length];
+        for (int c = 0; c < candidates.length; c++)
+        {
+            policies[c] = new HeuristicPolicy(size, HeuristicWeights.fromArray(candidates[c]));
+        }
+
+        int total = candidates.length * seeds.length;
+        AtomicInteger next = new AtomicInteger();
+        long[][] scores = new long[threads][candidates.length];
+        Exception[] failures = new Exception[threads];
+
+        Thread[] running = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            int id = i;
+            running[i] = new Thread(() -> {
+                try
+                {
+                    int task;
+                    while ((task = next.getAndIncrement()) < total)
+                    {
+                        int c = task / seeds.length;
+                        scores[id][c] += play(policies[c], seeds[task % seeds.length]);
+                    }
+                } catch(Randomizer.InvalidSeedException | RuntimeException e) {
+                    failures[id] = e;
+                }
+            }, "weight-tuner-" + i);
+            running[i].start();
+        }
+
+        double[] fitness = new double[candidates.length];
+        for (int i = 0; i < threads; i++)
+        {
+            running[i].join();
+            if (failures[i] != null)
+            {
+                throw new IllegalStateException("A worker failed", failures[i]);
+            }
+
+            for (int c = 0; c < candidates.length; c++)
+            {
+                fitness[c] += scores[i][c];
+            }
+        }
+
+        for (int c = 0; c < candidates.length; c++)
+        {
+            fitness[c] /= seeds.length;
+        }
+
+        return fitness;
+    }
+
+    /**
+     * Plays a seed until no move is valid
+     *
+     * @return the final score
+     */
+    private int play(HeuristicPolicy policy, String seed) throws Randomizer.InvalidSeedException
+    {
+        BoardEngine board = BoardEngines.create(BoardEngines.PACKED, size, seed);
+
+        int score = 0;
+        Direction d;
+        while ((d = policy.nextMove(board)) != null)
+        {
+            MoveResult result = board.squash(d);
+            if (result.isInvalid())
+            {
+                break;
+            }
+
+            score += result.mergeValue;
+            board.placeRandom();
+        }
+
+        return score;
+    }
+
+    /**
+     * @return a sample of the standard normal distribution (Box-Muller)
+     */
+    private static double gaussian(SplittableRandom random)
+    {
+        return Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble())) * Math.cos(2.0 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file first, so a crash never leaves a broken checkpoint behind
+     */
+    private void writeCheckpoint() throws IOException
+    {
+        Path target = Paths.get(checkpoint);
+        Path temp = Paths.get(checkpoint + ".tmp");
+
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8)))
+        {
+            out.println("# WeightTuner checkpoint");
+            out.println("generation=" + (generation + 1));
+            out.println("generations=" + generations);
+            out.println("population=" + population);
+            out.println("games=" + games);
+            out.println("elite=" + eliteFraction);
+            out.println("size=" + size);
+            out.println("seed=" + seed);
+            out.println("mean=" + HeuristicWeights.fromArray(mean));
+            out.println("sigma=" + HeuristicWeights.fromArray(sigma));
+            out.println("noise=" + HeuristicWeights.fromArray(noise));
+            if (best != null)
+            {
+                out.println("bestFitness=" + bestFitness);
+                out.println("best=" + HeuristicWeights.fromArray(best));
+            }
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the distribution and the options of a run from the checkpoint.
+     * Options that were passed on the command line are kept
+     *
+     * @throws IllegalArgumentException if the size or seed passed on the command line differ from the checkpoint
+     */
+    private void readCheckpoint() throws IOException
+    {
+        int planned = generations;
+        try(BufferedReader in = Files.newBufferedReader(Paths.get(checkpoint), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                int split = line.indexOf('=');
+                if (line.startsWith("#") || split < 0) continue;
+
+                String key = line.substring(0, split);
+                String value = line.substring(split + 1);
+                if (given.contains(key))
+                {
+                    if ((key.equals("size") && Integer.parseInt(value) != size) || (key.equals("seed") && Long.parseLong(value) != seed))
+                    {
+                        throw new IllegalArgumentException(checkpoint + " was tuned with --" + key + " " + value + ", it can't be resumed with a different one");
+                    }
+                    continue;
+                }
+
+                switch(key)
+                {
+                    case "generation":  generation = Integer.parseInt(value); break;
+                    case "generations": generations = planned = Integer.parseInt(value); break;
+                    case "population":  population = Integer.parseInt(value); break;
+                    case "games":       games = Integer.parseInt(value); break;
+                    case "elite":       eliteFraction = Double.parseDouble(value); break;
+                    case "size":        size = Integer.parseInt(value); break;
+                    case "seed":        seed = Long.parseLong(value); break;
+                    case "mean":        mean = HeuristicWeights.parse(value).toArray(); break;
+                    case "sigma":       sigma = HeuristicWeights.parse(value).toArray(); break;
+                    case "noise":       noise = HeuristicWeights.parse(value).toArray(); break;
+                    case "bestFitness": bestFitness = Double.parseDouble(value); break;
+                    case "best":        best = HeuristicWeights.parse(value).toArray(); break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        if (mean == null || sigma == null || noise == null)
+        {
+            throw new IOException(checkpoint + " is not a tuner checkpoint");
+        }
+
+        if (generations != planned)
+        {
+            // Give the spread the extra noise it would have had if the run had been planned this long from the start
+            double plannedFade = Math.max(0.0, 1.0 - generation / (double) planned);
+            double fade = Math.max(0.0, 1.0 - generation / (double) generations);
+            for (int i = 0; i < sigma.length; i++)
+            {
+                double variance = Math.max(0.0, sigma[i] * sigma[i] - Math.pow(noise[i] * plannedFade, 2));
+                sigma[i] = Math.sqrt(variance + Math.pow(noise[i] * fade, 2));
+            }
+        }
+    }
+
+}
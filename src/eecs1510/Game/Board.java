@@ -7,8 +7,11 @@ import java.util.Arrays;
  * Created by nathan on 2/12/15
  *
  * Holds the elements for the game. All game boards are square.
+ *
+ * This is the reference <code>BoardEngine</code>: every other engine has to
+ * behave exactly like it.
  */
-public class Board
+public class Board implements BoardEngine
 {
 
     /** The default size of the game board */
@@ -17,13 +20,27 @@ public class Board
     public static final int WIN_CONDITION_VALUE = 2048;
     /** Any random number above this will generate a four */
     public static final double FOUR_THRESHOLD = 0.9;
+    /** The chance of a random tile being a two */
+    public static final double TWO_PROBABILITY = FOUR_THRESHOLD;
+    /** The chance of a random tile being a four */
+    public static final double FOUR_PROBABILITY = 1 - FOUR_THRESHOLD;
 
     /** The seeded random number generator for this game board */
-    private final Randomizer rng;
+    private Randomizer rng;
 
     private final int size;
     private final int[][] data;
 
+    /** The keys used to hash boards of this size */
+    private final ZobristKeys zobrist;
+    /** The Zobrist hash of <code>data</code>, updated whenever a cell changes */
+    private long hash = 0L;
+
+    /** The cell of the most recently placed tile (<code>row * size + column</code>), or -1 if there is none */
+    private int lastSpawnCell = -1;
+    /** The value of the most recently placed tile */
+    private int lastSpawnValue = 0;
+
     public Board() throws Randomizer.InvalidSeedException
     {
         this(DEFAULT_SIZE, Randomizer.randomSeed());
@@ -39,6 +56,7 @@ public class Board
         this.size = size;
 
         data = new int[size][size];
+        zobrist = ZobristKeys.forSize(size);
 
         rng = new Randomizer(seed.trim().replaceAll("\\s", ""));
 
@@ -46,6 +64,77 @@ public class Board
         placeRandom();
     }
 
+    /**
+     * Restores a board from a copy of its tiles and the state of its random
+     * number generator, for example to resume a stored game
+     *
+     * @param seed     the seed the board was created with
+     * @param rngState the state of the random number generator, as returned by <code>getRandomState()</code>
+     * @param data     the tiles of the board. Must be a square array
+     */
+    public Board(String seed, long rngState, int[][] data) throws Randomizer.InvalidSeedException
+    {
+        this.size = data.length;
+
+        this.data = new int[size][size];
+        zobrist = ZobristKeys.forSize(size);
+
+        rng = new Randomizer(seed, rngState);
+
+        setState(data);
+    }
+
+    /**
+     * Copies a board, including the state of its random number generator
+     */
+    private Board(Board source)
+    {
+        this.size = source.size;
+        this.zobrist = source.zobrist;
+        this.hash = source.hash;
+        this.lastSpawnCell = source.lastSpawnCell;
+        this.lastSpawnValue = source.lastSpawnValue;
+
+        this.data = new int[size][];
+        for (int row = 0; row < size; row++)
+        {
+            data[row] = source.data[row].clone();
+        }
+
+        this.rng = source.rng.copy();
+    }
+
+    /**
+     * Starts a new game on this board with the specified seed, exactly as if it
+     * had been created with that seed. Reusing a board this way avoids
+     * allocating new tiles for every game when many games are played in a row
+     *
+     * @param seed the seed of the new game
+     */
+    public void reset(String seed) throws Randomizer.InvalidSeedException
+    {
+        rng = new Randomizer(seed.trim().replaceAll("\\s", ""));
+
+        for (int[] row : data)
+        {
+            Arrays.fill(row, 0);
+        }
+        hash = 0L;
+        lastSpawnCell = -1;
+        lastSpawnValue = 0;
+
+        placeRandom();
+        placeRandom();
+    }
+
+    /**
+     * @return an independent copy of this board. Both boards spawn the same tiles from here on
+     */
+    public Board copy()
+    {
+        return new Board(this);
+    }
+
     /**
      * @return the Size of the game board (which is square)
      */
@@ -62,6 +151,25 @@ public class Board
         return rng.seed;
     }
 
+    /**
+     * @return the state of the random number generator, which determines the tiles that spawn next
+     */
+    public long getRandomState()
+    {
+        return rng.getState();
+    }
+
+    /**
+     * Two boards of the same size with the same tiles always have the same hash.
+     * The hash is maintained as tiles spawn and move, so this is O(1).
+     *
+     * @return the 64-bit Zobrist hash of the tiles on the board
+     */
+    public long getHash()
+    {
+        return hash;
+    }
+
     /**
      * Gets the element at the specified row and column
      *
@@ -288,19 +396,39 @@ public class Board
      * Sets the state of the game board by copying the specified data
      * @param s the Data to copy. Must be a SIZE x SIZE array
      */
-    protected void setState(int[][] s)
+    public void setState(int[][] s)
     {
         if(s.length != size || Arrays.stream(s).filter((r) -> r.length != size).count() > 0)
         {
             throw new IllegalArgumentException("The specified array does not match the game board size");
         }
 
-        for (int i = 0; i < size; i++)
+        for (int row = 0; row < size; row++)
         {
-            System.arraycopy(s[i], 0, data[i], 0, size);
+            for (int column = 0; column < size; column++)
+            {
+                if (data[row][column] != s[row][column])
+                {
+                    hash ^= zobrist.key(row, column, data[row][column]) ^ zobrist.key(row, column, s[row][column]);
+                    data[row][column] = s[row][column];
+                }
+            }
         }
     }
 
+    /**
+     * Puts a tile on the board, replacing whatever was in the cell
+     *
+     * @param row    the row of the cell
+     * @param column the column of the cell
+     * @param value  the value of the tile, or 0 to clear the cell
+     */
+    public void place(int row, int column, int value)
+    {
+        hash ^= zobrist.key(row, column, data[row][column]) ^ zobrist.key(row, column, value);
+        data[row][column] = value;
+    }
+
     /**
      * Places a random 2 or 4 on the game board at a free space.
      * If there are no more free spaces, this method returns false.
@@ -311,21 +439,82 @@ public class Board
     {
         int initialValue = rng.next() >= FOUR_THRESHOLD ? 4 : 2;
 
-        ArrayList<int[]> freeCells = getFreeCells();
+        // Same choice as picking from getFreeCells(), without building the list
+        int free = 0;
+        for (int[] row : data)
+        {
+            for (int value : row)
+            {
+                if (value <= 0) free++;
+            }
+        }
 
-        if (freeCells.isEmpty()){
+        if (free == 0){
             return false;
         }
 
-        int[] cell = freeCells.get((int) (rng.next() * freeCells.size()));
-        int freeRow = cell[0];
-        int freeColumn = cell[1];
+        int skip = (int) (rng.next() * free);
+        int cell = 0;
+        while (data[cell / size][cell % size] > 0 || skip-- > 0)
+        {
+            cell++;
+        }
+
+        int freeRow = cell / size;
+        int freeColumn = cell % size;
 
         data[freeRow][freeColumn] = initialValue;
+        hash ^= zobrist.key(freeRow, freeColumn, initialValue);
+
+        lastSpawnCell = freeRow * size + freeColumn;
+        lastSpawnValue = initialValue;
 
         return true;
     }
 
+    /**
+     * Plays the moves on a packed copy of the board while the board can be
+     * packed and no 32768 tile is on it, and one at a time afterwards
+     */
+    @Override
+    public int applyMoves(byte[] moves, int from, int to, int[] scores, int[] merges, int[] spawns)
+    {
+        int next = from;
+        if (PackedBoard.supports(size) && Arrays.stream(data).flatMapToInt(Arrays::stream).max().getAsInt() < 32768)
+        {
+            PackedBoard packed = PackedBoard.forSize(size);
+            long[] state = { packed.pack(data), -1 };
+            next = packed.play(state, rng, moves, from, to, scores, merges, spawns);
+
+            if (next > from)
+            {
+                setState(packed.unpack(state[0]));
+                lastSpawnCell = (int) (state[1] >> 4);
+                lastSpawnValue = PackedBoard.valueOf((int) (state[1] & 0xF));
+            }
+        }
+
+        return next < to && !isLost() ? BoardEngine.super.applyMoves(moves, next, to, scores, merges, spawns) : next;
+    }
+
+    /**
+     * @return the cell of the tile placed by the last successful call to
+     *         <code>placeRandom()</code> as <code>row * size + column</code>,
+     *         or -1 if no tile has been placed
+     */
+    public int getLastSpawnCell()
+    {
+        return lastSpawnCell;
+    }
+
+    /**
+     * @return the value of the tile placed by the last successful call to <code>placeRandom()</code>
+     */
+    public int getLastSpawnValue()
+    {
+        return lastSpawnValue;
+    }
+
     /**
      * @return an ArrayList of integer arrays pointing to the location of free cells.
      */
@@ -387,7 +576,7 @@ public class Board
         {
             for (int row = 0; row < size - 1; row++)
             {
-                if (data[row][col] == data[row + 1][col] || data[row + 1][col] == 0)
+                if (data[row][col] == data[row + 1][col] || data[row][col] == 0 || data[row + 1][col] == 0)
                     return false;
             }
         }
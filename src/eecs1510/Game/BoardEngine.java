@@ -0,0 +1,170 @@
+package eecs1510.Game;
+
+import java.util.ArrayList;
+
+/**
+ * The rules of the game: squashing tiles, spawning new ones and answering
+ * questions about the board.
+ *
+ * <code>Board</code> is the reference implementation. Other engines must
+ * behave exactly like it for every seed, including which tiles spawn where,
+ * which <code>DifferentialBoardEngine</code> can check while a game is played.
+ * Use <code>BoardEngines</code> to create an engine by name.
+ */
+public interface BoardEngine
+{
+
+    /**
+     * @return the Size of the game board (which is square)
+     */
+    public int getSize();
+
+    /**
+     * @return the Seed of the random number generator
+     */
+    public String getSeed();
+
+    /**
+     * @return the state of the random number generator, which determines the tiles that spawn next
+     */
+    public long getRandomState();
+
+    /**
+     * @return the 64-bit Zobrist hash of the tiles on the board
+     */
+    public long getHash();
+
+    /**
+     * @return the value of the tile at the specified cell, or 0 if it is empty
+     */
+    public int getElement(int row, int column);
+
+    /**
+     * @return the tiles on the board. Engines that don't store an <code>int[][]</code>
+     *         return a new copy, so this should not be called in a hot loop
+     */
+    public int[][] getData();
+
+    /**
+     * Squashes all elements in the specified direction without placing a new tile
+     *
+     * @param d The direction to squash elements in
+     * @return the merges of the move, or <code>MoveResult.invalid()</code> if nothing moved
+     */
+    public MoveResult squash(Direction d);
+
+    /**
+     * Places a random 2 or 4 on the game board at a free space
+     *
+     * @return true if a value was able to be placed
+     */
+    public boolean placeRandom();
+
+    /**
+     * Plays a sequence of moves, each followed by <code>placeRandom()</code>,
+     * without creating a <code>MoveResult</code> per move. Moves are packed
+     * four to a byte as the ordinals of their <code>Direction</code>: move
+     * <code>i</code> is <code>(moves[i / 4] &gt;&gt; (2 * (i % 4))) &amp; 3</code>.
+     *
+     * Stops before the first invalid move and after the first move that
+     * leaves the board lost. The result arrays are indexed like the moves,
+     * and only the entries of moves that were played are written.
+     *
+     * @param moves  the packed moves
+     * @param from   the index of the first move to play
+     * @param to     the index after the last move to play
+     * @param scores receives the score of each move, or null
+     * @param merges receives the number of merges of each move, or null
+     * @param spawns receives the cell of the tile spawned after each move as <code>row * size + column</code>, or null
+     * @return the index of the first move that was not played. If it is less
+     *         than <code>to</code>, that move was invalid, or the board was
+     *         lost by the move before it, which <code>isLost()</code> tells apart
+     */
+    public default int applyMoves(byte[] moves, int from, int to, int[] scores, int[] merges, int[] spawns)
+    {
+        Direction[] directions = Direction.values();
+        for (int i = from; i < to; i++)
+        {
+            MoveResult result = squash(directions[(moves[i >> 2] >>> (2 * (i & 3))) & 3]);
+            if (result.isInvalid())
+            {
+                return i;
+            }
+
+            placeRandom();
+            if (scores != null) scores[i] = result.mergeValue;
+            if (merges != null) merges[i] = result.mergeCount;
+            if (spawns != null) spawns[i] = getLastSpawnCell();
+
+            if (isLost())
+            {
+                return i + 1;
+            }
+        }
+
+        return to;
+    }
+
+    /**
+     * Packs moves for <code>applyMoves()</code>
+     *
+     * @param moves the moves in the order they are played
+     * @return the moves packed four to a byte
+     */
+    public static byte[] packMoves(Direction... moves)
+    {
+        byte[] packed = new byte[(moves.length + 3) / 4];
+        for (int i = 0; i < moves.length; i++)
+        {
+            packed[i >> 2] |= moves[i].ordinal() << (2 * (i & 3));
+        }
+
+        return packed;
+    }
+
+    /**
+     * Puts a tile on the board, replacing whatever was in the cell
+     *
+     * @param value the value of the tile, or 0 to clear the cell
+     */
+    public void place(int row, int column, int value);
+
+    /**
+     * Replaces all tiles on the board
+     *
+     * @param s the tiles to copy. Must be a SIZE x SIZE array
+     */
+    public void setState(int[][] s);
+
+    /**
+     * @return the cell of the most recently spawned tile as <code>row * size + column</code>,
+     *         or -1 if no tile has been spawned
+     */
+    public int getLastSpawnCell();
+
+    /**
+     * @return the value of the most recently spawned tile
+     */
+    public int getLastSpawnValue();
+
+    /**
+     * @return the locations of free cells as {row, column} pairs, in row-major order
+     */
+    public ArrayList<int[]> getFreeCells();
+
+    /**
+     * @return true iff the board contains a cell with the value <code>Board.WIN_CONDITION_VALUE</code>
+     */
+    public boolean isWon();
+
+    /**
+     * @return true if there are no more moves left to be made
+     */
+    public boolean isLost();
+
+    /**
+     * @return an independent copy of this board. Both boards spawn the same tiles from here on
+     */
+    public BoardEngine copy();
+
+}
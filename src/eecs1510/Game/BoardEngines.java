@@ -0,0 +1,55 @@
+package eecs1510.Game;
+
+/**
+ * Creates board engines by name, so the engine can be chosen on the command line:
+ * <pre>
+ *   board   The reference engine, an int[][] of tile values (any size)
+ *   packed  All tiles in a single long, squashed through lookup tables (up to 4x4)
+ * </pre>
+ * In differential mode the chosen engine runs in lockstep with the reference
+ * engine, and the game stops with a <code>DivergenceException</code> as soon
+ * as they disagree.
+ */
+public class BoardEngines
+{
+
+    public static final String REFERENCE = "board";
+    public static final String PACKED = "packed";
+
+    /** The names of all engines */
+    public static final String[] NAMES = {REFERENCE, PACKED};
+
+    private BoardEngines() {}
+
+    /**
+     * @param name the name of the engine
+     * @param size the size of the board
+     * @param seed the seed of the game
+     * @return a new game board using the specified engine
+     * @throws IllegalArgumentException if the engine is unknown or doesn't support the size
+     */
+    public static BoardEngine create(String name, int size, String seed) throws Randomizer.InvalidSeedException
+    {
+        switch(name.toLowerCase())
+        {
+            case REFERENCE: return new Board(size, seed);
+            case PACKED:    return new PackedBoardEngine(size, seed);
+            default:        throw new IllegalArgumentException("Unknown engine '" + name + "'. Valid engines are " + String.join(", ", NAMES));
+        }
+    }
+
+    /**
+     * @param name         the name of the engine
+     * @param differential whether to run the engine in lockstep with the reference engine
+     * @param size         the size of the board
+     * @param seed         the seed of the game
+     * @return a new game board using the specified engine
+     * @throws IllegalArgumentException if the engine is unknown or doesn't support the size
+     */
+    public static BoardEngine create(String name, boolean differential, int size, String seed) throws Randomizer.InvalidSeedException
+    {
+        BoardEngine engine = create(name, size, seed);
+        return differential ? new DifferentialBoardEngine(new Board(size, seed), engine) : engine;
+    }
+
+}
@@ -0,0 +1,82 @@
+package eecs1510.Game.Cluster;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The messages between a <code>SimulationCoordinator</code> and its
+ * <code>SimulationWorker</code>s. Every message starts with its type byte and
+ * is written with <code>DataOutput</code>:
+ * <pre>
+ *   HELLO   worker to coordinator  int magic, int version, UTF name of the worker
+ *   JOB     coordinator to worker  int board size, UTF policy
+ *   CHUNK   coordinator to worker  long first seed index, int number of seeds
+ *   RESULT  worker to coordinator  long first seed index, GameStatistics of the chunk
+ *   DONE    coordinator to worker  (nothing, the worker disconnects)
+ * </pre>
+ * A worker sends HELLO once, gets the JOB in return, and then answers every
+ * CHUNK with a RESULT until it gets DONE.
+ */
+final class Protocol
+{
+
+    static final int MAGIC = 0x38343032; // "2048" read as a little-endian int
+    static final int VERSION = 1;
+
+    static final byte HELLO = 1;
+    static final byte JOB = 2;
+    static final byte CHUNK = 3;
+    static final byte RESULT = 4;
+    static final byte DONE = 5;
+
+    private Protocol() {}
+
+    /**
+     * Sends the greeting of a worker
+     */
+    static void hello(DataOutput out, String name) throws IOException
+    {
+        out.writeByte(HELLO);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(name);
+    }
+
+    /**
+     * Reads the greeting of a worker
+     *
+     * @return the name of the worker
+     * @throws IOException if the peer is not a worker of the same version
+     */
+    static String readHello(DataInput in) throws IOException
+    {
+        if (in.readByte() != HELLO || in.readInt() != MAGIC)
+        {
+            throw new IOException("Not a simulation worker");
+        }
+
+        int version = in.readInt();
+        if (version != VERSION)
+        {
+            throw new IOException("The worker speaks version " + version + ", not " + VERSION);
+        }
+
+        return in.readUTF();
+    }
+
+    /**
+     * Reads the type of the next message and checks it
+     *
+     * @throws IOException if the next message is of a different type
+     */
+    static void expect(DataInput in, byte type) throws IOException
+    {
+        byte actual = in.readByte();
+        if (actual != type)
+        {
+            throw new IOException("Expected message " + type + ", got " + actual);
+        }
+    }
+
+}
@@ -0,0 +1,381 @@
+package eecs1510.Game.Cluster;
+
+import eecs1510.Game.AI.MovePolicies;
+import eecs1510.Game.AI.SeedScanner;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Stats.GameStatistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a range of seeds with a policy on many worker processes, on this host
+ * or on others, and merges the distributions of their outcomes.
+ *
+ * A single JVM stops scaling for the largest runs once the heap and the
+ * garbage collector become the bottleneck, so the work is split by process
+ * instead: the range is cut into chunks of consecutive seeds, and every
+ * <code>SimulationWorker</code> that connects is handed one chunk at a time
+ * and answers with the <code>GameStatistics</code> of that chunk (see
+ * <code>Protocol</code>). Since the statistics of different chunks simply
+ * merge, the result doesn't depend on which worker played which chunk.
+ *
+ * A worker that disconnects, sends a damaged result, or takes longer than the
+ * timeout for a chunk, is dropped and its chunk goes back to the front of the
+ * queue for the next worker that asks. A chunk is only ever counted once, even
+ * if it was reassigned after its first worker had nearly finished it.
+ *
+ * With <code>--workers N</code> the coordinator starts N worker processes on
+ * this host itself, which is the easy way to run or test it on one machine.
+ * Workers on other hosts connect with <code>SimulationWorker --host</code>.
+ * The run fails once all local workers have exited and no other worker is
+ * connected, instead of waiting forever for workers that will never come.
+ */
+public class SimulationCoordinator
+{
+
+    /** The default port to listen on */
+    public static final int DEFAULT_PORT = 2049;
+
+    private long from = 0;
+    private long count = 100_000;
+    private int chunkSize = 1000;
+    private int size = 4;
+    private String policySpec = MovePolicies.HEURISTIC;
+    private int port = DEFAULT_PORT;
+    private String bind = null;
+    private int localWorkers = Runtime.getRuntime().availableProcessors();
+    private int timeoutSeconds = 120;
+    private int reportSeconds = 10;
+    private int killSeconds = 0;
+
+    private ServerSocket socket;
+    private int chunks;
+
+    /** The chunks no worker is playing. Guarded by this */
+    private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+    /** The chunks whose statistics are merged. Guarded by this */
+    private final BitSet finished = new BitSet();
+    /** The number of chunks that are not finished. Guarded by this */
+    private int remaining;
+    /** The merged statistics of all finished chunks. Guarded by this */
+    private final GameStatistics total = new GameStatistics();
+    /** The number of chunks each worker finished. Guarded by this */
+    private final Map<String, Integer> chunksByWorker = new TreeMap<>();
+    /** The number of connected workers. Guarded by this */
+    private int connected = 0;
+    /** The number of chunks that were taken from a failed worker. Guarded by this */
+    private int reassigned = 0;
+
+    public static void main(String[] args)
+    {
+        SimulationCoordinator c = new SimulationCoordinator();
+
+        new OptionsParser().add("from", "The first seed to play (Default: 00000000)", (s) -> {
+            c.from = SeedScanner.indexOf(s);
+        }).add("count", "The number of seeds to play (Default: 100000)", (s) -> {
+            c.count = Long.parseLong(s);
+        }).add("chunk", "The number of seeds a worker plays at once (Default: 1000)", (s) -> {
+            c.chunkSize = Integer.parseInt(s);
+        }).add("size", "The size of the board (Default: 4)", (s) -> {
+            c.size = Integer.parseInt(s);
+        }).add("policy", "'heuristic', 'mcts' or a file written by TDTrainer or SmallBoardSolver, which every worker must be able to read (Default: heuristic)", (s) -> {
+            c.policySpec = s;
+        }).add("p", "port", "The port workers connect to, 0 for any free port (Default: " + DEFAULT_PORT + ")", (s) -> {
+            c.port = Integer.parseInt(s);
+        }).add("bind", "The address to listen on, for example 0.0.0.0 to accept workers from other hosts (Default: loopback)", (s) -> {
+            c.bind = s;
+        }).add("workers", "The number of worker processes to start on this host (Default: one per core)", (s) -> {
+            c.localWorkers = Integer.parseInt(s);
+        }).add("timeout", "Seconds a worker may take for a chunk before it is dropped and the chunk is reassigned (Default: 120)", (s) -> {
+            c.timeoutSeconds = Integer.parseInt(s);
+        }).add("report", "Seconds between progress reports (Default: 10)", (s) -> {
+            c.reportSeconds = Integer.parseInt(s);
+        }).add("kill", "Kill one of the local workers after this many seconds, to see its chunk being reassigned (Default: never)", (s) -> {
+            c.killSeconds = Integer.parseInt(s);
+        }).parse(args);
+
+        try
+        {
+            c.run().print(System.out);
+        } catch(IOException | InterruptedException | IllegalArgumentException e) {
+            System.err.println("Simulation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Plays the whole range of seeds on the workers
+     *
+     * @return the merged statistics of all games
+     */
+    public GameStatistics run() throws IOException, InterruptedException
+    {
+        if (from < 0 || count <= 0 || from + count > SeedScanner.SEED_COUNT)
+        {
+            throw new IllegalArgumentException("The range of seeds is outside of the " + SeedScanner.SEED_COUNT + " seeds");
+        }
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Chunks must hold at least one seed");
+        }
+
+        chunks = (int) ((count + chunkSize - 1) / chunkSize);
+        synchronized(this)
+        {
+            for (int i = 0; i < chunks; i++)
+            {
+                pending.add(i);
+            }
+            remaining = chunks;
+        }
+
+        socket = new ServerSocket(port, 64, bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind));
+        List<Process> processes = new ArrayList<>();
+        try
+        {
+            Thread acceptor = new Thread(this::accept, "coordinator-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            System.out.printf("Playing %d seeds from %s in %d chunks, listening on %s:%d%n", count,
+                    SeedScanner.seedAt(from), chunks, socket.getInetAddress().getHostAddress(), socket.getLocalPort());
+
+            for (int i = 0; i < localWorkers; i++)
+            {
+                processes.add(startWorker("local-" + i));
+            }
+
+            long start = System.nanoTime();
+            long nextReport = start + TimeUnit.SECONDS.toNanos(reportSeconds);
+            long kill = killSeconds > 0 ? start + TimeUnit.SECONDS.toNanos(killSeconds) : Long.MAX_VALUE;
+            synchronized(this)
+            {
+                while (remaining > 0)
+                {
+                    long now = System.nanoTime();
+                    if (now >= kill && !processes.isEmpty())
+                    {
+                        System.out.println("Killing local-0");
+                        processes.get(0).destroyForcibly();
+                        kill = Long.MAX_VALUE;
+                    }
+                    if (connected == 0 && !processes.isEmpty() && processes.stream().noneMatch(Process::isAlive))
+                    {
+                        throw new IOException("All workers are gone with " + remaining + " of " + chunks + " chunks left");
+                    }
+                    if (now >= nextReport)
+                    {
+                        report(start);
+                        nextReport = now + TimeUnit.SECONDS.toNanos(reportSeconds);
+                    }
+
+                    // Wake up every second at least, to notice local workers that exited without connecting
+                    long wake = Math.min(Math.min(nextReport, kill), now + TimeUnit.SECONDS.toNanos(1));
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, wake - now));
+                }
+
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Played %d games in %.1f s (%.0f games/s, %.0f moves/s), %d chunks reassigned%n",
+                        total.getGames(), elapsed, total.getGames() / elapsed, total.getMoveNanos().getCount() / elapsed, reassigned);
+                for (Map.Entry<String, Integer> e : chunksByWorker.entrySet())
+                {
+                    System.out.printf("  %-20s %d chunks%n", e.getKey(), e.getValue());
+                }
+            }
+        } finally {
+            socket.close();
+            for (Process p : processes)
+            {
+                if (!p.waitFor(10, TimeUnit.SECONDS))
+                {
+                    p.destroyForcibly();
+                }
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Starts a worker process on this host that connects to this coordinator
+     */
+    private Process startWorker(String name) throws IOException
+    {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), SimulationWorker.class.getName(),
+                "--port", String.valueOf(socket.getLocalPort()), "--name", name)
+                .inheritIO()
+                .start();
+    }
+
+    /**
+     * Accepts workers until the socket is closed, serving each on its own thread
+     */
+    private void accept()
+    {
+        while (!socket.isClosed())
+        {
+            try
+            {
+                Socket worker = socket.accept();
+                worker.setTcpNoDelay(true);
+                Thread t = new Thread(() -> serve(worker), "coordinator-" + worker.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            } catch(IOException e) {
+                if (!socket.isClosed())
+                {
+                    System.err.println("Unable to accept a worker: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands chunks to one worker until every chunk is finished or the worker fails
+     */
+    private void serve(Socket worker)
+    {
+        String name = worker.getRemoteSocketAddress().toString();
+        int chunk = -1;
+        boolean greeted = false;
+
+        try(Socket s = worker)
+        {
+            s.setSoTimeout((int) TimeUnit.SECONDS.toMillis(timeoutSeconds));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            name = Protocol.readHello(in);
+            out.writeByte(Protocol.JOB);
+            out.writeInt(size);
+            out.writeUTF(policySpec);
+            out.flush();
+            connected(name);
+            greeted = true;
+
+            while ((chunk = claim()) >= 0)
+            {
+                long first = from + (long) chunk * chunkSize;
+                int seeds = (int) Math.min(chunkSize, from + count - first);
+                out.writeByte(Protocol.CHUNK);
+                out.writeLong(first);
+                out.writeInt(seeds);
+                out.flush();
+
+                Protocol.expect(in, Protocol.RESULT);
+                if (in.readLong() != first)
+                {
+                    throw new IOException("The worker answered for a different chunk");
+                }
+                GameStatistics stats = GameStatistics.read(in);
+                if (stats.getGames() != seeds)
+                {
+                    throw new IOException("The worker played " + stats.getGames() + " of " + seeds + " seeds");
+                }
+
+                finished(chunk, stats, name);
+                chunk = -1;
+            }
+
+            out.writeByte(Protocol.DONE);
+            out.flush();
+        } catch(SocketTimeoutException e) {
+            failed(name, chunk, "took more than " + timeoutSeconds + " s");
+        } catch(EOFException e) {
+            failed(name, chunk, "disconnected");
+        } catch(IOException e) {
+            failed(name, chunk, e.getMessage() != null ? e.getMessage() : e.toString());
+        } catch(InterruptedException e) {
+            failed(name, chunk, "interrupted");
+        } catch(RuntimeException e) {
+            failed(name, chunk, e.toString());
+        } finally {
+            if (greeted) disconnected();
+        }
+    }
+
+    /**
+     * Takes the next chunk off the queue. If the queue is empty while other
+     * workers are still playing, waits in case one of them fails
+     *
+     * @return the chunk, or -1 if all chunks are finished
+     */
+    private synchronized int claim() throws InterruptedException
+    {
+        while (pending.isEmpty() && remaining > 0)
+        {
+            wait();
+        }
+
+        return remaining > 0 ? pending.poll() : -1;
+    }
+
+    private synchronized void finished(int chunk, GameStatistics stats, String worker)
+    {
+        if (!finished.get(chunk))
+        {
+            finished.set(chunk);
+            total.merge(stats);
+            remaining--;
+            chunksByWorker.merge(worker, 1, Integer::sum);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Puts the chunk of a failed worker back into the queue
+     */
+    private synchronized void failed(String worker, int chunk, String reason)
+    {
+        if (chunk >= 0 && !finished.get(chunk))
+        {
+            pending.addFirst(chunk);
+            reassigned++;
+            System.err.println("Lost worker " + worker + " (" + reason + "), its chunk goes back into the queue");
+        } else if (remaining > 0) {
+            System.err.println("Lost worker " + worker + " (" + reason + ")");
+        }
+
+        notifyAll();
+    }
+
+    private synchronized void connected(String worker)
+    {
+        connected++;
+        chunksByWorker.putIfAbsent(worker, 0);
+    }
+
+    private synchronized void disconnected()
+    {
+        connected--;
+    }
+
+    /**
+     * Prints the progress. Called with the lock held
+     */
+    private void report(long start)
+    {
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d of %d chunks (%.1f%%), %.0f games/s, %d workers connected, %d chunks reassigned%n",
+                chunks - remaining, chunks, 100.0 * (chunks - remaining) / chunks, total.getGames() / elapsed, connected, reassigned);
+    }
+
+}
@@ -0,0 +1,172 @@
+package eecs1510.Game.Cluster;
+
+import eecs1510.Game.AI.MovePolicies;
+import eecs1510.Game.AI.SeedScanner;
+import eecs1510.Game.Board;
+import eecs1510.Game.Direction;
+import eecs1510.Game.MovePolicy;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Randomizer;
+import eecs1510.Game.Stats.GameStatistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.Socket;
+
+/**
+ * Plays the chunks of seeds a <code>SimulationCoordinator</code> hands out,
+ * headless on the reference <code>Board</code>, and sends back the statistics
+ * of each chunk. The worker exits once the coordinator has no more chunks or
+ * goes away.
+ */
+public class SimulationWorker
+{
+
+    private String host = "localhost";
+    private int port = SimulationCoordinator.DEFAULT_PORT;
+    private String name = ManagementFactory.getRuntimeMXBean().getName();
+    private int connectSeconds = 10;
+
+    private int size;
+    private MovePolicy policy;
+
+    public static void main(String[] args)
+    {
+        SimulationWorker w = new SimulationWorker();
+
+        new OptionsParser().add("host", "The host the coordinator runs on (Default: localhost)", (s) -> {
+            w.host = s;
+        }).add("p", "port", "The port of the coordinator (Default: " + SimulationCoordinator.DEFAULT_PORT + ")", (s) -> {
+            w.port = Integer.parseInt(s);
+        }).add("name", "The name the coordinator reports this worker by (Default: pid@host)", (s) -> {
+            w.name = s;
+        }).add("connect", "Seconds to keep trying to reach the coordinator (Default: 10)", (s) -> {
+            w.connectSeconds = Integer.parseInt(s);
+        }).parse(args);
+
+        try
+        {
+            w.run();
+        } catch(IOException | InterruptedException | Randomizer.InvalidSeedException | IllegalArgumentException e) {
+            System.err.println("Worker " + w.name + " failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Plays chunks until the coordinator says it is done
+     */
+    public void run() throws IOException, InterruptedException, Randomizer.InvalidSeedException
+    {
+        try(Socket socket = connect())
+        {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            Protocol.hello(out, name);
+            out.flush();
+
+            Protocol.expect(in, Protocol.JOB);
+            size = in.readInt();
+            policy = MovePolicies.create(in.readUTF(), size);
+            if (!policy.supports(size))
+            {
+                throw new IllegalArgumentException("The policy can't play on a board of size " + size);
+            }
+
+            byte type;
+            while ((type = in.readByte()) == Protocol.CHUNK)
+            {
+                long first = in.readLong();
+                int seeds = in.readInt();
+                GameStatistics stats = play(first, seeds);
+
+                out.writeByte(Protocol.RESULT);
+                out.writeLong(first);
+                stats.write(out);
+                out.flush();
+            }
+
+            if (type != Protocol.DONE)
+            {
+                throw new IOException("Unexpected message " + type);
+            }
+        }
+    }
+
+    /**
+     * Connects to the coordinator, retrying for a while in case it is not listening yet
+     */
+    private Socket connect() throws IOException, InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + connectSeconds * 1000L;
+        while (true)
+        {
+            try
+            {
+                return new Socket(host, port);
+            } catch(ConnectException e) {
+                if (System.currentTimeMillis() >= deadline)
+                {
+                    throw e;
+                }
+                Thread.sleep(500);
+            }
+        }
+    }
+
+    /**
+     * Plays a range of seeds until no move is valid
+     */
+    private GameStatistics play(long first, int seeds) throws Randomizer.InvalidSeedException
+    {
+        GameStatistics stats = new GameStatistics();
+        for (long index = first; index < first + seeds; index++)
+        {
+            Board board = new Board(size, SeedScanner.seedAt(index));
+
+            int score = 0;
+            int moves = 0;
+            while (true)
+            {
+                long begin = System.nanoTime();
+                Direction d = policy.nextMove(board);
+                if (d == null)
+                {
+                    break;
+                }
+
+                MoveResult result = board.squash(d);
+                if (result.isInvalid())
+                {
+                    break;
+                }
+
+                score += result.mergeValue;
+                moves++;
+                board.placeRandom();
+                stats.recordMove(System.nanoTime() - begin);
+            }
+
+            int maxTile = 0;
+            for (int row = 0; row < size; row++)
+            {
+                for (int column = 0; column < size; column++)
+                {
+                    maxTile = Math.max(maxTile, board.getElement(row, column));
+                }
+            }
+            stats.recordGame(score, moves, maxTile, board.isWon());
+        }
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,223 @@
+package eecs1510.Game.Data;
+
+import eecs1510.Game.Direction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a dataset written by <code>DatasetWriter</code>.
+ *
+ * Every block of the file is memory-mapped when the dataset is opened. A
+ * <code>Cursor</code> reads the columns of the current record straight from
+ * the mapped blocks, so iterating over millions of records creates no objects
+ * and only touches the pages of the columns that are actually read.
+ */
+public class DatasetReader
+{
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int size;
+    private final ByteBuffer[] blocks;
+    private final int[] counts;
+    private final long records;
+
+    private DatasetReader(int size, ByteBuffer[] blocks, int[] counts, long records)
+    {
+        this.size = size;
+        this.blocks = blocks;
+        this.counts = counts;
+        this.records = records;
+    }
+
+    /**
+     * Maps a dataset
+     *
+     * @param path the dataset to map
+     * @return a reader for the dataset
+     * @throws IOException if the file could not be mapped, is not a dataset or was cut short
+     */
+    public static DatasetReader open(String path) throws IOException
+    {
+        try(FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            long length = in.size();
+            ByteBuffer header = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, DatasetWriter.HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.remaining() < DatasetWriter.HEADER_SIZE || header.getInt() != DatasetWriter.MAGIC || header.getInt() != DatasetWriter.VERSION)
+            {
+                throw new IOException(path + " is not a dataset");
+            }
+            int size = header.getInt();
+
+            List<ByteBuffer> blocks = new ArrayList<>();
+            List<Integer> counts = new ArrayList<>();
+            long records = 0;
+            long offset = DatasetWriter.HEADER_SIZE;
+            ByteBuffer blockHeader = ByteBuffer.allocate(DatasetWriter.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (offset < length)
+            {
+                blockHeader.clear();
+                if (length - offset < DatasetWriter.BLOCK_HEADER_SIZE || in.read(blockHeader, offset) < DatasetWriter.BLOCK_HEADER_SIZE)
+                {
+                    throw new IOException(path + " ends in the middle of a block header");
+                }
+
+                int count = blockHeader.getInt(0);
+                long blockSize = DatasetWriter.blockSize(count);
+                if (count < 1 || offset + blockSize > length)
+                {
+                    throw new IOException(path + " has a damaged block at offset " + offset);
+                }
+
+                blocks.add(in.map(FileChannel.MapMode.READ_ONLY, offset, blockSize).order(ByteOrder.LITTLE_ENDIAN));
+                counts.add(count);
+                records += count;
+                offset += blockSize;
+            }
+
+            int[] blockCounts = new int[counts.size()];
+            for (int i = 0; i < blockCounts.length; i++)
+            {
+                blockCounts[i] = counts.get(i);
+            }
+
+            return new DatasetReader(size, blocks.toArray(new ByteBuffer[0]), blockCounts, records);
+        }
+    }
+
+    /**
+     * @return the size of the recorded boards
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of records in the dataset
+     */
+    public long getRecords()
+    {
+        return records;
+    }
+
+    /**
+     * @return the number of blocks in the dataset
+     */
+    public int getBlocks()
+    {
+        return blocks.length;
+    }
+
+    /**
+     * @return a new cursor placed before the first record
+     */
+    public Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    /**
+     * Walks over all records in the order they were written. A cursor is
+     * cheap, so every thread reading the dataset should create its own.
+     */
+    public class Cursor
+    {
+
+        private int block = 0;
+        private int index = -1;
+
+        private ByteBuffer data;
+        private int count;
+        private int rewardsAt;
+        private int outcomesAt;
+        private int movesAt;
+
+        private Cursor()
+        {
+            if (blocks.length > 0)
+            {
+                select(0);
+            }
+        }
+
+        /**
+         * Moves to the next record
+         *
+         * @return false if there are no more records
+         */
+        public boolean next()
+        {
+            if (data == null)
+            {
+                return false;
+            }
+
+            if (++index == count)
+            {
+                if (block + 1 == blocks.length)
+                {
+                    index = count - 1;
+                    data = null;
+                    return false;
+                }
+
+                select(block + 1);
+                index = 0;
+            }
+
+            return true;
+        }
+
+        /**
+         * @return the packed board before the move
+         */
+        public long getBoard()
+        {
+            return data.getLong(DatasetWriter.BLOCK_HEADER_SIZE + 8 * index);
+        }
+
+        /**
+         * @return the move that was played
+         */
+        public Direction getMove()
+        {
+            return DIRECTIONS[data.get(movesAt + index)];
+        }
+
+        /**
+         * @return the value of all tiles merged by the move
+         */
+        public int getReward()
+        {
+            return data.getInt(rewardsAt + 4 * index);
+        }
+
+        /**
+         * @return the final score of the game the move belongs to
+         */
+        public int getOutcome()
+        {
+            return data.getInt(outcomesAt + 4 * index);
+        }
+
+        private void select(int block)
+        {
+            this.block = block;
+            data = blocks[block];
+            count = counts[block];
+            rewardsAt = DatasetWriter.BLOCK_HEADER_SIZE + 8 * count;
+            outcomesAt = rewardsAt + 4 * count;
+            movesAt = outcomesAt + 4 * count;
+        }
+
+    }
+
+}
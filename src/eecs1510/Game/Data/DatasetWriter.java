@@ -0,0 +1,279 @@
+package eecs1510.Game.Data;
+
+import eecs1510.Game.Direction;
+import eecs1510.Game.PackedBoard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams self-play records into a columnar dataset file.
+ *
+ * A record is the packed board before a move, the move that was played, the
+ * reward of the move (the value of all merged tiles) and the final score of
+ * the game it belongs to. All values are little-endian:
+ * <pre>
+ *   int    magic ("GDS1")
+ *   int    version
+ *   int    board size
+ *   int    reserved
+ *   blocks until the end of the file, each:
+ *     int    number of records n
+ *     int    reserved
+ *     long   n packed boards
+ *     int    n rewards
+ *     int    n final scores
+ *     byte   n ordinals of the played Direction
+ *     zero padding up to a multiple of 8 bytes
+ * </pre>
+ * Each column is collected in its own direct buffer. When the buffers are
+ * full, the block is written with a single gathering write, so the writer
+ * does one large sequential write per block and never copies into the heap.
+ *
+ * Games are written whole because the final score is only known once the game
+ * is over. Several threads can share a writer: each collects its game in its
+ * own <code>GameBuffer</code> and hands it over when the game ends.
+ */
+public class DatasetWriter implements Closeable
+{
+
+    static final int MAGIC = 0x31534447; // "GDS1" read as a little-endian int
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int BLOCK_HEADER_SIZE = 8;
+
+    /** The number of records in a full block, about 1 MB */
+    public static final int DEFAULT_BLOCK_RECORDS = 1 << 16;
+
+    private final FileChannel out;
+    private final int size;
+    private final int blockRecords;
+
+    private final ByteBuffer blockHeader;
+    private final ByteBuffer boards;
+    private final ByteBuffer rewards;
+    private final ByteBuffer outcomes;
+    private final ByteBuffer moves;
+    private final ByteBuffer padding;
+    private final ByteBuffer[] block;
+
+    private int count = 0;
+    private long records = 0;
+    private long games = 0;
+
+    /**
+     * Creates or truncates a dataset file
+     *
+     * @param path         the file to write
+     * @param size         the size of the recorded boards, which must fit into a <code>PackedBoard</code>
+     * @param blockRecords the number of records per block
+     * @throws IOException if the file could not be created
+     */
+    public DatasetWriter(String path, int size, int blockRecords) throws IOException
+    {
+        if (!PackedBoard.supports(size))
+        {
+            throw new IllegalArgumentException("Datasets can only hold boards that fit into a long, not " + size + "x" + size);
+        }
+        if (blockRecords < 1)
+        {
+            throw new IllegalArgumentException("A block must hold at least one record");
+        }
+
+        this.size = size;
+        this.blockRecords = blockRecords;
+
+        blockHeader = ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        boards = ByteBuffer.allocateDirect(8 * blockRecords).order(ByteOrder.LITTLE_ENDIAN);
+        rewards = ByteBuffer.allocateDirect(4 * blockRecords).order(ByteOrder.LITTLE_ENDIAN);
+        outcomes = ByteBuffer.allocateDirect(4 * blockRecords).order(ByteOrder.LITTLE_ENDIAN);
+        moves = ByteBuffer.allocateDirect(blockRecords);
+        padding = ByteBuffer.allocateDirect(8);
+        block = new ByteBuffer[]{blockHeader, boards, rewards, outcomes, moves, padding};
+
+        out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0).flip();
+        writeFully(header);
+    }
+
+    public DatasetWriter(String path, int size) throws IOException
+    {
+        this(path, size, DEFAULT_BLOCK_RECORDS);
+    }
+
+    /**
+     * Appends all records of a finished game
+     *
+     * @param game    the moves of the game
+     * @param outcome the final score of the game
+     * @throws IOException if a full block could not be written
+     */
+    public synchronized void write(GameBuffer game, int outcome) throws IOException
+    {
+        for (int i = 0; i < game.length; i++)
+        {
+            boards.putLong(game.boards[i]);
+            rewards.putInt(game.rewards[i]);
+            outcomes.putInt(outcome);
+            moves.put(game.moves[i]);
+
+            if (++count == blockRecords)
+            {
+                flush();
+            }
+        }
+
+        records += game.length;
+        games++;
+    }
+
+    /**
+     * @return the size of the recorded boards
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of records written so far
+     */
+    public synchronized long getRecords()
+    {
+        return records;
+    }
+
+    /**
+     * @return the number of games written so far
+     */
+    public synchronized long getGames()
+    {
+        return games;
+    }
+
+    /**
+     * Writes the last, partially filled block and closes the file
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            if (count > 0)
+            {
+                flush();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the collected columns as one block and empties the buffers
+     */
+    private void flush() throws IOException
+    {
+        blockHeader.clear();
+        blockHeader.putInt(count).putInt(0).flip();
+        boards.flip();
+        rewards.flip();
+        outcomes.flip();
+        moves.flip();
+        padding.clear().limit(paddingOf(count));
+
+        long remaining = blockSize(count);
+        while (remaining > 0)
+        {
+            remaining -= out.write(block);
+        }
+
+        boards.clear();
+        rewards.clear();
+        outcomes.clear();
+        moves.clear();
+        count = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * @param records the number of records in a block
+     * @return the size of the block in bytes, including its header and padding
+     */
+    static long blockSize(int records)
+    {
+        return BLOCK_HEADER_SIZE + 17L * records + paddingOf(records);
+    }
+
+    private static int paddingOf(int records)
+    {
+        return (8 - records % 8) % 8;
+    }
+
+    /**
+     * Collects the moves of a single game until its final score is known.
+     * Buffers are meant to be reused for one game after another.
+     */
+    public static class GameBuffer
+    {
+
+        private long[] boards = new long[512];
+        private int[] rewards = new int[512];
+        private byte[] moves = new byte[512];
+        private int length = 0;
+
+        /**
+         * Records a move
+         *
+         * @param board  the packed board before the move
+         * @param move   the move that was played
+         * @param reward the value of all tiles merged by the move
+         */
+        public void add(long board, Direction move, int reward)
+        {
+            if (length == boards.length)
+            {
+                boards = Arrays.copyOf(boards, 2 * length);
+                rewards = Arrays.copyOf(rewards, 2 * length);
+                moves = Arrays.copyOf(moves, 2 * length);
+            }
+
+            boards[length] = board;
+            rewards[length] = reward;
+            moves[length] = (byte) move.ordinal();
+            length++;
+        }
+
+        /**
+         * @return the number of recorded moves
+         */
+        public int getLength()
+        {
+            return length;
+        }
+
+        /**
+         * Forgets all recorded moves
+         */
+        public void clear()
+        {
+            length = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,228 @@
+package eecs1510.Game;
+
+import java.util.ArrayList;
+
+/**
+ * Runs two engines in lockstep and fails on the first difference between them.
+ *
+ * Every call is made on both engines. After each call that changes the board,
+ * the tiles, the hash, the state of the random number generator and the last
+ * spawned tile of both engines are compared. Results are taken from the
+ * reference engine. This makes it safe to try a new engine in real games
+ * before switching to it.
+ */
+public class DifferentialBoardEngine implements BoardEngine
+{
+
+    /**
+     * Thrown when the candidate engine does something the reference engine doesn't
+     */
+    public static class DivergenceException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public DivergenceException(String msg)
+        {
+            super(msg);
+        }
+    }
+
+    private final BoardEngine reference;
+    private final BoardEngine candidate;
+
+    /**
+     * @param reference the engine that is trusted, usually a <code>Board</code>
+     * @param candidate the engine under test. Must start in the same state as the reference
+     */
+    public DifferentialBoardEngine(BoardEngine reference, BoardEngine candidate)
+    {
+        this.reference = reference;
+        this.candidate = candidate;
+
+        compareBoards("creating the engines");
+    }
+
+    @Override
+    public int getSize()
+    {
+        return reference.getSize();
+    }
+
+    @Override
+    public String getSeed()
+    {
+        return reference.getSeed();
+    }
+
+    @Override
+    public long getRandomState()
+    {
+        return reference.getRandomState();
+    }
+
+    @Override
+    public long getHash()
+    {
+        return reference.getHash();
+    }
+
+    @Override
+    public int getElement(int row, int column)
+    {
+        return reference.getElement(row, column);
+    }
+
+    @Override
+    public int[][] getData()
+    {
+        return reference.getData();
+    }
+
+    @Override
+    public MoveResult squash(Direction d)
+    {
+        MoveResult expected = reference.squash(d);
+        MoveResult actual = candidate.squash(d);
+
+        if (expected.mergeCount != actual.mergeCount || expected.mergeValue != actual.mergeValue)
+        {
+            throw new DivergenceException("Squashing " + d + " merged " + actual.mergeCount + " tiles for " +
+                    actual.mergeValue + " points instead of " + expected.mergeCount + " tiles for " +
+                    expected.mergeValue + " points");
+        }
+        compareBoards("squashing " + d);
+
+        return expected;
+    }
+
+    @Override
+    public boolean placeRandom()
+    {
+        boolean expected = reference.placeRandom();
+        boolean actual = candidate.placeRandom();
+
+        if (expected != actual)
+        {
+            throw new DivergenceException("placeRandom() returned " + actual + " instead of " + expected);
+        }
+        compareBoards("placing a random tile");
+
+        return expected;
+    }
+
+    @Override
+    public void place(int row, int column, int value)
+    {
+        reference.place(row, column, value);
+        candidate.place(row, column, value);
+        compareBoards("placing a " + value + " at (" + row + ", " + column + ")");
+    }
+
+    @Override
+    public void setState(int[][] s)
+    {
+        reference.setState(s);
+        candidate.setState(s);
+        compareBoards("setting the state");
+    }
+
+    @Override
+    public int getLastSpawnCell()
+    {
+        return reference.getLastSpawnCell();
+    }
+
+    @Override
+    public int getLastSpawnValue()
+    {
+        return reference.getLastSpawnValue();
+    }
+
+    @Override
+    public ArrayList<int[]> getFreeCells()
+    {
+        return reference.getFreeCells();
+    }
+
+    @Override
+    public boolean isWon()
+    {
+        boolean expected = reference.isWon();
+        if (candidate.isWon() != expected)
+        {
+            throw new DivergenceException("isWon() returned " + !expected + " instead of " + expected + "\n" + describe());
+        }
+
+        return expected;
+    }
+
+    @Override
+    public boolean isLost()
+    {
+        boolean expected = reference.isLost();
+        if (candidate.isLost() != expected)
+        {
+            throw new DivergenceException("isLost() returned " + !expected + " instead of " + expected + "\n" + describe());
+        }
+
+        return expected;
+    }
+
+    @Override
+    public DifferentialBoardEngine copy()
+    {
+        return new DifferentialBoardEngine(reference.copy(), candidate.copy());
+    }
+
+    /**
+     * @throws DivergenceException if the engines don't hold the same board
+     */
+    private void compareBoards(String operation)
+    {
+        int size = reference.getSize();
+        boolean same = candidate.getSize() == size &&
+                candidate.getHash() == reference.getHash() &&
+                candidate.getRandomState() == reference.getRandomState() &&
+                candidate.getLastSpawnCell() == reference.getLastSpawnCell() &&
+                candidate.getLastSpawnValue() == reference.getLastSpawnValue();
+
+        for (int row = 0; same && row < size; row++)
+        {
+            for (int column = 0; same && column < size; column++)
+            {
+                same = candidate.getElement(row, column) == reference.getElement(row, column);
+            }
+        }
+
+        if (!same)
+        {
+            throw new DivergenceException("The engines diverged after " + operation + "\n" + describe());
+        }
+    }
+
+    private String describe()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (BoardEngine engine : new BoardEngine[]{reference, candidate})
+        {
+            sb.append(engine == reference ? "reference " : "candidate ").append(engine.getClass().getSimpleName())
+              .append(": hash=").append(Long.toHexString(engine.getHash()))
+              .append(" rng=").append(Long.toHexString(engine.getRandomState()))
+              .append(" spawn=").append(engine.getLastSpawnCell()).append('/').append(engine.getLastSpawnValue())
+              .append(" tiles=");
+
+            for (int row = 0; row < engine.getSize(); row++)
+            {
+                for (int column = 0; column < engine.getSize(); column++)
+                {
+                    if (row + column > 0) sb.append(',');
+                    sb.append(engine.getElement(row, column));
+                }
+            }
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+}
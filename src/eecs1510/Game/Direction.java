@@ -20,6 +20,24 @@ public enum Direction
     private static final char[][] EAST_CHARS  = {{'r', '6'}, {'d', 'l'}};
     private static final char[][] WEST_CHARS  = {{'l', '4'}, {'a', 'j'}};
 
+    /** The direction of every ASCII key, for the legacy and the WASD keys */
+    private static final Direction[][] KEYS = new Direction[2][128];
+
+    static
+    {
+        for (int mode = 0; mode < KEYS.length; mode++)
+        {
+            for (Direction d : values())
+            {
+                for (char c : getCharactersFor(d, mode))
+                {
+                    // Keep the first direction a key was assigned to
+                    if (KEYS[mode][c] == null) KEYS[mode][c] = d;
+                }
+            }
+        }
+    }
+
     /**
      * For a given character, returns a direction vector corresponding to that character
      *
@@ -29,40 +47,13 @@ public enum Direction
      */
     public static Direction parse(char c) throws IllegalArgumentException
     {
-
-        for (char d : NORTH_CHARS[legacyInput ? 0 : 1])
+        Direction d = c < 128 ? KEYS[legacyInput ? 0 : 1][c] : null;
+        if (d == null)
         {
-            if (c == d)
-            {
-                return NORTH;
-            }
+            throw new IllegalArgumentException("Unknown Direction for code " + c);
         }
 
-        for (char d : SOUTH_CHARS[legacyInput ? 0 : 1])
-        {
-            if (c == d)
-            {
-                return SOUTH;
-            }
-        }
-
-        for (char d : EAST_CHARS[legacyInput ? 0 : 1])
-        {
-            if (c == d)
-            {
-                return EAST;
-            }
-        }
-
-        for (char d : WEST_CHARS[legacyInput ? 0 : 1])
-        {
-            if (c == d)
-            {
-                return WEST;
-            }
-        }
-
-        throw new IllegalArgumentException("Unknown Direction for code " + c);
+        return d;
     }
 
     /**
@@ -70,13 +61,18 @@ public enum Direction
      * @return The characters that identify the given direction
      */
     public static char[] getCharactersFor(Direction d)
+    {
+        return getCharactersFor(d, legacyInput ? 0 : 1);
+    }
+
+    private static char[] getCharactersFor(Direction d, int mode)
     {
         switch(d)
         {
-            case NORTH: return NORTH_CHARS[legacyInput ? 0: 1];
-            case SOUTH: return SOUTH_CHARS[legacyInput ? 0 : 1];
-            case EAST: return EAST_CHARS[legacyInput ? 0 : 1];
-            case WEST: return WEST_CHARS[legacyInput ? 0 : 1];
+            case NORTH: return NORTH_CHARS[mode];
+            case SOUTH: return SOUTH_CHARS[mode];
+            case EAST: return EAST_CHARS[mode];
+            case WEST: return WEST_CHARS[mode];
             default: return new char[]{};
         }
     }
@@ -0,0 +1,126 @@
+package eecs1510.Game.Events;
+
+import eecs1510.Game.Direction;
+
+/**
+ * Something that happened in a game.
+ *
+ * Events live in the slots of a <code>GameEventBus</code> and are reused once
+ * every listener has seen them, so listeners must copy anything they want to
+ * keep before they return. Which fields are meaningful depends on the type:
+ * <pre>
+ *   MOVE   direction, count (tiles merged), value (score gained)
+ *   MERGE  count (tiles merged), value (score gained)
+ *   SPAWN  row, column, value (the new tile)
+ *   UNDO, REDO, WON, LOST  only the common fields
+ * </pre>
+ */
+public class GameEvent
+{
+
+    public enum Type
+    {
+        MOVE,
+        SPAWN,
+        MERGE,
+        UNDO,
+        REDO,
+        WON,
+        LOST
+    }
+
+    /** The position of the event in the stream of its bus */
+    long sequence;
+
+    Type type;
+    /** The number of moves taken in the game when the event happened */
+    int moveNumber;
+    /** The score of the game when the event happened */
+    int score;
+    Direction direction;
+    int row;
+    int column;
+    int value;
+    int count;
+    /** When the event was published, in <code>System.nanoTime()</code> units */
+    long timestamp;
+
+    GameEvent() {}
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public int getMoveNumber()
+    {
+        return moveNumber;
+    }
+
+    public int getScore()
+    {
+        return score;
+    }
+
+    public Direction getDirection()
+    {
+        return direction;
+    }
+
+    public int getRow()
+    {
+        return row;
+    }
+
+    public int getColumn()
+    {
+        return column;
+    }
+
+    public int getValue()
+    {
+        return value;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(64)
+                .append(sequence).append(' ').append(type)
+                .append(" move=").append(moveNumber)
+                .append(" score=").append(score);
+
+        switch(type)
+        {
+            case MOVE:
+                sb.append(" direction=").append(direction).append(" merged=").append(count).append(" gained=").append(value);
+                break;
+            case MERGE:
+                sb.append(" merged=").append(count).append(" gained=").append(value);
+                break;
+            case SPAWN:
+                sb.append(" row=").append(row).append(" column=").append(column).append(" value=").append(value);
+                break;
+            default:
+                break;
+        }
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,297 @@
+package eecs1510.Game.Events;
+
+import eecs1510.Game.Direction;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers the events of a game to listeners on a separate thread.
+ *
+ * Events are written into a preallocated ring of <code>GameEvent</code> slots
+ * by a single producer (the thread playing the game), so publishing an event
+ * allocates nothing and takes no locks. The bus thread hands every event that
+ * is available to each listener in turn and only then marks the slots as
+ * free, so listeners see events in batches when they fall behind.
+ *
+ * When listeners are so slow that the ring is full, the
+ * <code>OverflowPolicy</code> decides what happens to new events: they are
+ * either dropped and counted, so the game never waits, or the producer waits
+ * for a free slot.
+ */
+public class GameEventBus implements AutoCloseable
+{
+
+    /** The default number of slots in the ring */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** How long the bus thread sleeps when there are no events, unless it is woken by a new one */
+    private static final long IDLE_NANOS = 1_000_000L;
+    /** How long the producer sleeps while it waits for a free slot */
+    private static final long BACKOFF_NANOS = 10_000L;
+
+    public enum OverflowPolicy
+    {
+        /** Drop new events while the ring is full. The game never waits for listeners */
+        DROP,
+        /** Wait until listeners free a slot. No event is lost, but a slow listener slows the game down */
+        BLOCK
+    }
+
+    private final GameEvent[] ring;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    /** The number of events published so far. Only written by the producer */
+    private final AtomicLong published = new AtomicLong();
+    /** The number of events every listener has seen. Only written by the bus thread */
+    private final AtomicLong consumed = new AtomicLong();
+    /** The number of events dropped because the ring was full. Only written by the producer */
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile GameEventListener[] listeners = new GameEventListener[0];
+    private volatile boolean sleeping = false;
+    private volatile boolean closed = false;
+
+    private final Thread thread;
+
+    public GameEventBus()
+    {
+        this(DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    /**
+     * Creates a bus and starts its thread
+     *
+     * @param capacity the number of slots in the ring. Rounded up to a power of two
+     * @param policy   what happens to new events while the ring is full
+     */
+    public GameEventBus(int capacity, OverflowPolicy policy)
+    {
+        int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.ring = new GameEvent[slots];
+        for (int i = 0; i < slots; i++)
+        {
+            ring[i] = new GameEvent();
+        }
+        this.mask = slots - 1;
+        this.policy = policy;
+
+        this.thread = new Thread(this::consume, "game-events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers a listener. It receives the events published from now on
+     *
+     * @param listener the listener to add
+     */
+    public synchronized void addListener(GameEventListener listener)
+    {
+        GameEventListener[] current = listeners;
+        GameEventListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Publishes an event that only has the common fields, like <code>UNDO</code> or <code>LOST</code>
+     *
+     * @return false if the event was dropped
+     */
+    public boolean publish(GameEvent.Type type, int moveNumber, int score)
+    {
+        GameEvent e = claim(type, moveNumber, score);
+        if (e == null)
+        {
+            return false;
+        }
+
+        commit(e);
+        return true;
+    }
+
+    /**
+     * Publishes a <code>MOVE</code> event
+     *
+     * @return false if the event was dropped
+     */
+    public boolean publishMove(int moveNumber, int score, Direction direction, int merged, int gained)
+    {
+        GameEvent e = claim(GameEvent.Type.MOVE, moveNumber, score);
+        if (e == null)
+        {
+            return false;
+        }
+
+        e.direction = direction;
+        e.count = merged;
+        e.value = gained;
+        commit(e);
+        return true;
+    }
+
+    /**
+     * Publishes a <code>MERGE</code> event
+     *
+     * @return false if the event was dropped
+     */
+    public boolean publishMerge(int moveNumber, int score, int merged, int gained)
+    {
+        GameEvent e = claim(GameEvent.Type.MERGE, moveNumber, score);
+        if (e == null)
+        {
+            return false;
+        }
+
+        e.count = merged;
+        e.value = gained;
+        commit(e);
+        return true;
+    }
+
+    /**
+     * Publishes a <code>SPAWN</code> event
+     *
+     * @return false if the event was dropped
+     */
+    public boolean publishSpawn(int moveNumber, int score, int row, int column, int value)
+    {
+        GameEvent e = claim(GameEvent.Type.SPAWN, moveNumber, score);
+        if (e == null)
+        {
+            return false;
+        }
+
+        e.row = row;
+        e.column = column;
+        e.value = value;
+        commit(e);
+        return true;
+    }
+
+    /**
+     * @return the number of events published so far
+     */
+    public long getPublished()
+    {
+        return published.get();
+    }
+
+    /**
+     * @return the number of events dropped because the ring was full
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Delivers the remaining events and stops the bus thread. Events published
+     * afterwards are dropped
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        LockSupport.unpark(thread);
+
+        try
+        {
+            thread.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Finds the slot for the next event and fills in the common fields
+     *
+     * @return the slot, or null if the event has to be dropped
+     */
+    private GameEvent claim(GameEvent.Type type, int moveNumber, int score)
+    {
+        long sequence = published.get();
+        while (closed || sequence - consumed.get() > mask)
+        {
+            if (closed || policy == OverflowPolicy.DROP)
+            {
+                dropped.lazySet(dropped.get() + 1);
+                return null;
+            }
+
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(BACKOFF_NANOS);
+        }
+
+        GameEvent e = ring[(int) sequence & mask];
+        e.sequence = sequence;
+        e.type = type;
+        e.moveNumber = moveNumber;
+        e.score = score;
+        e.direction = null;
+        e.row = e.column = e.value = e.count = 0;
+        e.timestamp = System.nanoTime();
+        return e;
+    }
+
+    /**
+     * Makes a filled slot visible to the bus thread
+     */
+    private void commit(GameEvent e)
+    {
+        published.lazySet(e.sequence + 1);
+        if (sleeping)
+        {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * The loop of the bus thread
+     */
+    private void consume()
+    {
+        long next = 0;
+        while (true)
+        {
+            long available = published.get();
+            if (next == available)
+            {
+                if (closed && available == published.get())
+                {
+                    return;
+                }
+
+                sleeping = true;
+                if (published.get() == available && !closed)
+                {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+                sleeping = false;
+                continue;
+            }
+
+            GameEventListener[] current = listeners;
+            for (; next < available; next++)
+            {
+                GameEvent e = ring[(int) next & mask];
+                for (GameEventListener listener : current)
+                {
+                    try
+                    {
+                        listener.onEvent(e, next + 1 == available);
+                    } catch(RuntimeException ex) {
+                        System.err.println("Event listener failed: " + ex.getMessage());
+                        ex.printStackTrace();
+                    }
+                }
+            }
+
+            consumed.lazySet(next);
+        }
+    }
+
+}
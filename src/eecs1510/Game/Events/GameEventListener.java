@@ -0,0 +1,19 @@
+package eecs1510.Game.Events;
+
+/**
+ * Receives the events of a <code>GameEventBus</code> on the thread of the bus
+ */
+public interface GameEventListener
+{
+
+    /**
+     * Called once for every event, in the order they were published
+     *
+     * @param event      the event. It is reused after this method returns
+     * @param endOfBatch true if this is the last event that was available when
+     *                   the batch started. Listeners that buffer output should
+     *                   flush here
+     */
+    void onEvent(GameEvent event, boolean endOfBatch);
+
+}
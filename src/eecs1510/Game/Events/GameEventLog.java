@@ -0,0 +1,30 @@
+package eecs1510.Game.Events;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Writes one line per event. Output is only flushed at the end of each batch,
+ * so a busy game costs one write per batch instead of one per event.
+ */
+public class GameEventLog implements GameEventListener
+{
+
+    private final PrintWriter out;
+
+    public GameEventLog(Writer out)
+    {
+        this.out = new PrintWriter(out, false);
+    }
+
+    @Override
+    public void onEvent(GameEvent event, boolean endOfBatch)
+    {
+        out.println(event);
+        if (endOfBatch)
+        {
+            out.flush();
+        }
+    }
+
+}
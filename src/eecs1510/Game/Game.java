@@ -1,8 +1,18 @@
 package eecs1510.Game;
 
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Scanner;
+import eecs1510.Game.AI.BlunderAnalysis;
+import eecs1510.Game.AI.HintService;
+import eecs1510.Game.AI.MovePolicies;
+import eecs1510.Game.AI.OpeningBook;
+import eecs1510.Game.Events.GameEvent;
+import eecs1510.Game.Events.GameEventBus;
+import eecs1510.Game.Events.GameEventLog;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 
 /**
  * Created by nathan on 2/12/15
@@ -19,27 +29,56 @@ public class Game
     public static final char RESTART = 'r';
     public static final char UNDO = 'z';
     public static final char REDO = 'y';
+    public static final char HINT = 'n';
+    public static final char BRANCH = 'b';
     /* ==================================== */
 
     /** The default size of the undo buffer */
     public static final int DEFAULT_UNDO_SIZE = 1;
 
-    /** Acts as a ring buffer for the game state, limited by the maximum undo count */
-    private final LinkedList<GameState> history = new LinkedList<>();
+    /** Every position of the game, limited by the maximum undo count. Started with the first move */
+    private HistoryTree history = null;
     /** The maximum number fo turns the user is allowed to undo */
     private int maxUndoCount = DEFAULT_UNDO_SIZE;
-    /** Acts as a ring buffer for the game state. When a move is undone, the game state is pushed into the buffer */
-    private final LinkedList<GameState> redoHistory = new LinkedList<>();
     /** Whether or not the user is allowed to redo undone moves */
     private boolean allowRedo = false;
 
     /** The game board associated with the current game */
-    private Board gameBoard;
+    private BoardEngine gameBoard;
+    /** The name of the engine new game boards are created with. See <code>BoardEngines</code> */
+    private String engine = BoardEngines.REFERENCE;
+    /** Whether or not to run the engine in lockstep with the reference engine */
+    private boolean differential = false;
+
+    /** Where the game loop reads keys from */
+    private InputStream in = System.in;
+    /** Whether to read keys as soon as they are pressed when playing on a terminal */
+    private boolean rawInput = true;
+    /** The keys of the running game loop */
+    private KeyReader keys = null;
+    /** Where the game board and all messages are printed to */
+    private PrintStream out = System.out;
 
     /** Whether or not to try to clear the screen each turn */
     private boolean clearScreenEachTurn = false;
     /** Whether or not to display statistics next to the game board*/
     private boolean displayStats = true;
+    /** If set, the computer plays the game using this policy instead of reading keys */
+    private MovePolicy autoplay = null;
+    /** If set, everything that happens in the game is published here */
+    private GameEventBus events = null;
+    /** Whether to search for hints in the background while playing interactively */
+    private boolean showHints = false;
+    /** The background search, while the game loop is running with hints enabled */
+    private HintService hints = null;
+    /** If set, hints for the positions it covers are looked up here instead of searched */
+    private OpeningBook book = null;
+    /** Whether to list the worst moves of the game once it is over */
+    private boolean analyze = false;
+    /** The moves played so far, while the game loop is running with analysis enabled */
+    private GameRecord record = null;
+    /** Where other threads can watch the game */
+    private final GameSnapshots snapshots = new GameSnapshots();
     /** Whether or not the user has lost */
     private boolean lost = false;
     /** Whether or not we have told the user they have won yet */
@@ -84,9 +123,65 @@ public class Game
               .addSwitch("WASD", "Use WASD/IJKL instead of ULDR/8462 for movement", () -> Direction.useLegacyInput(false))
               .addSwitch("noStats", "Don't display stats", () -> g.displayStats = false)
               .addSwitch("clear", "Attempt to clear the display each turn", () -> g.clearScreenEachTurn = true)
-              .parse(args);
+              .addSwitch("lineInput", "Wait for Enter after every key instead of reading keys as soon as they are pressed", () -> g.rawInput = false)
+              .add("autoplay", "Let the computer play using the specified n-tuple weights, solved table or opening book", (f) -> {
+                try {
+                    g.autoplay = MovePolicies.load(f);
+                } catch(IOException e) {
+                    System.err.println("Unable to load " + f + ": " + e.getMessage());
+                }
+            }).add("engine", "The board engine to play with: " + String.join(", ", BoardEngines.NAMES) + " (Default: " + BoardEngines.REFERENCE + ")", (e) -> {
+                g.engine = e;
+            }).addSwitch("differential", "Run the engine in lockstep with the reference engine and stop if they disagree", () -> g.differential = true)
+              .addSwitch("hints", "Search for the best move in the background and show it with " + HINT, () -> g.showHints = true)
+              .add("book", "Show hints from the specified opening book (written by OpeningBook) while the game is in it", (f) -> {
+                try {
+                    g.book = OpeningBook.map(f);
+                } catch(IOException e) {
+                    System.err.println("Unable to load " + f + ": " + e.getMessage());
+                }
+            }).addSwitch("analyze", "List the moves that gave away the most value when the game is over", () -> g.analyze = true)
+              .add("events", "Log every move, spawn, merge, undo and redo to the specified file", (f) -> {
+                try {
+                    g.events = new GameEventBus();
+                    g.events.addListener(new GameEventLog(new BufferedWriter(new FileWriter(f))));
+                } catch(IOException e) {
+                    System.err.println("Unable to open " + f + ": " + e.getMessage());
+                    g.events = null;
+                }
+            }).parse(args);
+
+            try
+            {
+                g.gameBoard = g.newBoard(g.gameBoard.getSize(), g.gameBoard.getSeed());
+                g.publish();
+            } catch(IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+
+            if (g.autoplay != null && !g.autoplay.supports(g.gameBoard.getSize()))
+            {
+                System.err.println("The autoplay policy can't play on a board of size " + g.gameBoard.getSize());
+                return;
+            }
 
             g.run();
+
+            if (g.events != null)
+            {
+                g.events.close();
+                if (g.events.getDropped() > 0)
+                {
+                    System.err.println(g.events.getDropped() + " events could not be logged in time and were dropped");
+                }
+            }
+
+            // If the user lost before winning, let scripts know
+            if (g.lost && !g.gameBoard.isWon())
+            {
+                System.exit(-1);
+            }
         } catch(Randomizer.InvalidSeedException e) {
             System.err.println("Unable to set seed");
             e.printStackTrace();
@@ -95,12 +190,136 @@ public class Game
 
     public Game() throws Randomizer.InvalidSeedException
     {
-        gameBoard = new Board();
+        gameBoard = newBoard(Board.DEFAULT_SIZE, Randomizer.randomSeed());
+        publish();
     }
 
     public Game(String seed) throws Randomizer.InvalidSeedException
     {
-        gameBoard = new Board(seed);
+        gameBoard = newBoard(Board.DEFAULT_SIZE, seed);
+        publish();
+    }
+
+    public Game(int size, String seed) throws Randomizer.InvalidSeedException
+    {
+        gameBoard = newBoard(size, seed);
+        publish();
+    }
+
+    /**
+     * @param size   the size of the game board
+     * @param seed   the seed of the game
+     * @param engine the name of the board engine to play with. See <code>BoardEngines</code>
+     * @throws IllegalArgumentException if the engine is unknown or doesn't support the size
+     */
+    public Game(int size, String seed, String engine) throws Randomizer.InvalidSeedException
+    {
+        this.engine = engine;
+        gameBoard = newBoard(size, seed);
+        publish();
+    }
+
+    /**
+     * Resumes a game that was stored somewhere. The undo history is not restored
+     *
+     * @param board               the game board, including the state of its random number generator
+     * @param score               the total score so far
+     * @param totalMoves          the total number of moves taken so far
+     * @param totalMerged         the total number of merged tiles so far
+     * @param totalMergedThisTurn the number of tiles merged during the last turn
+     * @param lost                whether or not the user has lost
+     * @param endless             whether or not the game is in endless mode
+     */
+    public Game(BoardEngine board, int score, int totalMoves, int totalMerged, int totalMergedThisTurn, boolean lost, boolean endless)
+    {
+        this.gameBoard = board;
+        this.score = score;
+        this.totalMoves = totalMoves;
+        this.totalMerged = totalMerged;
+        this.totalMergedThisTurn = totalMergedThisTurn;
+        this.lost = lost;
+        this.notifiedWon = endless;
+        publish();
+    }
+
+    /**
+     * Redirects the input and output of the game, so it can be played somewhere
+     * other than the console (for example over a network connection)
+     *
+     * @param in  where the game loop reads keys from
+     * @param out where the game board and all messages are printed to
+     */
+    public void setConsole(InputStream in, PrintStream out)
+    {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Publishes everything that happens in this game to the specified bus. Only
+     * the thread playing the game may publish to it
+     *
+     * @param events the bus to publish to, or null to stop publishing
+     */
+    public void setEventBus(GameEventBus events)
+    {
+        this.events = events;
+    }
+
+    /**
+     * @return the game board associated with the current game
+     */
+    public BoardEngine getBoard()
+    {
+        return gameBoard;
+    }
+
+    /**
+     * @return the total score so far
+     */
+    public int getScore()
+    {
+        return score;
+    }
+
+    /**
+     * @return the total number of moves taken so far
+     */
+    public int getTotalMoves()
+    {
+        return totalMoves;
+    }
+
+    /**
+     * @return the total number of merged tiles so far
+     */
+    public int getTotalMerged()
+    {
+        return totalMerged;
+    }
+
+    /**
+     * @return the total number of tiles merged during the last turn
+     */
+    public int getTotalMergedThisTurn()
+    {
+        return totalMergedThisTurn;
+    }
+
+    /**
+     * @return true if there are no more moves left to be made
+     */
+    public boolean isLost()
+    {
+        return lost;
+    }
+
+    /**
+     * @return true if the game is in endless mode, because the user has already won or asked for it
+     */
+    public boolean isEndless()
+    {
+        return notifiedWon;
     }
 
     /**
@@ -111,7 +330,7 @@ public class Game
     private void resize(int size)
     {
         try {
-            gameBoard = new Board(size, gameBoard.getSeed());
+            gameBoard = newBoard(size, gameBoard.getSeed());
         } catch(Randomizer.InvalidSeedException ignore) {
             // The seed of the existing game board is always valid
         }
@@ -132,19 +351,29 @@ public class Game
             return;
         }
 
-        gameBoard = new Board(gameBoard.getSize(), seed);
+        gameBoard = newBoard(gameBoard.getSize(), seed);
 
         resetStats();
     }
 
+    /**
+     * Creates a game board with the engine of this game
+     */
+    private BoardEngine newBoard(int size, String seed) throws Randomizer.InvalidSeedException
+    {
+        return BoardEngines.create(engine, differential, size, seed);
+    }
+
     /**
      * Resets all tracked statistics
      */
     private void resetStats()
     {
+        history = null;
         totalMoves = totalMerged = 0;
         lost = false;
         notifiedWon = false;
+        publish();
     }
 
     /**
@@ -152,37 +381,34 @@ public class Game
      */
     public GameState getState()
     {
-        return new GameState(arrayCopy2d(gameBoard.getData()), score, totalMoves, totalMerged, totalMergedThisTurn);
+        return new GameState(arrayCopy2d(gameBoard.getData()), gameBoard.getHash(), score, totalMoves, totalMerged, totalMergedThisTurn);
     }
 
     /**
-     * Pushes a copy of the game state onto the history stack if it does not
-     * match the copy at the top of the stack
+     * @return the snapshots of this game, which any thread may read at any time
+     *         without slowing the game down
      */
-    public void takeSnapshot()
+    public GameSnapshots getSnapshots()
     {
-        if (maxUndoCount != 0 && (history.isEmpty() || !Arrays.deepEquals(history.peek().board, gameBoard.getData())))
-        {
-            history.push(getState());
-            if(maxUndoCount > 0)
-            {
-                trimListToSize(history, maxUndoCount);
-            }
-        }
+        return snapshots;
     }
 
     /**
-     * Trims the specified list to the specified size, removing elements on the tail-end of the list
-     *
-     * @param list the list to trim
-     * @param maxSize the size the list should be
+     * Publishes the current state of the game to its snapshots
      */
-    private static void trimListToSize(LinkedList<?> list, int maxSize)
+    private void publish()
     {
-        while(list.size() > maxSize)
-        {
-            list.removeLast();
-        }
+        snapshots.publish(gameBoard, score, totalMoves, totalMerged, lost);
+    }
+
+    /**
+     * @return the undo history of the game, which starts with the first move
+     *         and has a branch for every move played after an undo. Null
+     *         before the first move
+     */
+    public HistoryTree getHistory()
+    {
+        return history;
     }
 
     /**
@@ -205,58 +431,208 @@ public class Game
     }
 
     /**
-     * Pushes the current game state data onto the Redo stack and restores
-     * the copy of the game state from the top of the history stack
+     * Restores the position before the current one. The current position
+     * stays in the history, so it can be redone
      */
     public boolean undo()
     {
-        if (history.size() > 0)
+        HistoryTree.Node node = history == null ? null : history.undo();
+        if (node == null)
         {
-            redoHistory.push(getState());
-            if(maxUndoCount > 0)
-            {
-                trimListToSize(redoHistory, maxUndoCount);
-            }
+            return false;
+        }
 
-            GameState state = history.pop();
+        restore(node);
+        if (events != null) events.publish(GameEvent.Type.UNDO, totalMoves, score);
+        if (hints != null) hints.reset(gameBoard);
 
-            gameBoard.setState(arrayCopy2d(state.board));
-            score = state.score;
-            totalMoves = state.totalMoves;
-            totalMerged = state.totalMerged;
-            totalMergedThisTurn = state.totalMergedThisTurn;
+        return true;
+    }
 
-            return true;
-        } else {
+    /**
+     * Restores the position after the current one, on the branch that was
+     * played or undone most recently, or chosen with <code>nextBranch()</code>
+     */
+    public boolean redo()
+    {
+        if (!allowRedo || history == null || !stepForward())
+        {
             return false;
         }
+
+        if (events != null) events.publish(GameEvent.Type.REDO, totalMoves, score);
+        if (hints != null) hints.reset(gameBoard);
+
+        return true;
     }
 
     /**
-     * Pushes the current game state data onto the history stack and restores
-     * the copy of the game state from the top of the redo stack
+     * Makes redo follow the next branch played from the current position
+     *
+     * @return the position redo follows now, or null if there is nothing to redo
      */
-    public boolean redo()
+    public HistoryTree.Node nextBranch()
     {
-        if (allowRedo && redoHistory.size() > 0)
+        return history == null ? null : history.nextBranch();
+    }
+
+    /**
+     * Jumps to any position kept in the history, undoing moves back to the
+     * last position it shares with the current line and redoing the moves
+     * of its own line from there. Works even if redo is disabled
+     *
+     * @param target a position from <code>getHistory()</code>
+     * @return false if the position is no longer kept
+     */
+    public boolean jumpTo(HistoryTree.Node target)
+    {
+        if (history == null || !history.contains(target))
+        {
+            return false;
+        }
+
+        HistoryTree.Node common = history.commonAncestor(target);
+        while (history.getCurrent() != common)
+        {
+            restore(history.undo());
+            if (events != null) events.publish(GameEvent.Type.UNDO, totalMoves, score);
+        }
+
+        history.select(target);
+        while (history.getCurrent() != target)
+        {
+            stepForward();
+            if (events != null) events.publish(GameEvent.Type.REDO, totalMoves, score);
+        }
+
+        if (hints != null) hints.reset(gameBoard);
+        return true;
+    }
+
+    /**
+     * Redoes the next move of the history, recording it again since it may
+     * be on a different branch than the one that was undone
+     */
+    private boolean stepForward()
+    {
+        long before = record != null ? record.pack(gameBoard) : 0;
+        HistoryTree.Node node = history.redo();
+        if (node == null)
+        {
+            return false;
+        }
+
+        if (record != null) record.add(node.getTotalMoves() - 1, before, node.getMove());
+        restore(node);
+        return true;
+    }
+
+    /**
+     * Sets the board, score and statistics to those of a position in the
+     * history, and drops the moves after it from the record
+     */
+    private void restore(HistoryTree.Node node)
+    {
+        gameBoard.setState(history.getBoard(node));
+        score = node.getScore();
+        totalMoves = node.getTotalMoves();
+        totalMerged = node.getTotalMerged();
+        totalMergedThisTurn = node.getTotalMergedThisTurn();
+        if (record != null) record.truncate(totalMoves);
+        publish();
+    }
+
+    /**
+     * Squashes the board in the specified direction and places a random tile,
+     * updating the score, statistics and undo history. Nothing is printed.
+     *
+     * @param d the direction to squash the board in
+     * @return the result of the squash. If the move was invalid and the board is
+     *         full, or if no move is possible after the new tile was placed,
+     *         <code>isLost()</code> is true afterwards
+     */
+    public MoveResult move(Direction d)
+    {
+        if (history == null)
+        {
+            history = new HistoryTree(gameBoard, score, totalMoves, totalMerged, totalMergedThisTurn, maxUndoCount);
+        }
+        long before = record != null ? record.pack(gameBoard) : 0;
+        boolean wasWon = events != null && gameBoard.isWon();
+        MoveResult turn = gameBoard.squash(d);
+
+        if (turn.isInvalid())
+        {
+            if(gameBoard.getFreeCells().isEmpty()){
+                lost = true;
+                if (events != null) events.publish(GameEvent.Type.LOST, totalMoves, score);
+            }
+
+            totalMergedThisTurn = 0;
+            publish();
+            return turn;
+        }
+
+        if (record != null) record.add(totalMoves, before, d);
+
+        // Update Statistics
+        totalMergedThisTurn = turn.mergeCount;
+        totalMerged += totalMergedThisTurn;
+        score += turn.mergeValue;
+        totalMoves++;
+
+        boolean placed = gameBoard.placeRandom();
+        if (!placed || gameBoard.isLost())
         {
-            history.push(getState());
-            if(maxUndoCount > 0)
+            lost = true;
+        }
+
+        history.add(d, gameBoard, score, totalMoves, totalMerged, totalMergedThisTurn);
+        publish();
+
+        if (hints != null)
+        {
+            if (placed)
             {
-                trimListToSize(history, maxUndoCount);
+                hints.advance(d, gameBoard);
+            } else {
+                hints.reset(gameBoard);
             }
+        }
 
-            GameState state = redoHistory.pop();
+        if (events != null)
+        {
+            publishTurn(d, turn, placed, wasWon);
+        }
 
-            gameBoard.setState(arrayCopy2d(state.board));
-            score = state.score;
-            totalMoves = state.totalMoves;
-            totalMerged = state.totalMerged;
-            totalMergedThisTurn = state.totalMergedThisTurn;
+        return turn;
+    }
 
-            return true;
-        } else {
-            return false;
+    /**
+     * Publishes the events of a valid move
+     */
+    private void publishTurn(Direction d, MoveResult turn, boolean placed, boolean wasWon)
+    {
+        events.publishMove(totalMoves, score, d, turn.mergeCount, turn.mergeValue);
+        if (turn.mergeCount > 0)
+        {
+            events.publishMerge(totalMoves, score, turn.mergeCount, turn.mergeValue);
+        }
+
+        if (placed)
+        {
+            int cell = gameBoard.getLastSpawnCell();
+            events.publishSpawn(totalMoves, score, cell / gameBoard.getSize(), cell % gameBoard.getSize(), gameBoard.getLastSpawnValue());
+        }
+
+        if (!wasWon && gameBoard.isWon())
+        {
+            events.publish(GameEvent.Type.WON, totalMoves, score);
+        }
+
+        if (lost)
+        {
+            events.publish(GameEvent.Type.LOST, totalMoves, score);
         }
     }
 
@@ -265,117 +641,271 @@ public class Game
      */
     public void run()
     {
-        try(Scanner s = new Scanner(System.in))
+        startHints();
+        startRecording();
+
+        try(KeyReader k = KeyReader.open(in, rawInput))
         {
+            keys = k;
 
             // If we run into a problem, store the message here and warn the user the next cycle
             String warning = "";
 
             while(!lost)
             {
-                // Clear Screen on compatible terminals if enabled
-                clearScreen();
-
-                printBoard();
-                System.out.println("");
-
-                // Print a warning if we have one
-                if (!warning.isEmpty())
+                // Apply the keys pressed while the last frame was drawn before drawing the next one
+                boolean typeahead = autoplay == null && keys.hasTypeahead();
+                if (!typeahead)
                 {
-                    System.out.println(warning);
-                    warning = "";
-                }
+                    // Clear Screen on compatible terminals if enabled
+                    clearScreen();
 
-                // Prompt for and read the next key
-                System.out.print((notifiedWon ? "[ENDLESS] " : "") + "2048 (h for help)> ");
-                String input = s.next().toLowerCase();
-                char code = input.charAt(0);
+                    printBoard();
+                    out.println("");
 
-                if (input.length() > 1)
-                {
-                    warning += "WARNING: More than one character entered. Ignoring everything except the first\n";
+                    // Print a warning if we have one
+                    if (!warning.isEmpty())
+                    {
+                        out.println(warning);
+                        warning = "";
+                    }
                 }
 
-                if (code == QUIT)
+                Direction d;
+                if (autoplay != null)
                 {
-                    System.out.println("Quitting after " + totalMoves + " moves. You managed to merge " +
-                                                          totalMerged + " cells for a score of " + score);
-                    break;
-                } else if (code == HELP || code == HELP_ALT) {
-                    clearScreen();
-                    printInGameHelp();
-                    s.next();
-                    continue;
-                } else if (code == RESTART) {
-                    clearScreen();
-                    gameBoard = new Board();
-                    resetStats();
-                    continue;
-                } else if (code == UNDO) {
-                    if(!undo())
+                    d = autoplay.nextMove(gameBoard);
+                    if (d == null)
                     {
-                        warning += "Nothing to undo";
+                        out.println("No valid moves left. Quitting after " + totalMoves + " moves with a score of " + score);
+                        break;
                     }
-                    continue;
-                } else if (code == REDO && allowRedo) {
-                    if(!redo())
+                } else {
+                    // Prompt for and read the next key
+                    if (!typeahead) out.print((notifiedWon ? "[ENDLESS] " : "") + "2048 (h for help)> ");
+                    String input = nextKey();
+                    char code = input == null ? QUIT : Character.toLowerCase(input.charAt(0));
+
+                    if (input != null && input.length() > 1)
                     {
-                        warning += "Nothing to redo";
+                        warning += "WARNING: More than one character entered. Ignoring everything except the first\n";
                     }
-                    continue;
-                }
-
-                try
-                {
-                    Direction d = Direction.parse(code);
-
-                    takeSnapshot();
-                    MoveResult turn = gameBoard.squash(d);
-
-                    totalMergedThisTurn = turn.mergeCount;
 
-                    if (turn.isInvalid())
+                    if (code == QUIT)
                     {
-                        if(gameBoard.getFreeCells().isEmpty()){
-                            lost = true;
-                            printLostNotification();
-                            continue;
+                        stopHints();
+                        out.println("Quitting after " + totalMoves + " moves. You managed to merge " +
+                                                              totalMerged + " cells for a score of " + score);
+                        break;
+                    } else if (code == HELP || code == HELP_ALT) {
+                        clearScreen();
+                        printInGameHelp();
+                        keys.discardTypeahead();
+                        nextKey();
+                        continue;
+                    } else if (code == RESTART) {
+                        clearScreen();
+                        gameBoard = newBoard(Board.DEFAULT_SIZE, Randomizer.randomSeed());
+                        resetStats();
+                        stopHints();
+                        startHints();
+                        startRecording();
+                        continue;
+                    } else if (code == UNDO) {
+                        if(!undo())
+                        {
+                            warning += "Nothing to undo";
+                        }
+                        continue;
+                    } else if (code == REDO && allowRedo) {
+                        if(!redo())
+                        {
+                            warning += "Nothing to redo";
                         }
+                        continue;
+                    } else if (code == BRANCH && allowRedo) {
+                        warning += branchMessage();
+                        continue;
+                    } else if (code == HINT) {
+                        warning += hintMessage();
+                        continue;
+                    }
 
-                        //We've tried to move in an invalid direction
-                        totalMergedThisTurn = 0;
-                        warning += "Invalid Move, try again!";
+                    try
+                    {
+                        d = Direction.parse(code);
+                    } catch(IllegalArgumentException e) {
+                        warning += "WARNING: " + e.getMessage() + "\n";
                         continue;
                     }
+                }
 
-                    // Update Statistics
-                    totalMerged += totalMergedThisTurn;
-                    score += turn.mergeValue;
-                    totalMoves++;
+                MoveResult turn = move(d);
 
-                    if (!gameBoard.placeRandom() || gameBoard.isLost())
+                if (turn.isInvalid())
+                {
+                    if (lost)
                     {
-                        lost = true;
-                        clearScreen();
-                        printBoard();
                         printLostNotification();
+                        continue;
                     }
 
-                    // Check if we've won the game
-                    if (!notifiedWon && gameBoard.isWon())
-                    {
-                            printVictoryNotification();
-                            s.next();
-                    }
-                } catch(IllegalArgumentException e) {
-                    warning += "WARNING: " + e.getMessage() + "\n";
+                    //We've tried to move in an invalid direction
+                    warning += "Invalid Move, try again!";
+                    continue;
+                }
+
+                if (lost)
+                {
+                    clearScreen();
+                    printBoard();
+                    printLostNotification();
+                    continue;
+                }
+
+                // Check if we've won the game
+                if (!notifiedWon && gameBoard.isWon())
+                {
+                        printVictoryNotification();
+                        if (autoplay == null)
+                        {
+                            keys.discardTypeahead();
+                            nextKey();
+                        }
                 }
             }
+
+            stopHints();
+            printAnalysis();
         } catch(Exception e) {
             System.err.println("Something went wrong!: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            stopHints();
+            keys = null;
+        }
+
+    }
+
+    /**
+     * Starts searching for hints in the background if they are enabled and
+     * the board is small enough to be searched
+     */
+    private void startHints()
+    {
+        if (!showHints || autoplay != null || !PackedBoard.supports(gameBoard.getSize()))
+        {
+            return;
+        }
+
+        hints = new HintService(gameBoard.getSize());
+        hints.reset(gameBoard);
+    }
+
+    /**
+     * Stops the background search, if there is one
+     */
+    private void stopHints()
+    {
+        if (hints != null)
+        {
+            hints.close();
+            hints = null;
         }
+    }
 
+    /**
+     * Switches redo to the next branch of the current position
+     *
+     * @return the branch redo follows now, as a message for the player
+     */
+    private String branchMessage()
+    {
+        HistoryTree.Node branch = nextBranch();
+        if (branch == null)
+        {
+            return "Nothing to redo";
+        }
+
+        return "Redo follows " + branch.getMove() + " (branch " + history.getBranchIndex() + " of " + history.getBranchCount() + ")";
+    }
+
+    /**
+     * @return the best move found so far, as a message for the player
+     */
+    private String hintMessage() throws InterruptedException
+    {
+        Direction move = book != null ? book.bestMove(gameBoard) : null;
+        if (move != null)
+        {
+            return "Hint: " + move + " " + keyString(Direction.getCharactersFor(move)) + " (from the opening book)";
+        }
+
+        if (hints == null)
+        {
+            if (book != null && !showHints)
+            {
+                return "The position is not in the opening book. Start the game with --hints to search for hints as well";
+            }
+            return showHints ? "Hints are not available on this board" : "Hints are off. Start the game with --hints to enable them";
+        }
+
+        Direction hint = hints.hint(500);
+        if (hint == null)
+        {
+            return "No hint yet, try again in a moment";
+        }
+
+        return "Hint: " + hint + " " + keyString(Direction.getCharactersFor(hint)) + " (searched " + hints.getDepth() +
+                (hints.getDepth() == 1 ? " move" : " moves") + " ahead)";
+    }
+
+    /**
+     * Starts recording the moves of the game if analysis is enabled and the
+     * board is small enough to be analyzed
+     */
+    private void startRecording()
+    {
+        record = analyze && PackedBoard.supports(gameBoard.getSize()) ? new GameRecord(gameBoard.getSize()) : null;
+    }
+
+    /**
+     * Replays the game and lists the worst moves, if analysis is enabled
+     */
+    private void printAnalysis() throws InterruptedException
+    {
+        if (!analyze)
+        {
+            return;
+        }
+        if (record == null)
+        {
+            out.println("Games on a board of size " + gameBoard.getSize() + " can't be analyzed");
+            return;
+        }
+        if (record.size() == 0)
+        {
+            return;
+        }
+
+        out.println();
+        if (!record.isComplete())
+        {
+            out.println("A tile grew too large to be analyzed after move " + record.size() + ", the rest of the game is skipped");
+        }
+        new BlunderAnalysis(gameBoard.getSize()).analyze(record, Runtime.getRuntime().availableProcessors()).print(out, 10);
+    }
+
+    /**
+     * Flushes everything printed so far, so the user can see the prompt, and
+     * waits for the next key
+     *
+     * @return the next key entered by the user, or null if the input ended
+     */
+    private String nextKey() throws IOException
+    {
+        out.flush();
+        return keys.next();
     }
 
     /**
@@ -385,14 +915,14 @@ public class Game
     {
         if(!gameBoard.isWon()) return;
 
-        System.out.println("You've won after " + totalMoves + "turns!\n" +
+        out.println("You've won after " + totalMoves + "turns!\n" +
                 "The game is now in \"Endless Mode\", Try and get to 4096! Thank you for playing!");
 
         notifiedWon = true;
     }
 
     /**
-     * Notifies the user that they have lost
+     * Notifies the user that they have lost. The game loop ends afterwards
      */
     private void printLostNotification()
     {
@@ -404,15 +934,12 @@ public class Game
         // If the user has already won the game and is in endless mode, they haven't technically "lost"
         if(gameBoard.isWon())
         {
-            System.out.print("The board became full after " + totalMoves + " turns! You managed to merge " +
+            out.println("The board became full after " + totalMoves + " turns! You managed to merge " +
                                                              totalMerged + " cells for a total score of " + score);
-            System.exit(0);
         } else {
-            System.out.print("You Lost the Game after " + totalMoves + " turns! You managed to merge " +
+            out.println("You Lost the Game after " + totalMoves + " turns! You managed to merge " +
                     totalMerged + " cells for a total score of " + score);
-            System.exit(-1);
         }
-        
     }
 
     /**
@@ -424,8 +951,8 @@ public class Game
         {
             return;
         }
-        System.out.print("\u001b[2J");
-        System.out.flush();
+        out.print("\u001b[2J");
+        out.flush();
     }
 
     /**
@@ -433,21 +960,23 @@ public class Game
      */
     public void printInGameHelp()
     {
-        System.out.println("2048 (A clone of \"3's\"), Developed by Nathan Lowe for EECS 1510\n");
-        System.out.println("Squash tiles in one of four directions. Tiles that match will be merged,\n" +
+        out.println("2048 (A clone of \"3's\"), Developed by Nathan Lowe for EECS 1510\n");
+        out.println("Squash tiles in one of four directions. Tiles that match will be merged,\n" +
                 "tiles closest to the destination will be merged first! Try to get a tile to 2048!\n");
-        System.out.println("Keys:");
-        System.out.println("\th: This Help Menu");
-        System.out.println("\tr: Restart the Game");
-        if(maxUndoCount != 0) System.out.println("\tz: Undo the previous move (Max: " + (maxUndoCount < 0 ? "Unlimited" : String.valueOf(maxUndoCount)) + ")");
-        if(allowRedo) System.out.println("\ty: Redo the previously undone move");
-        System.out.println("\tq: Quit\n");
-        System.out.println("\t\t\t\tUP " + keyString(Direction.getCharactersFor(Direction.NORTH)));
-        System.out.println("\tLEFT " + keyString(Direction.getCharactersFor(Direction.WEST)) +
+        out.println("Keys:");
+        out.println("\th: This Help Menu");
+        out.println("\tr: Restart the Game");
+        if(maxUndoCount != 0) out.println("\tz: Undo the previous move (Max: " + (maxUndoCount < 0 ? "Unlimited" : String.valueOf(maxUndoCount)) + ")");
+        if(allowRedo) out.println("\ty: Redo the previously undone move");
+        if(allowRedo) out.println("\tb: Switch redo to the next branch played from here");
+        if(showHints || book != null) out.println("\tn: Show the best move found so far");
+        out.println("\tq: Quit\n");
+        out.println("\t\t\t\tUP " + keyString(Direction.getCharactersFor(Direction.NORTH)));
+        out.println("\tLEFT " + keyString(Direction.getCharactersFor(Direction.WEST)) +
                                         "\t\t\tRIGHT " + keyString(Direction.getCharactersFor(Direction.EAST)));
-        System.out.println("\t\t\t\tDOWN " + keyString(Direction.getCharactersFor(Direction.SOUTH)) + "\n");
+        out.println("\t\t\t\tDOWN " + keyString(Direction.getCharactersFor(Direction.SOUTH)) + "\n");
 
-        System.out.println("Press Any Key and then Enter to return to the game...");
+        out.println(keys != null && keys.isRaw() ? "Press Any Key to return to the game..." : "Press Any Key and then Enter to return to the game...");
     }
 
     /**
@@ -481,51 +1010,51 @@ public class Game
         {
             if (row == 0)
             {
-                System.out.println(buildRowDivider(RowDividerType.TOP));
+                out.println(buildRowDivider(RowDividerType.TOP));
             } else {
-                System.out.println(buildRowDivider(RowDividerType.INTERMEDIATE));
+                out.println(buildRowDivider(RowDividerType.INTERMEDIATE));
             }
 
-            System.out.print('\u2551');
+            out.print('\u2551');
             for (int column = 0; column < width; column++)
             {
                 int element = gameBoard.getElement(row, column);
                 //TODO: Don't do fixed column sizes. Once the game goes into endless mode
                 //TODO: some columns have the potential to be more than 4 digits
-                System.out.print(element > 0 ? String.format(" %4d ", element) : "      ");
+                out.print(element > 0 ? String.format(" %4d ", element) : "      ");
                 if (column < width - 1)
                 {
-                    System.out.print('\u2551');
+                    out.print('\u2551');
                 }
             }
-            System.out.print('\u2551');
+            out.print('\u2551');
 
             if (displayStats)
             {
                 switch(row)
                 {
                     case 0:
-                        System.out.println("\t\tScore: " + score + "\tTotal Moves: " + totalMoves);
+                        out.println("\t\tScore: " + score + "\tTotal Moves: " + totalMoves);
                         break;
                     case 1:
-                        System.out.println("\t\tTotal Merged Cells: " + totalMerged);
+                        out.println("\t\tTotal Merged Cells: " + totalMerged);
                         break;
                     case 2:
-                        System.out.println("\t\tTotal Merged This Turn: " + totalMergedThisTurn);
+                        out.println("\t\tTotal Merged This Turn: " + totalMergedThisTurn);
                         break;
                     case 3:
-                        System.out.println("\t\tSeed: " + gameBoard.getSeed().substring(0, 4) + " " + gameBoard.getSeed().substring(4, 8));
+                        out.println("\t\tSeed: " + gameBoard.getSeed().substring(0, 4) + " " + gameBoard.getSeed().substring(4, 8));
                         break;
                     default:
-                        System.out.println();
+                        out.println();
                 }
             } else {
-                System.out.println();
+                out.println();
             }
 
             if (row + 1 == width)
             {
-                System.out.println(buildRowDivider(RowDividerType.BOTTOM));
+                out.println(buildRowDivider(RowDividerType.BOTTOM));
             }
         }
     }
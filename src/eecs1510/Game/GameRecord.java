@@ -0,0 +1,133 @@
+package eecs1510.Game;
+
+import java.util.Arrays;
+
+/**
+ * The moves of a game, each with the position it was played in, so the game
+ * can be replayed and analyzed once it is over.
+ *
+ * Positions are stored packed, nine bytes per move. The game truncates the
+ * record whenever moves are undone, so it always holds the moves that led to
+ * the current position. If a tile grows too large to be packed, recording
+ * stops and the record ends there, until the game goes back before it.
+ */
+public class GameRecord
+{
+
+    private final PackedBoard packed;
+
+    private long[] boards = new long[256];
+    private byte[] moves = new byte[256];
+    private int length = 0;
+    private boolean complete = true;
+
+    /**
+     * @param size the size of the board, 2 to 4
+     * @throws IllegalArgumentException if boards of the size can't be packed
+     */
+    public GameRecord(int size)
+    {
+        this.packed = PackedBoard.forSize(size);
+    }
+
+    /**
+     * Packs a board so it can be recorded once the move played on it turns
+     * out to be valid. If it can't be packed, recording stops
+     *
+     * @param board the board before the move
+     * @return the packed board
+     */
+    public long pack(BoardEngine board)
+    {
+        try
+        {
+            return packed.pack(board);
+        } catch(IllegalArgumentException e) {
+            complete = false;
+            return 0;
+        }
+    }
+
+    /**
+     * Records a valid move. Any moves that were recorded after it earlier and
+     * have since been undone are dropped
+     *
+     * @param moveNumber the number of moves played before this one
+     * @param board      the packed board the move was played on
+     * @param move       the move
+     */
+    public void add(int moveNumber, long board, Direction move)
+    {
+        if (!complete)
+        {
+            return;
+        }
+
+        length = Math.min(length, moveNumber);
+        if (length == boards.length)
+        {
+            boards = Arrays.copyOf(boards, 2 * length);
+            moves = Arrays.copyOf(moves, 2 * length);
+        }
+
+        boards[length] = board;
+        moves[length] = (byte) move.ordinal();
+        length++;
+    }
+
+    /**
+     * Drops the moves after the specified one, for example because they
+     * were undone. If recording stopped after that move, it starts again
+     *
+     * @param moveCount the number of moves to keep
+     */
+    public void truncate(int moveCount)
+    {
+        if (moveCount <= length)
+        {
+            length = moveCount;
+            complete = true;
+        }
+    }
+
+    /**
+     * @return the number of recorded moves
+     */
+    public int size()
+    {
+        return length;
+    }
+
+    /**
+     * @return false if recording stopped early because a tile grew too large to be packed
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    /**
+     * @return the packed board the move with the specified index was played on
+     */
+    public long getBoard(int index)
+    {
+        return boards[index];
+    }
+
+    /**
+     * @return the move with the specified index
+     */
+    public Direction getMove(int index)
+    {
+        return Direction.values()[moves[index]];
+    }
+
+    /**
+     * @return the packer the boards of this record were packed with
+     */
+    public PackedBoard getPackedBoard()
+    {
+        return packed;
+    }
+
+}
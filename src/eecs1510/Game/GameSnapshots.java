@@ -0,0 +1,142 @@
+package eecs1510.Game;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Lets other threads watch a game while it is being played, for example
+ * spectators, metrics or an autosave, without ever making the game wait.
+ *
+ * The game thread publishes a copy of the board and the score after every
+ * change. Readers copy it into a <code>Snapshot</code> of their own under an
+ * optimistic read of a <code>StampedLock</code>, which works like a sequence
+ * lock: nothing is written by a read, and a read that overlapped with a
+ * publish notices it and simply copies again. Readers therefore never block
+ * the game thread or each other, and a read allocates nothing once the
+ * snapshot has the size of the board.
+ */
+public class GameSnapshots
+{
+
+    /**
+     * A consistent copy of a game at one point in time. Owned by one reader
+     * and refilled by every <code>read()</code>
+     */
+    public static class Snapshot
+    {
+        /** The size of the board */
+        public int size;
+        /** The tiles of the board in row-major order */
+        public int[] cells = new int[0];
+        /** The Zobrist hash of the board */
+        public long hash;
+        public int score;
+        public int totalMoves;
+        public int totalMerged;
+        public boolean lost;
+        /** The number of changes published so far, which tells readers whether anything changed since their last read */
+        public long sequence;
+
+        /**
+         * @return the value of the tile at the specified cell, or 0 if it is empty
+         */
+        public int getElement(int row, int column)
+        {
+            return cells[row * size + column];
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+
+    private int size;
+    private int[] cells = new int[0];
+    private long hash;
+    private int score;
+    private int totalMoves;
+    private int totalMerged;
+    private boolean lost;
+    private long sequence;
+
+    /**
+     * Publishes the current state of a game. Only the thread playing the
+     * game may call this
+     */
+    public void publish(BoardEngine board, int score, int totalMoves, int totalMerged, boolean lost)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            int n = board.getSize();
+            if (n != size)
+            {
+                size = n;
+                cells = new int[n * n];
+            }
+
+            for (int row = 0; row < n; row++)
+            {
+                for (int column = 0; column < n; column++)
+                {
+                    cells[row * n + column] = board.getElement(row, column);
+                }
+            }
+
+            this.hash = board.getHash();
+            this.score = score;
+            this.totalMoves = totalMoves;
+            this.totalMerged = totalMerged;
+            this.lost = lost;
+            this.sequence++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies the most recently published state of the game. Safe to call
+     * from any thread, as often as needed
+     *
+     * @param into the snapshot to fill
+     * @return false if nothing has been published yet
+     */
+    public boolean read(Snapshot into)
+    {
+        while (true)
+        {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0)
+            {
+                // A publish is in progress. Let the game thread finish it, in case it shares our core
+                Thread.yield();
+                continue;
+            }
+
+            int n = size;
+            int[] source = cells;
+            if (into.cells.length != source.length)
+            {
+                into.cells = new int[source.length];
+            }
+            System.arraycopy(source, 0, into.cells, 0, source.length);
+
+            long h = hash;
+            int s = score;
+            int moves = totalMoves;
+            int merged = totalMerged;
+            boolean l = lost;
+            long seq = sequence;
+
+            if (lock.validate(stamp))
+            {
+                into.size = n;
+                into.hash = h;
+                into.score = s;
+                into.totalMoves = moves;
+                into.totalMerged = merged;
+                into.lost = l;
+                into.sequence = seq;
+                return seq > 0;
+            }
+        }
+    }
+
+}
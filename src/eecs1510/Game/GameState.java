@@ -7,19 +7,24 @@ package eecs1510.Game;
  * of the game board and the score, total number of moves, total number
  * of merged cells, and total number of cells merged for the most recent
  * turn before this snapshot was generated.
+ *
+ * The Zobrist hash of the board is kept alongside it, so snapshots can be
+ * compared without looking at every cell.
  */
 public class GameState
 {
 
     public final int[][] board;
+    public final long hash;
     public final int score;
     public final int totalMoves;
     public final int totalMerged;
     public final int totalMergedThisTurn;
 
-    public GameState(int[][] board, int score, int totalMoves, int totalMerged, int totalMergedThisTurn)
+    public GameState(int[][] board, long hash, int score, int totalMoves, int totalMerged, int totalMergedThisTurn)
     {
         this.board = board;
+        this.hash = hash;
         this.score = score;
         this.totalMoves = totalMoves;
         this.totalMerged = totalMerged;
@@ -0,0 +1,342 @@
+package eecs1510.Game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The undo history of a game as a tree, so that playing a different move
+ * after an undo starts a new branch instead of throwing the old line away.
+ *
+ * Every node is one position of the game and points to the position it was
+ * played from, so all branches share the moves they have in common and each
+ * new move costs a single small node. Boards that fit are stored packed into
+ * a long; larger boards and tiles fall back to a copy of the cells.
+ *
+ * The tree only keeps a limited number of moves before the current position.
+ * Older positions, and every branch that leaves the game before them, are
+ * dropped as the game goes on.
+ */
+public class HistoryTree
+{
+
+    /**
+     * One position of the game
+     */
+    public static class Node
+    {
+        private Node parent;
+        /** The most recently created child, whose older siblings follow through <code>next</code> */
+        private Node children;
+        private Node next;
+        /** The child redo returns to */
+        private Node redo;
+
+        private final Direction move;
+        private final long packed;
+        private final int[][] cells;
+        private final int score;
+        private final int totalMoves;
+        private final int totalMerged;
+        private final int totalMergedThisTurn;
+
+        private Node(Node parent, Direction move, long packed, int[][] cells, int score, int totalMoves, int totalMerged, int totalMergedThisTurn)
+        {
+            this.parent = parent;
+            this.move = move;
+            this.packed = packed;
+            this.cells = cells;
+            this.score = score;
+            this.totalMoves = totalMoves;
+            this.totalMerged = totalMerged;
+            this.totalMergedThisTurn = totalMergedThisTurn;
+        }
+
+        /**
+         * @return the position this one was played from, or null if it is the oldest one kept
+         */
+        public Node getParent()
+        {
+            return parent;
+        }
+
+        /**
+         * @return every position that was played from this one, the most recent first
+         */
+        public List<Node> getChildren()
+        {
+            List<Node> list = new ArrayList<>();
+            for (Node c = children; c != null; c = c.next)
+            {
+                list.add(c);
+            }
+
+            return list;
+        }
+
+        /**
+         * @return the move that led to this position, or null for the oldest position
+         */
+        public Direction getMove()
+        {
+            return move;
+        }
+
+        public int getScore()
+        {
+            return score;
+        }
+
+        public int getTotalMoves()
+        {
+            return totalMoves;
+        }
+
+        public int getTotalMerged()
+        {
+            return totalMerged;
+        }
+
+        public int getTotalMergedThisTurn()
+        {
+            return totalMergedThisTurn;
+        }
+    }
+
+    private final PackedBoard packer;
+    private final int limit;
+
+    private Node root;
+    private Node current;
+
+    /**
+     * Starts a tree at the current position of a game
+     *
+     * @param board the game board
+     * @param limit the number of moves before the current position to keep. Negative numbers mean unlimited
+     */
+    public HistoryTree(BoardEngine board, int score, int totalMoves, int totalMerged, int totalMergedThisTurn, int limit)
+    {
+        this.packer = PackedBoard.supports(board.getSize()) ? PackedBoard.forSize(board.getSize()) : null;
+        this.limit = limit;
+        this.root = this.current = node(null, null, board, score, totalMoves, totalMerged, totalMergedThisTurn);
+    }
+
+    /**
+     * Records a move played from the current position, which becomes the new
+     * current position. Redo follows the new move from now on
+     *
+     * @param move  the move that was played
+     * @param board the board after the move, with the spawned tile in place
+     * @return the new position
+     */
+    public Node add(Direction move, BoardEngine board, int score, int totalMoves, int totalMerged, int totalMergedThisTurn)
+    {
+        Node child = node(current, move, board, score, totalMoves, totalMerged, totalMergedThisTurn);
+        child.next = current.children;
+        current.children = child;
+        current.redo = child;
+        current = child;
+
+        if (limit >= 0 && current.totalMoves - root.totalMoves > limit)
+        {
+            Node oldest = current;
+            for (int i = 0; i < limit; i++)
+            {
+                oldest = oldest.parent;
+            }
+
+            oldest.parent = null;
+            root = oldest;
+        }
+
+        return current;
+    }
+
+    /**
+     * Moves to the position before the current one
+     *
+     * @return the new current position, or null if there is nothing to undo
+     */
+    public Node undo()
+    {
+        if (current.parent == null)
+        {
+            return null;
+        }
+
+        current.parent.redo = current;
+        current = current.parent;
+        return current;
+    }
+
+    /**
+     * Moves to the position redo follows from the current one
+     *
+     * @return the new current position, or null if there is nothing to redo
+     */
+    public Node redo()
+    {
+        if (current.redo == null)
+        {
+            return null;
+        }
+
+        current = current.redo;
+        return current;
+    }
+
+    /**
+     * Makes redo follow the next branch of the current position, in the
+     * order the branches were created, most recent first
+     *
+     * @return the position redo follows now, or null if there is nothing to redo
+     */
+    public Node nextBranch()
+    {
+        if (current.redo == null)
+        {
+            return null;
+        }
+
+        current.redo = current.redo.next != null ? current.redo.next : current.children;
+        return current.redo;
+    }
+
+    /**
+     * Makes redo follow the line that leads to the specified position
+     *
+     * @param target a position of this tree
+     */
+    public void select(Node target)
+    {
+        for (Node n = target; n.parent != null; n = n.parent)
+        {
+            n.parent.redo = n;
+        }
+    }
+
+    /**
+     * @param target a position of this tree
+     * @return the latest position that is on the line to the current position as well as on the line to the target
+     * @throws IllegalArgumentException if the position is not part of this tree (anymore)
+     */
+    public Node commonAncestor(Node target)
+    {
+        if (!contains(target))
+        {
+            throw new IllegalArgumentException("The position is not part of the history");
+        }
+
+        Node a = current;
+        Node b = target;
+        while (a.totalMoves > b.totalMoves) a = a.parent;
+        while (b.totalMoves > a.totalMoves) b = b.parent;
+        while (a != b)
+        {
+            a = a.parent;
+            b = b.parent;
+        }
+
+        return a;
+    }
+
+    /**
+     * @return true if the position is still part of this tree
+     */
+    public boolean contains(Node node)
+    {
+        Node n = node;
+        while (n != null && n.parent != null)
+        {
+            n = n.parent;
+        }
+
+        return n == root;
+    }
+
+    /**
+     * @return the oldest position kept
+     */
+    public Node getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * @return the position the game is in
+     */
+    public Node getCurrent()
+    {
+        return current;
+    }
+
+    /**
+     * @return the number of branches redo can follow from the current position
+     */
+    public int getBranchCount()
+    {
+        int count = 0;
+        for (Node c = current.children; c != null; c = c.next)
+        {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the index of the branch redo follows from the current position, starting at 1, or 0 if there is none
+     */
+    public int getBranchIndex()
+    {
+        int index = 1;
+        for (Node c = current.children; c != null; c = c.next, index++)
+        {
+            if (c == current.redo) return index;
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return a new copy of the cells of the board of a position
+     */
+    public int[][] getBoard(Node node)
+    {
+        if (node.cells == null)
+        {
+            return packer.unpack(node.packed);
+        }
+
+        int[][] copy = new int[node.cells.length][];
+        for (int i = 0; i < copy.length; i++)
+        {
+            copy[i] = node.cells[i].clone();
+        }
+
+        return copy;
+    }
+
+    private Node node(Node parent, Direction move, BoardEngine board, int score, int totalMoves, int totalMerged, int totalMergedThisTurn)
+    {
+        if (packer != null)
+        {
+            try
+            {
+                return new Node(parent, move, packer.pack(board), null, score, totalMoves, totalMerged, totalMergedThisTurn);
+            } catch(IllegalArgumentException e) {
+                // A tile grew too large to be packed, keep a copy of the cells instead
+            }
+        }
+
+        int[][] data = board.getData();
+        int[][] cells = new int[data.length][];
+        for (int i = 0; i < cells.length; i++)
+        {
+            cells[i] = data[i].clone();
+        }
+
+        return new Node(parent, move, 0, cells, score, totalMoves, totalMerged, totalMergedThisTurn);
+    }
+
+}
@@ -0,0 +1,273 @@
+package eecs1510.Game;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the keys the player presses.
+ *
+ * In line mode, which works with any stream, keys are read like words: they
+ * only arrive once Enter is pressed, and everything up to the next
+ * whitespace counts as one key. In raw mode the terminal is taken out of
+ * line editing with <code>stty</code>, so every key arrives on its own the
+ * moment it is pressed, without being echoed. Keys that were pressed while
+ * the game was busy are queued, and <code>hasTypeahead()</code> lets the game
+ * apply all of them before it draws the board again. Whitespace and escape
+ * sequences, such as the arrow keys, are skipped in raw mode.
+ *
+ * Closing the reader puts the terminal back the way it was and closes the
+ * stream. A shutdown hook does the same if the program is interrupted.
+ */
+public class KeyReader implements AutoCloseable
+{
+
+    private static final int ESCAPE = 0x1b;
+
+    private final InputStream in;
+    /** The settings of the terminal before it was switched to raw mode, or null in line mode */
+    private final String terminal;
+    private final Thread restore;
+
+    /** Keys that were read ahead by <code>hasTypeahead()</code> */
+    private final ArrayDeque<String> typeahead = new ArrayDeque<>();
+    private boolean ended = false;
+
+    private KeyReader(InputStream in, String terminal)
+    {
+        this.in = new BufferedInputStream(in);
+        this.terminal = terminal;
+
+        if (terminal != null)
+        {
+            restore = new Thread(() -> stty(terminal), "terminal-restore");
+            Runtime.getRuntime().addShutdownHook(restore);
+        } else {
+            restore = null;
+        }
+    }
+
+    /**
+     * Starts reading keys from a stream
+     *
+     * @param in  where to read keys from
+     * @param raw whether to try raw mode. It is only used if the stream is
+     *            <code>System.in</code>, connected to a terminal, and <code>stty</code> works
+     * @return the reader
+     */
+    public static KeyReader open(InputStream in, boolean raw)
+    {
+        if (raw && in == System.in && System.console() != null && new File("/dev/tty").exists())
+        {
+            String saved = stty("-g");
+            if (saved != null && stty("-icanon", "-echo", "min", "1") != null)
+            {
+                return new KeyReader(in, saved.trim());
+            }
+        }
+
+        return new KeyReader(in, null);
+    }
+
+    /**
+     * @return true if keys arrive as soon as they are pressed
+     */
+    public boolean isRaw()
+    {
+        return terminal != null;
+    }
+
+    /**
+     * Waits for the next key
+     *
+     * @return the next key, or null if the input ended
+     */
+    public String next() throws IOException
+    {
+        if (!typeahead.isEmpty())
+        {
+            return typeahead.poll();
+        }
+        if (ended)
+        {
+            return null;
+        }
+
+        String key = isRaw() ? readKey(true) : readWord();
+        ended = key == null;
+        return key;
+    }
+
+    /**
+     * Reads all keys that were pressed but not read yet, without waiting for
+     * more. Always false in line mode, where every key is answered on its own
+     *
+     * @return true if <code>next()</code> will return without waiting
+     */
+    public boolean hasTypeahead() throws IOException
+    {
+        if (!isRaw())
+        {
+            return false;
+        }
+
+        String key;
+        while (!ended && (key = readKey(false)) != null && !key.isEmpty())
+        {
+            typeahead.add(key);
+        }
+
+        return !typeahead.isEmpty();
+    }
+
+    /**
+     * Forgets the keys that were pressed but not read yet, for example before
+     * a message the player should not skip by accident
+     */
+    public void discardTypeahead() throws IOException
+    {
+        hasTypeahead();
+        typeahead.clear();
+    }
+
+    /**
+     * @param wait whether to wait for a key if none has been pressed yet
+     * @return the next key, null if the input ended, or an empty string if no key is ready and waiting was not allowed
+     */
+    private String readKey(boolean wait) throws IOException
+    {
+        while (wait || in.available() > 0)
+        {
+            int b = in.read();
+            if (b < 0)
+            {
+                ended = true;
+                return null;
+            }
+
+            if (b == ESCAPE)
+            {
+                skipEscapeSequence();
+            } else if (b > ' ' && b < 0x7f) {
+                return String.valueOf((char) b);
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * Skips the rest of a control sequence like <code>ESC [ A</code>. A lone
+     * escape key has nothing after it and is skipped on its own
+     */
+    private void skipEscapeSequence() throws IOException
+    {
+        if (in.available() == 0)
+        {
+            return;
+        }
+
+        in.mark(1);
+        int introducer = in.read();
+        if (introducer == 'O')
+        {
+            if (in.available() > 0) in.read();
+        } else if (introducer == '[') {
+            // Parameters and intermediates are 0x20 to 0x3f, the final byte ends the sequence
+            while (in.available() > 0)
+            {
+                int b = in.read();
+                if (b < 0x20 || b > 0x3f) break;
+            }
+        } else {
+            in.reset();
+        }
+    }
+
+    /**
+     * @return everything up to the next whitespace, or null if the input ended
+     */
+    private String readWord() throws IOException
+    {
+        int b;
+        do
+        {
+            b = in.read();
+        } while (b >= 0 && Character.isWhitespace(b));
+
+        if (b < 0)
+        {
+            return null;
+        }
+
+        StringBuilder word = new StringBuilder();
+        while (b >= 0 && !Character.isWhitespace(b))
+        {
+            word.append((char) b);
+            b = in.read();
+        }
+
+        return word.toString();
+    }
+
+    /**
+     * Puts the terminal back into line mode and closes the stream
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (terminal != null)
+        {
+            stty(terminal);
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook(restore);
+            } catch(IllegalStateException e) {
+                // Already shutting down, the hook restores the terminal as well
+            }
+        }
+
+        in.close();
+    }
+
+    /**
+     * Runs <code>stty</code> on the terminal of this process
+     *
+     * @return the output of stty, or null if it failed
+     */
+    private static String stty(String... args)
+    {
+        List<String> command = new ArrayList<>();
+        command.add("stty");
+        command.addAll(Arrays.asList(args));
+
+        try
+        {
+            Process p = new ProcessBuilder(command).redirectInput(new File("/dev/tty")).redirectErrorStream(true).start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int n;
+            try(InputStream stdout = p.getInputStream())
+            {
+                while ((n = stdout.read(buffer)) > 0)
+                {
+                    output.write(buffer, 0, n);
+                }
+            }
+
+            return p.waitFor() == 0 ? output.toString() : null;
+        } catch(IOException e) {
+            return null;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+}
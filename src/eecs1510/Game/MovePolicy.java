@@ -0,0 +1,26 @@
+package eecs1510.Game;
+
+/**
+ * Chooses moves for a game that is being played by the computer.
+ *
+ * Policies must not modify the board they are asked about.
+ */
+public interface MovePolicy
+{
+
+    /**
+     * @param board the current game board
+     * @return the direction to squash the board in, or null if no move is valid
+     */
+    public Direction nextMove(BoardEngine board);
+
+    /**
+     * @param size the size of a game board
+     * @return true if this policy is able to play on boards of the specified size
+     */
+    public default boolean supports(int size)
+    {
+        return true;
+    }
+
+}
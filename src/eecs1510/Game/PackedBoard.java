@@ -0,0 +1,616 @@
+package eecs1510.Game;
+
+/**
+ * Helpers for game boards packed into a single <code>long</code>.
+ *
+ * Each cell is stored as a 4-bit exponent (0 for an empty cell, <code>e</code>
+ * for a tile with the value <code>2^e</code>) in row-major order, with the
+ * top-left cell in the lowest nibble. A row of the board therefore occupies
+ * <code>4 * size</code> consecutive bits, which keeps per-row lookup tables
+ * small enough to precompute. Only boards up to 4x4 fit into a long.
+ *
+ * Moves are applied through lookup tables holding the result of squashing
+ * every possible row to either side. North and south moves transpose the
+ * board and squash its columns as rows. Two tiles with the largest exponent
+ * are never merged, because the result would not fit into a cell.
+ *
+ * Instances are immutable and shared; obtain one with <code>forSize()</code>
+ */
+public class PackedBoard
+{
+
+    /** The largest board that can be packed into a long */
+    public static final int MAX_SIZE = 4;
+    /** The largest exponent that fits into a single cell */
+    public static final int MAX_EXPONENT = 15;
+
+    /** The ordinals of the directions, for code that reads moves as numbers */
+    private static final int NORTH = Direction.NORTH.ordinal();
+    private static final int SOUTH = Direction.SOUTH.ordinal();
+    private static final int WEST = Direction.WEST.ordinal();
+
+    private static final PackedBoard[] INSTANCES = new PackedBoard[MAX_SIZE + 1];
+
+    static
+    {
+        for (int size = 2; size <= MAX_SIZE; size++)
+        {
+            INSTANCES[size] = new PackedBoard(size);
+        }
+    }
+
+    private final int size;
+    private final int cells;
+    private final int rowBits;
+    private final int rowMask;
+
+    /** The result of squashing each possible row towards column 0 */
+    private final int[] left;
+    /** The result of squashing each possible row towards the last column */
+    private final int[] right;
+    /** The score gained by squashing each possible row towards column 0 */
+    private final int[] leftScore;
+    /** The score gained by squashing each possible row towards the last column */
+    private final int[] rightScore;
+    /** The number of merges when squashing each possible row towards column 0 */
+    private final byte[] leftMerges;
+    /** The number of merges when squashing each possible row towards the last column */
+    private final byte[] rightMerges;
+
+    private PackedBoard(int size)
+    {
+        this.size = size;
+        this.cells = size * size;
+        this.rowBits = 4 * size;
+        this.rowMask = (1 << rowBits) - 1;
+
+        int rows = rowMask + 1;
+        left = new int[rows];
+        right = new int[rows];
+        leftScore = new int[rows];
+        rightScore = new int[rows];
+        leftMerges = new byte[rows];
+        rightMerges = new byte[rows];
+
+        int[] line = new int[size];
+        for (int row = 0; row < rows; row++)
+        {
+            unpackRow(row, line);
+            int merges = squashLine(line);
+            leftScore[row] = merges >>> 8;
+            leftMerges[row] = (byte) merges;
+            left[row] = packRow(line);
+
+            unpackRow(reverseRow(row), line);
+            merges = squashLine(line);
+            rightScore[row] = merges >>> 8;
+            rightMerges[row] = (byte) merges;
+            right[row] = reverseRow(packRow(line));
+        }
+    }
+
+    /**
+     * Squashes a line of exponents towards index 0 in place
+     *
+     * @param line the exponents to squash
+     * @return the score gained shifted left by 8 bits, or'd with the number of merges
+     */
+    private static int squashLine(int[] line)
+    {
+        int score = 0;
+        int merges = 0;
+        int target = 0;
+        int pending = 0;
+
+        for (int i = 0; i < line.length; i++)
+        {
+            int rank = line[i];
+            if (rank == 0) continue;
+
+            if (pending == rank && rank < MAX_EXPONENT)
+            {
+                line[target++] = rank + 1;
+                score += 1 << (rank + 1);
+                merges++;
+                pending = 0;
+            } else {
+                if (pending != 0)
+                {
+                    line[target++] = pending;
+                }
+                pending = rank;
+            }
+        }
+
+        if (pending != 0)
+        {
+            line[target++] = pending;
+        }
+        while (target < line.length)
+        {
+            line[target++] = 0;
+        }
+
+        return score << 8 | merges;
+    }
+
+    private int packRow(int[] line)
+    {
+        int row = 0;
+        for (int i = 0; i < size; i++)
+        {
+            row |= line[i] << (4 * i);
+        }
+
+        return row;
+    }
+
+    private int reverseRow(int row)
+    {
+        int result = 0;
+        for (int i = 0; i < size; i++)
+        {
+            result |= ((row >>> (4 * i)) & 0xF) << (4 * (size - 1 - i));
+        }
+
+        return result;
+    }
+
+    /**
+     * @param size the size of the board
+     * @return the shared helper for boards of the specified size
+     * @throws IllegalArgumentException if boards of that size cannot be packed
+     */
+    public static PackedBoard forSize(int size)
+    {
+        if (!supports(size))
+        {
+            throw new IllegalArgumentException("A " + size + "x" + size + " board cannot be packed into a long");
+        }
+
+        return INSTANCES[size];
+    }
+
+    /**
+     * @param size the size of the board
+     * @return true if boards of the specified size can be packed
+     */
+    public static boolean supports(int size)
+    {
+        return size >= 2 && size <= MAX_SIZE;
+    }
+
+    /**
+     * @return the size of the boards handled by this helper
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct values a single packed row can take
+     */
+    public int rowCount()
+    {
+        return rowMask + 1;
+    }
+
+    /**
+     * Converts a tile value to the exponent stored in a packed cell
+     *
+     * @param value the tile value (0 for an empty cell)
+     * @return the exponent of the tile
+     * @throws IllegalArgumentException if the value cannot be stored in a cell
+     */
+    public static int exponentOf(int value)
+    {
+        if (value <= 0)
+        {
+            return 0;
+        }
+
+        int exponent = Integer.numberOfTrailingZeros(value);
+        if (value != 1 << exponent || exponent > MAX_EXPONENT)
+        {
+            throw new IllegalArgumentException(value + " cannot be stored in a packed board");
+        }
+
+        return exponent;
+    }
+
+    /**
+     * @param exponent the exponent stored in a packed cell
+     * @return the value of the tile (0 for an empty cell)
+     */
+    public static int valueOf(int exponent)
+    {
+        return exponent == 0 ? 0 : 1 << exponent;
+    }
+
+    /**
+     * Packs the specified data into a long
+     *
+     * @param data a SIZE x SIZE array of tile values
+     * @return the packed board
+     */
+    public long pack(int[][] data)
+    {
+        if (data.length != size)
+        {
+            throw new IllegalArgumentException("The specified array does not match the board size");
+        }
+
+        long board = 0L;
+        for (int row = 0; row < size; row++)
+        {
+            for (int column = 0; column < size; column++)
+            {
+                board |= (long) exponentOf(data[row][column]) << (4 * (row * size + column));
+            }
+        }
+
+        return board;
+    }
+
+    /**
+     * Packs the tiles of any engine, without unpacking engines that are already packed
+     *
+     * @param board a board of this size
+     * @return the packed board
+     */
+    public long pack(BoardEngine board)
+    {
+        if (board instanceof PackedBoardEngine)
+        {
+            return ((PackedBoardEngine) board).getPacked();
+        }
+
+        return pack(board.getData());
+    }
+
+    /**
+     * Unpacks the specified board into an existing array
+     *
+     * @param board the packed board
+     * @param dest  a SIZE x SIZE array to receive the tile values
+     */
+    public void unpack(long board, int[][] dest)
+    {
+        for (int row = 0; row < size; row++)
+        {
+            for (int column = 0; column < size; column++)
+            {
+                dest[row][column] = valueOf(get(board, row * size + column));
+            }
+        }
+    }
+
+    /**
+     * @param board the packed board
+     * @return a new SIZE x SIZE array with the tile values of the board
+     */
+    public int[][] unpack(long board)
+    {
+        int[][] result = new int[size][size];
+        unpack(board, result);
+        return result;
+    }
+
+    /**
+     * @param board the packed board
+     * @param cell  the index of the cell in row-major order
+     * @return the exponent stored in the cell
+     */
+    public int get(long board, int cell)
+    {
+        return (int) (board >>> (4 * cell)) & 0xF;
+    }
+
+    /**
+     * @param board    the packed board
+     * @param cell     the index of the cell in row-major order
+     * @param exponent the exponent to store in the cell
+     * @return the packed board with the cell replaced
+     */
+    public long set(long board, int cell, int exponent)
+    {
+        int shift = 4 * cell;
+        return (board & ~(0xFL << shift)) | ((long) exponent << shift);
+    }
+
+    /**
+     * @param board the packed board
+     * @param row   the row to extract
+     * @return the packed row, with column 0 in the lowest nibble
+     */
+    public int row(long board, int row)
+    {
+        return (int) (board >>> (rowBits * row)) & rowMask;
+    }
+
+    /**
+     * Swaps the rows and columns of a packed board, so that the columns of
+     * the board can be processed with the same lookup tables as the rows
+     *
+     * @param board the packed board
+     * @return the transposed board
+     */
+    public long transpose(long board)
+    {
+        if (size == 4)
+        {
+            long a1 = board & 0xF0F00F0FF0F00F0FL;
+            long a2 = board & 0x0000F0F00000F0F0L;
+            long a3 = board & 0x0F0F00000F0F0000L;
+            long a = a1 | (a2 << 12) | (a3 >>> 12);
+            long b1 = a & 0xFF00FF0000FF00FFL;
+            long b2 = a & 0x00FF00FF00000000L;
+            long b3 = a & 0x00000000FF00FF00L;
+            return b1 | (b2 >>> 24) | (b3 << 24);
+        }
+
+        long result = 0L;
+        for (int row = 0; row < size; row++)
+        {
+            for (int column = 0; column < size; column++)
+            {
+                result = set(result, column * size + row, get(board, row * size + column));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Squashes all tiles in the specified direction. Like <code>Board.squash()</code>,
+     * this does not place a random tile.
+     *
+     * @param board the packed board
+     * @param d     the direction to squash tiles in
+     * @return the packed board after the move. If it is equal to
+     *         <code>board</code>, the move was invalid
+     */
+    public long move(long board, Direction d)
+    {
+        switch(d)
+        {
+            case NORTH: return transpose(moveRows(transpose(board), left));
+            case SOUTH: return transpose(moveRows(transpose(board), right));
+            case  EAST: return moveRows(board, right);
+            case  WEST: return moveRows(board, left);
+            default:    return board;
+        }
+    }
+
+    private long moveRows(long board, int[] table)
+    {
+        long result = 0L;
+        for (int row = 0; row < size; row++)
+        {
+            result |= (long) table[row(board, row)] << (rowBits * row);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param board the packed board
+     * @param d     the direction to squash tiles in
+     * @return the score gained by squashing the board in the specified direction
+     */
+    public int score(long board, Direction d)
+    {
+        switch(d)
+        {
+            case NORTH: return sumRows(transpose(board), leftScore);
+            case SOUTH: return sumRows(transpose(board), rightScore);
+            case  EAST: return sumRows(board, rightScore);
+            case  WEST: return sumRows(board, leftScore);
+            default:    return 0;
+        }
+    }
+
+    private int sumRows(long board, int[] table)
+    {
+        int sum = 0;
+        for (int row = 0; row < size; row++)
+        {
+            sum += table[row(board, row)];
+        }
+
+        return sum;
+    }
+
+    /**
+     * @param board the packed board
+     * @param d     the direction to squash tiles in
+     * @return the number of merges when squashing the board in the specified direction
+     */
+    public int merges(long board, Direction d)
+    {
+        long rows = d == Direction.NORTH || d == Direction.SOUTH ? transpose(board) : board;
+        byte[] table = d == Direction.WEST || d == Direction.NORTH ? leftMerges : rightMerges;
+
+        int sum = 0;
+        for (int row = 0; row < size; row++)
+        {
+            sum += table[row(rows, row)];
+        }
+
+        return sum;
+    }
+
+    /**
+     * @param board the packed board
+     * @return true if no move changes the board
+     */
+    public boolean isLost(long board)
+    {
+        for (Direction d : Direction.values())
+        {
+            if (move(board, d) != board)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Lists the empty cells of a board in row-major order, which is the same
+     * order that <code>Board.getFreeCells()</code> uses
+     *
+     * @param board the packed board
+     * @param dest  an array of at least SIZE * SIZE elements to receive the cell indices
+     * @return the number of empty cells
+     */
+    public int emptyCells(long board, int[] dest)
+    {
+        int count = 0;
+        for (int cell = 0; cell < cells; cell++)
+        {
+            if (((board >>> (4 * cell)) & 0xF) == 0)
+            {
+                dest[count++] = cell;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @param board the packed board
+     * @return the number of empty cells on the board
+     */
+    public int countEmpty(long board)
+    {
+        int empty = 0;
+        for (int cell = 0; cell < cells; cell++)
+        {
+            if (((board >>> (4 * cell)) & 0xF) == 0)
+            {
+                empty++;
+            }
+        }
+
+        return empty;
+    }
+
+    /**
+     * @param board the packed board
+     * @return the largest exponent on the board
+     */
+    public int maxExponent(long board)
+    {
+        int max = 0;
+        for (int cell = 0; cell < cells; cell++)
+        {
+            max = Math.max(max, (int) (board >>> (4 * cell)) & 0xF);
+        }
+
+        return max;
+    }
+
+    /**
+     * Plays a sequence of moves on a packed board, spawning a tile after each
+     * one with the same draws from the generator as <code>placeRandom()</code>
+     * of the engines. The moves are packed as described in
+     * <code>BoardEngine.applyMoves()</code>.
+     *
+     * Stops before the first invalid move, after a move that leaves the board
+     * lost, and after a move that creates a 32768 tile, since two of those
+     * can't merge in a packed board.
+     *
+     * @param state  the board at index 0, replaced by the board after the last
+     *               move played. Index 1 receives the last spawn as
+     *               <code>cell * 16 + exponent</code> if a move was played
+     * @param rng    the generator to draw spawns from
+     * @param moves  the packed moves
+     * @param from   the index of the first move to play
+     * @param to     the index after the last move to play
+     * @param scores receives the score of each move played, or null
+     * @param merges receives the number of merges of each move played, or null
+     * @param spawns receives the cell of the tile spawned after each move played, or null
+     * @return the index of the first move that was not played
+     */
+    int play(long[] state, Randomizer rng, byte[] moves, int from, int to, int[] scores, int[] merges, int[] spawns)
+    {
+        // The lowest bit of every nibble of the board, to find empty cells without looking at each one
+        long nibbles = cells == 16 ? 0x1111111111111111L : 0x1111111111111111L & ((1L << (4 * cells)) - 1);
+        long board = state[0];
+
+        int i = from;
+        while (i < to)
+        {
+            int d = (moves[i >> 2] >>> (2 * (i & 3))) & 3;
+            boolean vertical = d == NORTH || d == SOUTH;
+            boolean toStart = d == NORTH || d == WEST;
+            int[] moveTable = toStart ? left : right;
+            int[] scoreTable = toStart ? leftScore : rightScore;
+            byte[] mergeTable = toStart ? leftMerges : rightMerges;
+
+            // Move, score and count merges of all rows in one pass
+            long rows = vertical ? transpose(board) : board;
+            long moved = 0L;
+            int reward = 0;
+            int merged = 0;
+            for (int r = 0; r < size; r++)
+            {
+                int row = row(rows, r);
+                moved |= (long) moveTable[row] << (rowBits * r);
+                reward += scoreTable[row];
+                merged += mergeTable[row];
+            }
+
+            long after = vertical ? transpose(moved) : moved;
+            if (after == board)
+            {
+                break;
+            }
+
+            if (scores != null) scores[i] = reward;
+            if (merges != null) merges[i] = merged;
+
+            // Same draws as placeRandom(): the value first, then the cell
+            int exponent = rng.next() >= Board.FOUR_THRESHOLD ? 2 : 1;
+            long empty = ~(after | (after >>> 1) | (after >>> 2) | (after >>> 3)) & nibbles;
+            int count = Long.bitCount(empty);
+            for (int skip = (int) (rng.next() * count); skip > 0; skip--)
+            {
+                empty &= empty - 1;
+            }
+
+            int cell = Long.numberOfTrailingZeros(empty) >> 2;
+            board = after | ((long) exponent << (4 * cell));
+            state[1] = cell * 16 + exponent;
+            if (spawns != null) spawns[i] = cell;
+            i++;
+
+            // Only a full board can be lost, and only a large merge can create a 32768
+            if ((count == 1 && isLost(board)) || (reward >= 32768 && maxExponent(board) == MAX_EXPONENT))
+            {
+                break;
+            }
+        }
+
+        state[0] = board;
+        return i;
+    }
+
+    /**
+     * Unpacks a single row into the exponents of its cells
+     *
+     * @param row  the packed row
+     * @param dest an array of at least SIZE elements to receive the exponents
+     */
+    public void unpackRow(int row, int[] dest)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            dest[i] = (row >>> (4 * i)) & 0xF;
+        }
+    }
+
+}
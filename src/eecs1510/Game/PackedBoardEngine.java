@@ -0,0 +1,244 @@
+package eecs1510.Game;
+
+import java.util.ArrayList;
+
+/**
+ * A <code>BoardEngine</code> that keeps the whole board in a single
+ * <code>long</code> and squashes it through the lookup tables of
+ * <code>PackedBoard</code>.
+ *
+ * It spawns exactly the same tiles as <code>Board</code> for the same seed.
+ * Only boards up to 4x4 are supported, and two 32768 tiles never merge, since
+ * 65536 doesn't fit into a packed cell.
+ */
+public class PackedBoardEngine implements BoardEngine
+{
+
+    private final PackedBoard packed;
+    private final ZobristKeys zobrist;
+    private final Randomizer rng;
+
+    private long board = 0L;
+    private long hash = 0L;
+
+    private int lastSpawnCell = -1;
+    private int lastSpawnValue = 0;
+
+    /** Scratch space for the empty cells of the board */
+    private final int[] empty;
+
+    /**
+     * @throws IllegalArgumentException if the board is larger than <code>PackedBoard.MAX_SIZE</code>
+     */
+    public PackedBoardEngine(int size, String seed) throws Randomizer.InvalidSeedException
+    {
+        if (!PackedBoard.supports(size))
+        {
+            throw new IllegalArgumentException("The packed engine only supports boards up to " +
+                    PackedBoard.MAX_SIZE + "x" + PackedBoard.MAX_SIZE);
+        }
+
+        this.packed = PackedBoard.forSize(size);
+        this.zobrist = ZobristKeys.forSize(size);
+        this.rng = new Randomizer(seed.trim().replaceAll("\\s", ""));
+        this.empty = new int[size * size];
+
+        placeRandom();
+        placeRandom();
+    }
+
+    private PackedBoardEngine(PackedBoardEngine source)
+    {
+        this.packed = source.packed;
+        this.zobrist = source.zobrist;
+        this.rng = source.rng.copy();
+        this.board = source.board;
+        this.hash = source.hash;
+        this.lastSpawnCell = source.lastSpawnCell;
+        this.lastSpawnValue = source.lastSpawnValue;
+        this.empty = new int[source.empty.length];
+    }
+
+    /**
+     * @return the board packed as described in <code>PackedBoard</code>
+     */
+    public long getPacked()
+    {
+        return board;
+    }
+
+    @Override
+    public int getSize()
+    {
+        return packed.getSize();
+    }
+
+    @Override
+    public String getSeed()
+    {
+        return rng.seed;
+    }
+
+    @Override
+    public long getRandomState()
+    {
+        return rng.getState();
+    }
+
+    @Override
+    public long getHash()
+    {
+        return hash;
+    }
+
+    @Override
+    public int getElement(int row, int column)
+    {
+        return PackedBoard.valueOf(packed.get(board, row * getSize() + column));
+    }
+
+    @Override
+    public int[][] getData()
+    {
+        return packed.unpack(board);
+    }
+
+    @Override
+    public MoveResult squash(Direction d)
+    {
+        long moved = packed.move(board, d);
+        if (moved == board)
+        {
+            return MoveResult.invalid();
+        }
+
+        MoveResult result = new MoveResult(packed.merges(board, d), packed.score(board, d));
+        board = moved;
+        hash = hashOf(board);
+
+        return result;
+    }
+
+    @Override
+    public boolean placeRandom()
+    {
+        int exponent = rng.next() >= Board.FOUR_THRESHOLD ? 2 : 1;
+
+        int count = packed.emptyCells(board, empty);
+        if (count == 0)
+        {
+            return false;
+        }
+
+        int cell = empty[(int) (rng.next() * count)];
+        board = packed.set(board, cell, exponent);
+        hash ^= key(cell, exponent);
+
+        lastSpawnCell = cell;
+        lastSpawnValue = PackedBoard.valueOf(exponent);
+
+        return true;
+    }
+
+    @Override
+    public int applyMoves(byte[] moves, int from, int to, int[] scores, int[] merges, int[] spawns)
+    {
+        long[] state = { board, -1 };
+        int next = from;
+        int played;
+        do
+        {
+            // play() pauses after every 32768 tile, which this engine doesn't need to handle differently
+            played = next;
+            next = packed.play(state, rng, moves, next, to, scores, merges, spawns);
+        } while (next > played && next < to && !packed.isLost(state[0]));
+
+        if (next > from)
+        {
+            board = state[0];
+            hash = hashOf(board);
+            lastSpawnCell = (int) (state[1] >> 4);
+            lastSpawnValue = PackedBoard.valueOf((int) (state[1] & 0xF));
+        }
+
+        return next;
+    }
+
+    @Override
+    public void place(int row, int column, int value)
+    {
+        int cell = row * getSize() + column;
+        int exponent = PackedBoard.exponentOf(value);
+
+        hash ^= key(cell, packed.get(board, cell)) ^ key(cell, exponent);
+        board = packed.set(board, cell, exponent);
+    }
+
+    @Override
+    public void setState(int[][] s)
+    {
+        board = packed.pack(s);
+        hash = hashOf(board);
+    }
+
+    @Override
+    public int getLastSpawnCell()
+    {
+        return lastSpawnCell;
+    }
+
+    @Override
+    public int getLastSpawnValue()
+    {
+        return lastSpawnValue;
+    }
+
+    @Override
+    public ArrayList<int[]> getFreeCells()
+    {
+        int count = packed.emptyCells(board, empty);
+
+        ArrayList<int[]> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            results.add(new int[]{empty[i] / getSize(), empty[i] % getSize()});
+        }
+
+        return results;
+    }
+
+    @Override
+    public boolean isWon()
+    {
+        return PackedBoard.valueOf(packed.maxExponent(board)) >= Board.WIN_CONDITION_VALUE;
+    }
+
+    @Override
+    public boolean isLost()
+    {
+        return packed.isLost(board);
+    }
+
+    @Override
+    public PackedBoardEngine copy()
+    {
+        return new PackedBoardEngine(this);
+    }
+
+    private long key(int cell, int exponent)
+    {
+        return zobrist.key(cell / getSize(), cell % getSize(), PackedBoard.valueOf(exponent));
+    }
+
+    private long hashOf(long board)
+    {
+        long h = 0L;
+        for (int cell = 0; cell < empty.length; cell++)
+        {
+            h ^= key(cell, packed.get(board, cell));
+        }
+
+        return h;
+    }
+
+}
@@ -1,7 +1,5 @@
 package eecs1510.Game;
 
-import java.util.Random;
-
 /**
  * Created by nathan on 2/17/15
  *
@@ -10,6 +8,11 @@ import java.util.Random;
  *
  * For simplicities sake, certain numbers are counted as letters. See <code>asciiSimplify()</code>
  * for details
+ *
+ * The numbers are generated by the same linear congruential generator as
+ * <code>java.util.Random</code>, so every seed produces the same games it
+ * always has. Unlike <code>Random</code>, the 48-bit state of the generator
+ * can be read and restored, which lets a game be stored and resumed later.
  */
 public class Randomizer
 {
@@ -25,8 +28,13 @@ public class Randomizer
         }
     }
 
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
     public final String seed;
-    private final Random source;
+    /** The current state of the generator. Only the lower 48 bits are used */
+    private long state;
 
     public Randomizer(String seed) throws InvalidSeedException
     {
@@ -43,7 +51,34 @@ public class Randomizer
             iv <<= 8;
         }
 
-        this.source = new Random(iv);
+        this.state = (iv ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * Resumes a generator from a state previously returned by <code>getState()</code>
+     *
+     * @param seed  the seed the generator was created with
+     * @param state the state of the generator
+     * @throws InvalidSeedException if the seed is invalid
+     */
+    public Randomizer(String seed, long state) throws InvalidSeedException
+    {
+        this(seed);
+        this.state = state & MASK;
+    }
+
+    private Randomizer(Randomizer source)
+    {
+        this.seed = source.seed;
+        this.state = source.state;
+    }
+
+    /**
+     * @return a generator that continues with the same sequence as this one
+     */
+    public Randomizer copy()
+    {
+        return new Randomizer(this);
     }
 
     /**
@@ -108,7 +143,39 @@ public class Randomizer
      */
     public double next()
     {
-        return source.nextDouble();
+        return (((long) nextBits(26) << 27) + nextBits(27)) * 0x1.0p-53;
+    }
+
+    /**
+     * Draws a seed from this generator, so a whole set of games can be
+     * reproduced from a single seed
+     *
+     * @return a valid seed
+     */
+    public String nextSeed()
+    {
+        char[] seed = new char[8];
+        for (int i = 0; i < seed.length; i++)
+        {
+            seed[i] = VALID_SEED_CHARS.charAt((int) (next() * VALID_SEED_CHARS.length()));
+        }
+
+        return new String(seed);
+    }
+
+    /**
+     * @return the current state of the generator, which can be passed to
+     *         <code>Randomizer(String, long)</code> to resume the sequence
+     */
+    public long getState()
+    {
+        return state;
+    }
+
+    private int nextBits(int bits)
+    {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
     }
 
 }
@@ -0,0 +1,203 @@
+package eecs1510.Game.Server;
+
+import eecs1510.Game.OptionsParser;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hosts many concurrent games over TCP, one session per connection, each on
+ * its own (virtual, when available) thread.
+ *
+ * The protocol is line-oriented. Every command gets exactly one line in
+ * response, except <code>BOARD</code> and <code>PLAY</code>:
+ * <pre>
+ *   NEW [seed] [size]  Start a new game                    OK state | ERR message
+ *   MOVE N|S|E|W       Squash the board and place a tile   OK state | INVALID state | LOST state
+ *   RESUME id          Take over an idle session           OK state | ERR message
+ *   UNDO, REDO         Step through the undo history       OK state | NONE state
+ *   STATE              Report the current game             OK state
+ *   BOARD              Print the board like the console game does, followed by a line with a single "."
+ *   PLAY               Hand the connection over to the interactive console game until it ends
+ *   QUIT               Close the connection                BYE
+ * </pre>
+ * where <code>state</code> is
+ * <code>id=ID score=S moves=M merged=T status=playing|won|lost seed=SEED board=v,v,...</code>
+ * with the board listed in row-major order. Every connection starts with a
+ * random 4x4 game.
+ *
+ * Games outlive their connections. When a client disconnects, its game is
+ * released to the <code>SessionStore</code>, and another connection can pick
+ * it up with <code>RESUME</code>.
+ */
+public class GameServer implements AutoCloseable
+{
+
+    /** The default port to listen on */
+    public static final int DEFAULT_PORT = 2048;
+
+    private final ServerSocket socket;
+    private final SessionStore store;
+    private final ThreadFactory threads = VirtualThreads.factory("session-");
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final LongAdder moves = new LongAdder();
+
+    /**
+     * Binds the server to a port. Call <code>start()</code> to accept connections
+     *
+     * @param address the address to listen on, or null for all addresses
+     * @param port    the port to listen on, or 0 for any free port
+     */
+    public GameServer(InetAddress address, int port) throws IOException
+    {
+        this(address, port, new SessionStore());
+    }
+
+    /**
+     * Binds the server to a port. Call <code>start()</code> to accept connections
+     *
+     * @param address the address to listen on, or null for all addresses
+     * @param port    the port to listen on, or 0 for any free port
+     * @param store   where the games of all sessions are kept
+     */
+    public GameServer(InetAddress address, int port, SessionStore store) throws IOException
+    {
+        this.socket = new ServerSocket(port, 1024, address);
+        this.store = store;
+    }
+
+    public static void main(String[] args)
+    {
+        int[] port = {DEFAULT_PORT};
+        int[] statsSeconds = {0};
+        int[] maxSize = {8};
+        int[] cacheSize = {SessionStore.DEFAULT_CACHE_SIZE};
+
+        new OptionsParser().add("p", "port", "The port to listen on (Default: " + DEFAULT_PORT + ")", (s) -> {
+            port[0] = Integer.parseInt(s);
+        }).add("stats", "Print the number of sessions and moves every N seconds (Default: never)", (s) -> {
+            statsSeconds[0] = Integer.parseInt(s);
+        }).add("maxSize", "The largest board a session may play on (Default: 8)", (s) -> {
+            maxSize[0] = Integer.parseInt(s);
+        }).add("cache", "The number of idle games kept on the heap before they are parked (Default: " + SessionStore.DEFAULT_CACHE_SIZE + ")", (s) -> {
+            cacheSize[0] = Integer.parseInt(s);
+        }).parse(args);
+
+        try(GameServer server = new GameServer(null, port[0], new SessionStore(maxSize[0], cacheSize[0])))
+        {
+            System.out.println("Listening on port " + server.getPort() +
+                    (VirtualThreads.available() ? " with virtual threads" : " with platform threads"));
+
+            Thread acceptor = server.start();
+            long lastMoves = 0;
+            while (acceptor.isAlive())
+            {
+                if (statsSeconds[0] <= 0)
+                {
+                    acceptor.join();
+                    continue;
+                }
+
+                acceptor.join(statsSeconds[0] * 1000L);
+                long total = server.getMoves();
+                System.out.printf("%d sessions, %d stored games (%d parked), %.0f moves/s%n", server.getSessions(),
+                        server.store.getSessions(), server.store.getParked(), (total - lastMoves) / (double) statsSeconds[0]);
+                lastMoves = total;
+            }
+        } catch(IOException | InterruptedException e) {
+            System.err.println("Server failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts accepting connections in the background
+     *
+     * @return the thread accepting connections. It ends when the server is closed
+     */
+    public Thread start()
+    {
+        Thread acceptor = new Thread(() -> {
+            while (!socket.isClosed())
+            {
+                try
+                {
+                    Socket client = socket.accept();
+                    client.setTcpNoDelay(true);
+                    threads.newThread(new GameSession(client, this)).start();
+                } catch(IOException e) {
+                    if (!socket.isClosed())
+                    {
+                        System.err.println("Unable to accept a connection: " + e.getMessage());
+                    }
+                }
+            }
+        }, "game-server-acceptor");
+        acceptor.start();
+
+        return acceptor;
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort()
+    {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return where the games of all sessions are kept
+     */
+    public SessionStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * @return the number of open sessions
+     */
+    public int getSessions()
+    {
+        return sessions.get();
+    }
+
+    /**
+     * @return the total number of moves played on this server
+     */
+    public long getMoves()
+    {
+        return moves.sum();
+    }
+
+    void sessionOpened()
+    {
+        sessions.incrementAndGet();
+    }
+
+    void sessionClosed()
+    {
+        sessions.decrementAndGet();
+    }
+
+    void moveApplied()
+    {
+        moves.increment();
+    }
+
+    /**
+     * Stops accepting connections. Open sessions keep running until their clients disconnect
+     */
+    @Override
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+
+}
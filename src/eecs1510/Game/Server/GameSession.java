@@ -0,0 +1,251 @@
+package eecs1510.Game.Server;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.Direction;
+import eecs1510.Game.Game;
+import eecs1510.Game.MoveResult;
+import eecs1510.Game.Randomizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+
+/**
+ * Plays one game per connection using the line protocol described in
+ * <code>GameServer</code>. Every session owns its own <code>Game</code>, which
+ * prints to the connection instead of the console.
+ */
+public class GameSession implements Runnable
+{
+
+    /** Anything beyond this many characters of a line is dropped, so a client can't make us buffer forever */
+    private static final int MAX_LINE_LENGTH = 256;
+
+    private final Socket socket;
+    private final GameServer server;
+
+    private Game game;
+    /** The id of the session in the store of the server */
+    private long id = -1;
+
+    public GameSession(Socket socket, GameServer server)
+    {
+        this.socket = socket;
+        this.server = server;
+    }
+
+    @Override
+    public void run()
+    {
+        server.sessionOpened();
+        try(Socket s = socket)
+        {
+            BufferedInputStream in = new BufferedInputStream(s.getInputStream());
+            PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), false, "UTF-8");
+
+            game = newGame(Randomizer.randomSeed(), Board.DEFAULT_SIZE, in, out);
+            id = server.getStore().add(game);
+
+            String line;
+            while ((line = readLine(in)) != null)
+            {
+                if (!handle(line.trim(), in, out))
+                {
+                    break;
+                }
+                out.flush();
+            }
+            out.flush();
+        } catch(IOException e) {
+            // The client went away, nothing left to do
+        } catch(Randomizer.InvalidSeedException ignore) {
+            // Random seeds are always valid
+        } finally {
+            if (id >= 0)
+            {
+                // The game stays in the store, so the player can resume it later
+                server.getStore().release(id, game);
+            }
+            server.sessionClosed();
+        }
+    }
+
+    /**
+     * Executes a single command
+     *
+     * @return false if the connection should be closed
+     */
+    private boolean handle(String line, InputStream in, PrintStream out)
+    {
+        String[] args = line.split("\\s+");
+        String command = args[0].toUpperCase();
+
+        switch(command)
+        {
+            case "MOVE":
+                Direction d = args.length > 1 ? parseDirection(args[1]) : null;
+                if (d == null)
+                {
+                    out.println("ERR MOVE needs one of N, S, E or W");
+                } else if (game.isLost()) {
+                    out.println("LOST " + state());
+                } else {
+                    MoveResult result = game.move(d);
+                    server.moveApplied();
+                    out.println((result.isInvalid() ? "INVALID " : "OK ") + state());
+                }
+                return true;
+            case "NEW":
+                try
+                {
+                    String seed = args.length > 1 ? args[1] : Randomizer.randomSeed();
+                    int size = args.length > 2 ? Integer.parseInt(args[2]) : Board.DEFAULT_SIZE;
+                    if (size > server.getStore().getMaxSize())
+                    {
+                        throw new IllegalArgumentException("Boards larger than " + server.getStore().getMaxSize() + " rows are not supported");
+                    }
+                    game = newGame(seed, size, in, out);
+                    out.println("OK " + state());
+                } catch(Randomizer.InvalidSeedException | IllegalArgumentException e) {
+                    out.println("ERR " + e.getMessage());
+                }
+                return true;
+            case "RESUME":
+                try
+                {
+                    long resumed = Long.parseLong(args.length > 1 ? args[1] : "");
+                    Game g = resumed == id ? null : server.getStore().checkout(resumed);
+                    if (g == null)
+                    {
+                        out.println("ERR No idle session " + args[1]);
+                    } else {
+                        server.getStore().release(id, game);
+                        g.setConsole(noClose(in), out);
+                        game = g;
+                        id = resumed;
+                        out.println("OK " + state());
+                    }
+                } catch(NumberFormatException e) {
+                    out.println("ERR RESUME needs the id of a session");
+                }
+                return true;
+            case "UNDO":
+                out.println((game.undo() ? "OK " : "NONE ") + state());
+                return true;
+            case "REDO":
+                out.println((game.redo() ? "OK " : "NONE ") + state());
+                return true;
+            case "STATE":
+                out.println("OK " + state());
+                return true;
+            case "BOARD":
+                game.printBoard();
+                out.println(".");
+                return true;
+            case "PLAY":
+                // The rest of the connection belongs to the interactive game
+                out.flush();
+                game.run();
+                return false;
+            case "QUIT":
+                out.println("BYE");
+                return false;
+            case "":
+                return true;
+            default:
+                out.println("ERR Unknown command " + args[0]);
+                return true;
+        }
+    }
+
+    private static Game newGame(String seed, int size, InputStream in, PrintStream out) throws Randomizer.InvalidSeedException
+    {
+        if (size < 2)
+        {
+            throw new IllegalArgumentException("The board needs at least 2 rows");
+        }
+
+        Game g = new Game(size, seed);
+        g.setConsole(noClose(in), out);
+        return g;
+    }
+
+    private static InputStream noClose(InputStream in)
+    {
+        return new FilterInputStream(in)
+        {
+            @Override
+            public void close()
+            {
+                // Game.run() closes its input when it ends, but the connection stays open until we close it
+            }
+        };
+    }
+
+    private static Direction parseDirection(String s)
+    {
+        switch(Character.toUpperCase(s.charAt(0)))
+        {
+            case 'N': return Direction.NORTH;
+            case 'S': return Direction.SOUTH;
+            case 'E': return Direction.EAST;
+            case 'W': return Direction.WEST;
+            default:  return null;
+        }
+    }
+
+    /**
+     * @return the state of the game on a single line:
+     *         <code>id=ID score=S moves=M merged=T status=playing|won|lost seed=SEED board=v,v,...</code>
+     */
+    private String state()
+    {
+        BoardEngine board = game.getBoard();
+        StringBuilder sb = new StringBuilder(112)
+                .append("id=").append(id)
+                .append(" score=").append(game.getScore())
+                .append(" moves=").append(game.getTotalMoves())
+                .append(" merged=").append(game.getTotalMerged())
+                .append(" status=").append(game.isLost() ? "lost" : board.isWon() ? "won" : "playing")
+                .append(" seed=").append(board.getSeed())
+                .append(" board=");
+
+        for (int row = 0; row < board.getSize(); row++)
+        {
+            for (int column = 0; column < board.getSize(); column++)
+            {
+                if (row + column > 0) sb.append(',');
+                sb.append(board.getElement(row, column));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Reads a line without reading ahead, so that the rest of the stream can be
+     * handed to the interactive game after a <code>PLAY</code> command
+     *
+     * @return the line without its terminator, or null at the end of the stream
+     */
+    static String readLine(InputStream in) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n')
+        {
+            if (c != '\r' && sb.length() < MAX_LINE_LENGTH)
+            {
+                sb.append((char) c);
+            }
+        }
+
+        return c == -1 && sb.length() == 0 ? null : sb.toString();
+    }
+
+}
@@ -0,0 +1,192 @@
+package eecs1510.Game.Server;
+
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Stats.LogHistogram;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Puts a <code>GameServer</code> under load and reports move throughput and latency.
+ *
+ * A number of idle sessions are opened first and kept open for the whole run.
+ * Then every active client sends random moves as fast as the server answers
+ * them, starting a new game whenever one is lost. The latency of a move is
+ * the time from sending <code>MOVE</code> to receiving the response.
+ */
+public class LoadGenerator
+{
+
+    private static final byte[][] MOVES = {
+            "MOVE N\n".getBytes(StandardCharsets.US_ASCII),
+            "MOVE S\n".getBytes(StandardCharsets.US_ASCII),
+            "MOVE E\n".getBytes(StandardCharsets.US_ASCII),
+            "MOVE W\n".getBytes(StandardCharsets.US_ASCII)
+    };
+    private static final byte[] NEW_GAME = "NEW\n".getBytes(StandardCharsets.US_ASCII);
+
+    private String host = "127.0.0.1";
+    private int port = GameServer.DEFAULT_PORT;
+    private int idle = 1000;
+    private int clients = 4;
+    private int seconds = 10;
+    private boolean embedded = false;
+
+    public static void main(String[] args)
+    {
+        LoadGenerator l = new LoadGenerator();
+
+        new OptionsParser().add("host", "The server to connect to (Default: 127.0.0.1)", (s) -> {
+            l.host = s;
+        }).add("p", "port", "The port of the server (Default: " + GameServer.DEFAULT_PORT + ")", (s) -> {
+            l.port = Integer.parseInt(s);
+        }).add("idle", "The number of idle sessions to hold open (Default: 1000)", (s) -> {
+            l.idle = Integer.parseInt(s);
+        }).add("clients", "The number of clients sending moves (Default: 4)", (s) -> {
+            l.clients = Integer.parseInt(s);
+        }).add("seconds", "How long the active clients send moves for (Default: 10)", (s) -> {
+            l.seconds = Integer.parseInt(s);
+        }).addSwitch("embedded", "Start a server in this process on a free loopback port", () -> l.embedded = true)
+          .parse(args);
+
+        try
+        {
+            l.run();
+        } catch(Exception e) {
+            System.err.println("Load test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public void run() throws Exception
+    {
+        GameServer server = null;
+        if (embedded)
+        {
+            server = new GameServer(InetAddress.getLoopbackAddress(), 0);
+            server.start();
+            host = InetAddress.getLoopbackAddress().getHostAddress();
+            port = server.getPort();
+        }
+
+        List<Socket> idleSessions = new ArrayList<>();
+        try
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < idle; i++)
+            {
+                Socket s = connect();
+                s.getOutputStream().write("STATE\n".getBytes(StandardCharsets.US_ASCII));
+                GameSession.readLine(s.getInputStream());
+                idleSessions.add(s);
+            }
+            System.out.printf("Opened %d idle sessions in %.1f s%n", idle, (System.nanoTime() - start) / 1e9);
+
+            Client[] active = new Client[clients];
+            Thread[] threads = new Thread[clients];
+            ThreadFactory factory = VirtualThreads.factory("load-");
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            for (int i = 0; i < clients; i++)
+            {
+                active[i] = new Client(connect(), deadline, i);
+                threads[i] = factory.newThread(active[i]);
+                threads[i].start();
+            }
+
+            LogHistogram latencies = new LogHistogram();
+            for (int i = 0; i < clients; i++)
+            {
+                threads[i].join();
+                if (active[i].failure != null)
+                {
+                    throw active[i].failure;
+                }
+
+                latencies.merge(active[i].latencies);
+            }
+
+            long total = latencies.getCount();
+            System.out.printf("%d moves by %d clients in %d s: %.0f moves/s%n", total, clients, seconds, total / (double) seconds);
+            System.out.printf("Latency (us): p50 %.1f, p90 %.1f, p99 %.1f, p999 %.1f, max %.1f%n",
+                    latencies.percentile(0.5) / 1000.0, latencies.percentile(0.9) / 1000.0, latencies.percentile(0.99) / 1000.0,
+                    latencies.percentile(0.999) / 1000.0, latencies.getMax() / 1000.0);
+        } finally {
+            for (Socket s : idleSessions)
+            {
+                s.close();
+            }
+            if (server != null)
+            {
+                server.close();
+            }
+        }
+    }
+
+    private Socket connect() throws IOException
+    {
+        Socket s = new Socket(host, port);
+        s.setTcpNoDelay(true);
+        return s;
+    }
+
+    /**
+     * Sends random moves until the deadline, recording the latency of each
+     */
+    private static class Client implements Runnable
+    {
+        private final Socket socket;
+        private final long deadline;
+        private final SplittableRandom rng;
+
+        private final LogHistogram latencies = new LogHistogram();
+        private Exception failure = null;
+
+        private Client(Socket socket, long deadline, long seed)
+        {
+            this.socket = socket;
+            this.deadline = deadline;
+            this.rng = new SplittableRandom(seed);
+        }
+
+        @Override
+        public void run()
+        {
+            try(Socket s = socket)
+            {
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = s.getOutputStream();
+
+                long now;
+                while ((now = System.nanoTime()) < deadline)
+                {
+                    out.write(MOVES[rng.nextInt(MOVES.length)]);
+                    String response = GameSession.readLine(in);
+                    if (response == null)
+                    {
+                        throw new IOException("The server closed the connection");
+                    }
+
+                    latencies.record(System.nanoTime() - now);
+
+                    if (response.startsWith("LOST") || response.contains("status=lost"))
+                    {
+                        out.write(NEW_GAME);
+                        GameSession.readLine(in);
+                    }
+                }
+            } catch(Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,368 @@
+package eecs1510.Game.Server;
+
+import eecs1510.Game.Board;
+import eecs1510.Game.BoardEngine;
+import eecs1510.Game.Game;
+import eecs1510.Game.Randomizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the games of many sessions, most of which are idle at any time.
+ *
+ * A <code>Game</code> is an object graph of a board, a random number generator
+ * and the undo history, which costs kilobytes per player. Every session gets
+ * a fixed-width slot in direct buffers outside of the heap instead, holding
+ * the seed, the state of the random number generator, the statistics and the
+ * exponent of every tile. Only the games of connected sessions and a bounded
+ * number of recently released games are kept as <code>Game</code> objects.
+ * When more games are released than fit into that cache, the least recently
+ * used one is written to its slot and dropped from the heap. The next
+ * <code>checkout()</code> builds a new <code>Game</code> from the slot.
+ *
+ * Free slots are chained through their own bytes, so the heap holds no more
+ * than one buffer reference per <code>SLOTS_PER_CHUNK</code> sessions, no
+ * matter how many games are parked. A parked game loses its undo history.
+ */
+public class SessionStore
+{
+
+    /** The number of slots allocated at once */
+    public static final int SLOTS_PER_CHUNK = 1 << 16;
+    /** The default number of released games kept on the heap */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /* ======= Slot layout ======= */
+    private static final int STATUS = 0;
+    private static final int FLAGS = 1;
+    private static final int SIZE = 2;
+    /** The seed as 8 ASCII characters, or the index of the next free slot while the slot is free */
+    private static final int SEED = 8;
+    private static final int RNG_STATE = 16;
+    private static final int SCORE = 24;
+    private static final int TOTAL_MOVES = 28;
+    private static final int TOTAL_MERGED = 32;
+    private static final int MERGED_THIS_TURN = 36;
+    /** One byte per cell holding the exponent of the tile, row-major */
+    private static final int CELLS = 40;
+    /* =========================== */
+
+    /* ======= Slot status ======= */
+    private static final byte FREE = 0;
+    private static final byte PARKED = 1;
+    private static final byte CACHED = 2;
+    private static final byte CHECKED_OUT = 3;
+    /* =========================== */
+
+    private static final byte LOST = 1;
+    private static final byte ENDLESS = 2;
+
+    private final int maxSize;
+    private final int slotWidth;
+    private final int cacheSize;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    /** The first free slot, or -1 if all allocated slots are in use */
+    private long firstFree = -1;
+
+    private long sessions = 0;
+    private long parked = 0;
+
+    /** Released games that are still on the heap, least recently used first */
+    private final LinkedHashMap<Long, Game> cache = new LinkedHashMap<Long, Game>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Game> eldest)
+        {
+            if (size() <= cacheSize)
+            {
+                return false;
+            }
+
+            park(eldest.getKey(), eldest.getValue());
+            return true;
+        }
+    };
+
+    public SessionStore()
+    {
+        this(8, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param maxSize   the largest board that can be stored
+     * @param cacheSize the number of released games to keep on the heap
+     */
+    public SessionStore(int maxSize, int cacheSize)
+    {
+        if (maxSize < 2 || maxSize > 64)
+        {
+            throw new IllegalArgumentException("The largest board must be between 2 and 64 rows");
+        }
+
+        this.maxSize = maxSize;
+        this.slotWidth = (CELLS + maxSize * maxSize + 7) & ~7;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return the largest board that can be stored
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Stores a new game. The game stays checked out until it is released
+     *
+     * @param game the game to store
+     * @return the id of the session
+     * @throws IllegalArgumentException if the board is larger than <code>getMaxSize()</code>
+     */
+    public synchronized long add(Game game)
+    {
+        checkSize(game);
+
+        if (firstFree < 0)
+        {
+            grow();
+        }
+
+        long id = firstFree;
+        ByteBuffer chunk = chunk(id);
+        int offset = offset(id);
+        firstFree = chunk.getLong(offset + SEED);
+
+        chunk.put(offset + STATUS, CHECKED_OUT);
+        sessions++;
+
+        return id;
+    }
+
+    /**
+     * Hands a game to a session. It can't be checked out again until it is released
+     *
+     * @param id the id of the session
+     * @return the game of the session, or null if there is no such session
+     *         or its game is already checked out
+     */
+    public synchronized Game checkout(long id)
+    {
+        byte status = status(id);
+        if (status == CACHED)
+        {
+            chunk(id).put(offset(id) + STATUS, CHECKED_OUT);
+            return cache.remove(id);
+        } else if (status == PARKED) {
+            chunk(id).put(offset(id) + STATUS, CHECKED_OUT);
+            parked--;
+            return hydrate(id);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a checked out game to the store. This may park the least recently released game
+     *
+     * @param id   the id of the session
+     * @param game the current game of the session, which may be a different game than the one checked out
+     * @throws IllegalArgumentException if the game is not checked out or its board is too large
+     */
+    public synchronized void release(long id, Game game)
+    {
+        if (status(id) != CHECKED_OUT)
+        {
+            throw new IllegalArgumentException("Session " + id + " is not checked out");
+        }
+        checkSize(game);
+
+        chunk(id).put(offset(id) + STATUS, CACHED);
+        cache.put(id, game);
+    }
+
+    /**
+     * Forgets a session and frees its slot
+     *
+     * @param id the id of the session
+     */
+    public synchronized void remove(long id)
+    {
+        byte status = status(id);
+        if (status == FREE)
+        {
+            return;
+        } else if (status == CACHED) {
+            cache.remove(id);
+        } else if (status == PARKED) {
+            parked--;
+        }
+
+        ByteBuffer chunk = chunk(id);
+        int offset = offset(id);
+        chunk.put(offset + STATUS, FREE);
+        chunk.putLong(offset + SEED, firstFree);
+        firstFree = id;
+        sessions--;
+    }
+
+    /**
+     * @return the number of sessions in the store
+     */
+    public synchronized long getSessions()
+    {
+        return sessions;
+    }
+
+    /**
+     * @return the number of games that are parked outside of the heap
+     */
+    public synchronized long getParked()
+    {
+        return parked;
+    }
+
+    /**
+     * @return the number of released games that are still on the heap
+     */
+    public synchronized int getCached()
+    {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of bytes allocated outside of the heap
+     */
+    public synchronized long getOffHeapBytes()
+    {
+        return (long) chunks.size() * SLOTS_PER_CHUNK * slotWidth;
+    }
+
+    /**
+     * Allocates another chunk of slots and chains them into the free list
+     */
+    private void grow()
+    {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(SLOTS_PER_CHUNK * slotWidth).order(ByteOrder.nativeOrder());
+        long first = (long) chunks.size() * SLOTS_PER_CHUNK;
+        chunks.add(chunk);
+
+        for (int i = 0; i < SLOTS_PER_CHUNK; i++)
+        {
+            chunk.putLong(i * slotWidth + SEED, i + 1 < SLOTS_PER_CHUNK ? first + i + 1 : firstFree);
+        }
+        firstFree = first;
+    }
+
+    /**
+     * Writes a game to its slot
+     */
+    private void park(long id, Game game)
+    {
+        ByteBuffer chunk = chunk(id);
+        int offset = offset(id);
+        BoardEngine board = game.getBoard();
+
+        chunk.put(offset + STATUS, PARKED);
+        chunk.put(offset + FLAGS, (byte) ((game.isLost() ? LOST : 0) | (game.isEndless() ? ENDLESS : 0)));
+        chunk.put(offset + SIZE, (byte) board.getSize());
+
+        byte[] seed = board.getSeed().getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < seed.length; i++)
+        {
+            chunk.put(offset + SEED + i, seed[i]);
+        }
+
+        chunk.putLong(offset + RNG_STATE, board.getRandomState());
+        chunk.putInt(offset + SCORE, game.getScore());
+        chunk.putInt(offset + TOTAL_MOVES, game.getTotalMoves());
+        chunk.putInt(offset + TOTAL_MERGED, game.getTotalMerged());
+        chunk.putInt(offset + MERGED_THIS_TURN, game.getTotalMergedThisTurn());
+
+        int cell = offset + CELLS;
+        for (int row = 0; row < board.getSize(); row++)
+        {
+            for (int column = 0; column < board.getSize(); column++)
+            {
+                int value = board.getElement(row, column);
+                chunk.put(cell++, (byte) (value == 0 ? 0 : Integer.numberOfTrailingZeros(value)));
+            }
+        }
+
+        parked++;
+    }
+
+    /**
+     * Builds a game from its slot
+     */
+    private Game hydrate(long id)
+    {
+        ByteBuffer chunk = chunk(id);
+        int offset = offset(id);
+        int size = chunk.get(offset + SIZE);
+        byte flags = chunk.get(offset + FLAGS);
+
+        byte[] seed = new byte[8];
+        for (int i = 0; i < seed.length; i++)
+        {
+            seed[i] = chunk.get(offset + SEED + i);
+        }
+
+        int[][] data = new int[size][size];
+        int cell = offset + CELLS;
+        for (int row = 0; row < size; row++)
+        {
+            for (int column = 0; column < size; column++)
+            {
+                int exponent = chunk.get(cell++);
+                data[row][column] = exponent == 0 ? 0 : 1 << exponent;
+            }
+        }
+
+        try
+        {
+            Board board = new Board(new String(seed, StandardCharsets.US_ASCII), chunk.getLong(offset + RNG_STATE), data);
+            return new Game(board, chunk.getInt(offset + SCORE), chunk.getInt(offset + TOTAL_MOVES),
+                    chunk.getInt(offset + TOTAL_MERGED), chunk.getInt(offset + MERGED_THIS_TURN),
+                    (flags & LOST) != 0, (flags & ENDLESS) != 0);
+        } catch(Randomizer.InvalidSeedException e) {
+            throw new IllegalStateException("Session " + id + " holds an invalid seed", e);
+        }
+    }
+
+    private void checkSize(Game game)
+    {
+        if (game.getBoard().getSize() > maxSize)
+        {
+            throw new IllegalArgumentException("Boards larger than " + maxSize + "x" + maxSize + " can't be stored");
+        }
+    }
+
+    private byte status(long id)
+    {
+        if (id < 0 || id >= (long) chunks.size() * SLOTS_PER_CHUNK)
+        {
+            return FREE;
+        }
+
+        return chunk(id).get(offset(id) + STATUS);
+    }
+
+    private ByteBuffer chunk(long id)
+    {
+        return chunks.get((int) (id / SLOTS_PER_CHUNK));
+    }
+
+    private int offset(long id)
+    {
+        return (int) (id % SLOTS_PER_CHUNK) * slotWidth;
+    }
+
+}
@@ -0,0 +1,106 @@
+package eecs1510.Game.Server;
+
+import eecs1510.Game.Direction;
+import eecs1510.Game.Game;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Randomizer;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fills a <code>SessionStore</code> with idle games and reports how much heap
+ * and off-heap memory they use, then measures how fast idle games can be
+ * resumed and released again.
+ *
+ * Every game plays a few random moves before it is released, so the parked
+ * boards look like games in progress.
+ */
+public class SessionStoreBenchmark
+{
+
+    private int sessions = 1_000_000;
+    private int cacheSize = SessionStore.DEFAULT_CACHE_SIZE;
+    private int size = 4;
+    private int moves = 10;
+    private int seconds = 5;
+
+    public static void main(String[] args)
+    {
+        SessionStoreBenchmark b = new SessionStoreBenchmark();
+
+        new OptionsParser().add("sessions", "The number of games to store (Default: 1000000)", (s) -> {
+            b.sessions = Integer.parseInt(s);
+        }).add("cache", "The number of idle games kept on the heap (Default: " + SessionStore.DEFAULT_CACHE_SIZE + ")", (s) -> {
+            b.cacheSize = Integer.parseInt(s);
+        }).add("size", "The size of the boards (Default: 4)", (s) -> {
+            b.size = Integer.parseInt(s);
+        }).add("moves", "The number of random moves each game plays before it is stored (Default: 10)", (s) -> {
+            b.moves = Integer.parseInt(s);
+        }).add("seconds", "How long to resume and release random games for (Default: 5)", (s) -> {
+            b.seconds = Integer.parseInt(s);
+        }).parse(args);
+
+        try
+        {
+            b.run();
+        } catch(Randomizer.InvalidSeedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void run() throws Randomizer.InvalidSeedException
+    {
+        SessionStore store = new SessionStore(size, cacheSize);
+        SplittableRandom rng = new SplittableRandom(2048);
+        Direction[] directions = Direction.values();
+
+        System.out.printf("%12s %12s %12s %12s%n", "sessions", "parked", "heap (MB)", "off-heap (MB)");
+        int step = Math.max(1, sessions / 10);
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++)
+        {
+            Game game = new Game(size, Randomizer.randomSeed());
+            for (int m = 0; m < moves && !game.isLost(); m++)
+            {
+                game.move(directions[rng.nextInt(directions.length)]);
+            }
+
+            store.release(store.add(game), game);
+
+            if ((i + 1) % step == 0)
+            {
+                System.out.printf("%12d %12d %12.1f %12.1f%n", i + 1, store.getParked(), usedHeap() / 1e6, store.getOffHeapBytes() / 1e6);
+            }
+        }
+        System.out.printf("Stored %d games in %.1f s%n", sessions, (System.nanoTime() - start) / 1e9);
+
+        long resumed = 0;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        start = System.nanoTime();
+        while (System.nanoTime() < deadline)
+        {
+            for (int i = 0; i < 1024; i++)
+            {
+                long id = rng.nextInt(sessions);
+                Game game = store.checkout(id);
+                if (!game.isLost())
+                {
+                    game.move(directions[rng.nextInt(directions.length)]);
+                }
+                store.release(id, game);
+            }
+            resumed += 1024;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Resumed, moved and released %d random games in %.2f s: %.0f games/s%n", resumed, elapsed, resumed / elapsed);
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,160 @@
+package eecs1510.Game.Server;
+
+import eecs1510.Game.BoardEngines;
+import eecs1510.Game.Direction;
+import eecs1510.Game.Game;
+import eecs1510.Game.GameSnapshots;
+import eecs1510.Game.OptionsParser;
+import eecs1510.Game.Randomizer;
+import eecs1510.Game.Stats.LogHistogram;
+import eecs1510.Game.ZobristKeys;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays random moves on one thread while other threads read snapshots of the
+ * game as fast as they can, and reports the latency of the moves with and
+ * without spectators, how many snapshots were read, and whether any of them
+ * was inconsistent.
+ *
+ * A snapshot is consistent if the hash published with it matches its tiles
+ * and if the snapshots a spectator reads never go back in time.
+ */
+public class SpectatorBenchmark
+{
+
+    private int spectators = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int moves = 1_000_000;
+    private int size = 4;
+    private String engine = BoardEngines.REFERENCE;
+
+    /** The game being played. Replaced whenever a game is lost */
+    private volatile Game game;
+    private volatile boolean done;
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder inconsistent = new LongAdder();
+
+    public static void main(String[] args)
+    {
+        SpectatorBenchmark b = new SpectatorBenchmark();
+
+        new OptionsParser().add("spectators", "The number of threads reading snapshots (Default: one per core, less one for the game)", (s) -> {
+            b.spectators = Integer.parseInt(s);
+        }).add("moves", "The number of moves to time, with and without spectators (Default: 1000000)", (s) -> {
+            b.moves = Integer.parseInt(s);
+        }).add("size", "The size of the board (Default: 4)", (s) -> {
+            b.size = Integer.parseInt(s);
+        }).add("engine", "The board engine to play with: " + String.join(", ", BoardEngines.NAMES) + " (Default: " + BoardEngines.REFERENCE + ")", (s) -> {
+            b.engine = s;
+        }).parse(args);
+
+        try
+        {
+            b.run();
+        } catch(Randomizer.InvalidSeedException | InterruptedException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    public void run() throws Randomizer.InvalidSeedException, InterruptedException
+    {
+        SplittableRandom random = new SplittableRandom(2048);
+        game = new Game(size, Randomizer.randomSeed(), engine);
+
+        // Warm up, then play the same number of moves without and with spectators
+        play(random, moves / 10);
+        LogHistogram alone = play(random, moves);
+
+        Thread[] running = new Thread[spectators];
+        for (int i = 0; i < spectators; i++)
+        {
+            running[i] = new Thread(this::watch, "spectator-" + i);
+            running[i].start();
+        }
+
+        long start = System.nanoTime();
+        LogHistogram watched = play(random, moves);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        done = true;
+        for (Thread t : running)
+        {
+            t.join();
+        }
+
+        System.out.println("Move latency (ns) without spectators: " + alone);
+        System.out.println("Move latency (ns) with " + spectators + " spectators: " + watched);
+        System.out.printf("%d snapshots read (%.1f million/s), %d inconsistent%n", reads.sum(), reads.sum() / elapsed / 1e6, inconsistent.sum());
+    }
+
+    /**
+     * Plays random valid moves, starting a new game whenever one is lost
+     *
+     * @return the latency of the moves
+     */
+    private LogHistogram play(SplittableRandom random, int count) throws Randomizer.InvalidSeedException
+    {
+        Direction[] directions = Direction.values();
+        LogHistogram latency = new LogHistogram();
+
+        for (int i = 0; i < count; i++)
+        {
+            if (game.isLost())
+            {
+                game = new Game(size, Randomizer.randomSeed(), engine);
+            }
+
+            Direction d = directions[random.nextInt(directions.length)];
+            long begin = System.nanoTime();
+            game.move(d);
+            latency.record(System.nanoTime() - begin);
+        }
+
+        return latency;
+    }
+
+    /**
+     * Reads snapshots of the current game until the benchmark is done
+     */
+    private void watch()
+    {
+        ZobristKeys keys = ZobristKeys.forSize(size);
+        GameSnapshots.Snapshot snapshot = new GameSnapshots.Snapshot();
+        GameSnapshots watching = null;
+        long last = 0;
+        long count = 0;
+
+        while (!done)
+        {
+            GameSnapshots current = game.getSnapshots();
+            if (current != watching)
+            {
+                watching = current;
+                last = 0;
+            }
+
+            if (!watching.read(snapshot)) continue;
+            count++;
+
+            long hash = 0L;
+            for (int row = 0; row < snapshot.size; row++)
+            {
+                for (int column = 0; column < snapshot.size; column++)
+                {
+                    hash ^= keys.key(row, column, snapshot.getElement(row, column));
+                }
+            }
+
+            if (hash != snapshot.hash || snapshot.sequence < last)
+            {
+                inconsistent.increment();
+            }
+            last = snapshot.sequence;
+        }
+
+        reads.add(count);
+    }
+
+}
@@ -0,0 +1,57 @@
+package eecs1510.Game.Server;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates one thread per connection.
+ *
+ * On Java 21 and later these are virtual threads, which cost a few hundred
+ * bytes while they are blocked on a socket, so tens of thousands of idle
+ * sessions are cheap. The game is built for Java 8, so virtual threads are
+ * looked up reflectively; on older runtimes every connection gets a daemon
+ * platform thread instead.
+ */
+public class VirtualThreads
+{
+
+    private VirtualThreads() {}
+
+    /**
+     * @param name the prefix of the names of the created threads
+     * @return a factory for virtual threads if the runtime supports them,
+     *         otherwise a factory for daemon platform threads
+     */
+    public static ThreadFactory factory(String name)
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch(ReflectiveOperationException e) {
+            AtomicLong counter = new AtomicLong();
+            return (r) -> {
+                Thread t = new Thread(r, name + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean available()
+    {
+        try
+        {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch(NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package eecs1510.Game.Stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Accumulates the outcomes of many games in constant memory: the distributions
+ * of the final score, the number of moves, the largest tile and the time each
+ * move took.
+ *
+ * Like <code>LogHistogram</code>, an accumulator belongs to a single thread.
+ * Simulations running on several threads give each thread its own and
+ * <code>merge()</code> them at the end. Simulations running in several
+ * processes send theirs with <code>write()</code> and <code>read()</code>.
+ */
+public class GameStatistics
+{
+
+    private final LogHistogram score = new LogHistogram();
+    private final LogHistogram moves = new LogHistogram();
+    private final LogHistogram maxTile = new LogHistogram();
+    private final LogHistogram moveNanos = new LogHistogram();
+
+    private long won = 0;
+
+    /**
+     * Records the outcome of a finished game
+     *
+     * @param score   the final score
+     * @param moves   the number of moves made
+     * @param maxTile the largest tile on the final board
+     * @param won     whether or not the game reached the winning tile
+     */
+    public void recordGame(int score, int moves, int maxTile, boolean won)
+    {
+        this.score.record(score);
+        this.moves.record(moves);
+        this.maxTile.record(maxTile);
+        if (won) this.won++;
+    }
+
+    /**
+     * Records how long a single move took, including choosing it
+     *
+     * @param nanos the duration of the move in nanoseconds
+     */
+    public void recordMove(long nanos)
+    {
+        moveNanos.record(nanos);
+    }
+
+    /**
+     * Adds everything recorded by another accumulator to this one
+     */
+    public void merge(GameStatistics other)
+    {
+        score.merge(other.score);
+        moves.merge(other.moves);
+        maxTile.merge(other.maxTile);
+        moveNanos.merge(other.moveNanos);
+        won += other.won;
+    }
+
+    /**
+     * Writes everything recorded in a compact binary form
+     *
+     * @param out where to write to
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        score.write(out);
+        moves.write(out);
+        maxTile.write(out);
+        moveNanos.write(out);
+        out.writeLong(won);
+    }
+
+    /**
+     * Reads an accumulator written by <code>write()</code>
+     *
+     * @param in where to read from
+     * @return the accumulator
+     * @throws IOException if the accumulator could not be read or is damaged
+     */
+    public static GameStatistics read(DataInput in) throws IOException
+    {
+        GameStatistics s = new GameStatistics();
+        readInto(in, s.score);
+        readInto(in, s.moves);
+        readInto(in, s.maxTile);
+        readInto(in, s.moveNanos);
+        s.won = in.readLong();
+
+        return s;
+    }
+
+    /**
+     * Reads a histogram and adds it to one of the histograms of the accumulator
+     *
+     * @throws IOException if the histogram could not be read or has a different precision
+     */
+    private static void readInto(DataInput in, LogHistogram into) throws IOException
+    {
+        LogHistogram h = LogHistogram.read(in);
+        if (h.getPrecision() != into.getPrecision())
+        {
+            throw new IOException("Damaged statistics: precision " + h.getPrecision() + " instead of " + into.getPrecision());
+        }
+
+        into.merge(h);
+    }
+
+    /**
+     * @return the number of recorded games
+     */
+    public long getGames()
+    {
+        return score.getCount();
+    }
+
+    /**
+     * @return the number of recorded games that reached the winning tile
+     */
+    public long getWon()
+    {
+        return won;
+    }
+
+    public LogHistogram getScore()
+    {
+        return score;
+    }
+
+    public LogHistogram getMoves()
+    {
+        return moves;
+    }
+
+    public LogHistogram getMaxTile()
+    {
+        return maxTile;
+    }
+
+    public LogHistogram getMoveNanos()
+    {
+        return moveNanos;
+    }
+
+    /**
+     * Prints one line per distribution
+     */
+    public void print(PrintStream out)
+    {
+        out.printf("Games:             %d (%.1f%% won)%n", getGames(), 100.0 * won / Math.max(1, getGames()));
+        out.println("Score:             " + score);
+        out.println("Moves:             " + moves);
+        out.println("Max tile:          " + maxTile);
+        out.println("Move latency (ns): " + moveNanos);
+    }
+
+}
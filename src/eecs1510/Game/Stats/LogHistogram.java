@@ -0,0 +1,284 @@
+package eecs1510.Game.Stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Counts non-negative values in logarithmic buckets, so any number of values
+ * can be recorded in a fixed amount of memory while percentiles stay accurate
+ * to a fixed relative error.
+ *
+ * With a precision of <code>p</code> bits, values below <code>2^p</code> get
+ * a bucket each. Every power of two above that is split into <code>2^p</code>
+ * buckets of equal width, so the width of a bucket is never more than
+ * <code>2^-p</code> of the values in it (about 3% for the default precision).
+ * The exact count, sum, minimum and maximum are tracked as well.
+ *
+ * Histograms are not thread-safe. Give every thread its own histogram and
+ * <code>merge()</code> them when the run is done. Histograms of other
+ * processes travel with <code>write()</code> and <code>read()</code>.
+ */
+public class LogHistogram
+{
+
+    /** The default number of bits of precision */
+    public static final int DEFAULT_PRECISION = 5;
+
+    private final int precision;
+    private final long[] buckets;
+
+    private long count = 0;
+    private double sum = 0.0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public LogHistogram()
+    {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision the number of bits of precision, between 1 and 16
+     */
+    public LogHistogram(int precision)
+    {
+        if (precision < 1 || precision > 16)
+        {
+            throw new IllegalArgumentException("The precision must be between 1 and 16 bits");
+        }
+
+        this.precision = precision;
+        this.buckets = new long[(64 - precision) << precision];
+    }
+
+    /**
+     * Records a value
+     *
+     * @param value the value to record. Negative values are recorded as 0
+     */
+    public void record(long value)
+    {
+        record(value, 1);
+    }
+
+    /**
+     * Records a value several times
+     *
+     * @param value the value to record. Negative values are recorded as 0
+     * @param times how many times to record it
+     */
+    public void record(long value, long times)
+    {
+        long v = Math.max(value, 0);
+
+        buckets[indexOf(v)] += times;
+        count += times;
+        sum += (double) v * times;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Adds all values recorded by another histogram to this one
+     *
+     * @param other a histogram with the same precision
+     */
+    public void merge(LogHistogram other)
+    {
+        if (other.precision != precision)
+        {
+            throw new IllegalArgumentException("Only histograms with the same precision can be merged");
+        }
+
+        for (int i = 0; i < buckets.length; i++)
+        {
+            buckets[i] += other.buckets[i];
+        }
+
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Writes the histogram in a compact binary form, listing only the buckets that are in use
+     *
+     * @param out where to write to
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        int used = 0;
+        for (long b : buckets)
+        {
+            if (b != 0) used++;
+        }
+
+        out.writeByte(precision);
+        out.writeLong(count);
+        out.writeDouble(sum);
+        out.writeLong(min);
+        out.writeLong(max);
+        out.writeInt(used);
+        for (int i = 0; i < buckets.length; i++)
+        {
+            if (buckets[i] != 0)
+            {
+                out.writeInt(i);
+                out.writeLong(buckets[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a histogram written by <code>write()</code>
+     *
+     * @param in where to read from
+     * @return the histogram
+     * @throws IOException if the histogram could not be read or is damaged
+     */
+    public static LogHistogram read(DataInput in) throws IOException
+    {
+        int precision = in.readByte();
+        if (precision < 1 || precision > 16)
+        {
+            throw new IOException("Damaged histogram: precision " + precision);
+        }
+
+        LogHistogram h = new LogHistogram(precision);
+        h.count = in.readLong();
+        h.sum = in.readDouble();
+        h.min = in.readLong();
+        h.max = in.readLong();
+
+        int used = in.readInt();
+        for (int i = 0; i < used; i++)
+        {
+            int index = in.readInt();
+            if (index < 0 || index >= h.buckets.length)
+            {
+                throw new IOException("Damaged histogram: bucket " + index);
+            }
+            h.buckets[index] = in.readLong();
+        }
+
+        return h;
+    }
+
+    /**
+     * Forgets all recorded values
+     */
+    public void reset()
+    {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sum = 0.0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * @return the number of bits of precision
+     */
+    public int getPrecision()
+    {
+        return precision;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return the smallest recorded value, or 0 if nothing was recorded
+     */
+    public long getMin()
+    {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest recorded value
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * @return the mean of all recorded values, or 0 if nothing was recorded
+     */
+    public double getMean()
+    {
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    /**
+     * @param p the fraction of values that should be at or below the result, between 0 and 1
+     * @return the largest value that falls into the same bucket as the value
+     *         at that rank, but never more than the largest recorded value.
+     *         0 if nothing was recorded
+     */
+    public long percentile(double p)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(p, 0.0), 1.0) * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++)
+        {
+            seen += buckets[i];
+            if (seen >= rank)
+            {
+                return Math.max(min, Math.min(max, highestValueIn(i)));
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * @return the count, mean, median, p90, p99, p999 and maximum on a single line
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d",
+                count, getMean(), percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999), getMax());
+    }
+
+    private int indexOf(long v)
+    {
+        int highestBit = 63 - Long.numberOfLeadingZeros(v);
+        if (highestBit < precision)
+        {
+            return (int) v;
+        }
+
+        int shift = highestBit - precision;
+        return ((shift + 1) << precision) + (int) ((v >>> shift) - (1L << precision));
+    }
+
+    private long highestValueIn(int index)
+    {
+        int group = index >>> precision;
+        long sub = index & ((1 << precision) - 1);
+        if (group == 0)
+        {
+            return sub;
+        }
+
+        int shift = group - 1;
+        return (((1L << precision) + sub) << shift) + (1L << shift) - 1;
+    }
+
+}
@@ -0,0 +1,80 @@
+package eecs1510.Game;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Random keys for Zobrist hashing of game boards.
+ *
+ * Every combination of cell and tile gets a random 64-bit key, and the hash
+ * of a board is the XOR of the keys of all of its tiles (empty cells have no
+ * key). Changing a single cell therefore only needs two XORs to update the
+ * hash. The keys are generated from a fixed seed, so hashes are the same in
+ * every process and can be stored.
+ *
+ * Instances are immutable and shared; obtain one with <code>forSize()</code>
+ */
+public class ZobristKeys
+{
+
+    /** Tiles are identified by their exponent, which is below 32 for any int */
+    private static final int EXPONENTS = 32;
+    private static final long KEY_SEED = 0x2048_2048_2048_2048L;
+
+    private static final ConcurrentHashMap<Integer, ZobristKeys> INSTANCES = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final long[] keys;
+
+    private ZobristKeys(int size)
+    {
+        this.size = size;
+        this.keys = new long[size * size * EXPONENTS];
+
+        SplittableRandom rng = new SplittableRandom(KEY_SEED + size);
+        for (int i = 0; i < keys.length; i++)
+        {
+            // Exponent 0 is an empty cell, which doesn't contribute to the hash
+            keys[i] = i % EXPONENTS == 0 ? 0L : rng.nextLong();
+        }
+    }
+
+    /**
+     * @param size the size of the board
+     * @return the shared keys for boards of the specified size
+     */
+    public static ZobristKeys forSize(int size)
+    {
+        return INSTANCES.computeIfAbsent(size, ZobristKeys::new);
+    }
+
+    /**
+     * @param row    the row of the cell
+     * @param column the column of the cell
+     * @param value  the value of the tile in the cell (0 for an empty cell)
+     * @return the key of the tile in the cell
+     */
+    public long key(int row, int column, int value)
+    {
+        return value <= 0 ? 0L : keys[(row * size + column) * EXPONENTS + Integer.numberOfTrailingZeros(value)];
+    }
+
+    /**
+     * @param data a SIZE x SIZE array of tile values
+     * @return the hash of the board
+     */
+    public long hash(int[][] data)
+    {
+        long hash = 0L;
+        for (int row = 0; row < size; row++)
+        {
+            for (int column = 0; column < size; column++)
+            {
+                hash ^= key(row, column, data[row][column]);
+            }
+        }
+
+        return hash;
+    }
+
+}